@@ -0,0 +1,121 @@
+package testSupport;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * One source file captured at test start: a single read into one byte buffer.
+ * Line and string views are derived on demand and never retained, so a file
+ * that is skipped or never diffed costs exactly its size in memory.
+ *
+ * A file SourceManifest shows unchanged since the last session, whose digest is
+ * also the last diffed run's, is captured by that digest alone: writeDiffs skips
+ * it without reading it. Every other file is read at capture time.
+ */
+class CapturedSource {
+
+	private final Path file;  // read from on first use when deferred
+	private byte[] bytes;     // null until a deferred source is read
+	private final String digest;
+
+	private CapturedSource(Path file, byte[] bytes, String digest) {
+		this.file = file;
+		this.bytes = bytes;
+		this.digest = digest;
+	}
+
+	static CapturedSource read(Path file) throws IOException {
+		byte[] bytes = Files.readAllBytes(file);
+		LoggingEvents.addBytesRead(bytes.length);
+		return new CapturedSource(file, bytes, digest(bytes));
+	}
+
+	// digest is the file's recorded one; its bytes are read on first use
+	static CapturedSource deferred(Path file, String digest) {
+		return new CapturedSource(file, null, digest);
+	}
+
+	// Deferred only if the file is unchanged since the last diffed run and no new generation needs its baseline
+	static CapturedSource capture(SourceManifest.FileStat stat, SourceManifest previous,
+			Map<String, String> previousDigests, boolean rebaselining) throws IOException {
+		String digest = previous.unchangedDigest(stat);
+		if (digest == null || rebaselining || !digest.equals(previousDigests.get(stat.path.toString()))) {
+			return read(stat.path);
+		}
+		return deferred(stat.path, digest);
+	}
+
+	boolean isDeferred() {
+		return bytes == null;
+	}
+
+	// CRC32C of the captured bytes, as hex
+	String getDigest() {
+		return digest;
+	}
+
+	long getSize() {
+		return bytes().length;
+	}
+
+	boolean hasSameContents(CapturedSource other) {
+		return other == this || Arrays.equals(bytes(), other.bytes());
+	}
+
+	// Same as new String(Files.readAllBytes(file)), which baselines have always been written from
+	String getContents() {
+		return new String(bytes());
+	}
+
+	// Same lines as Files.readAllLines(file, UTF_8), including its malformed-input check
+	List<String> getLines() throws IOException {
+		List<String> lines = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new ByteArrayInputStream(bytes()), StandardCharsets.UTF_8.newDecoder()))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Only a deferred file whose baseline went missing is read here. If it was
+	 * edited after the tests started, its tested contents are gone, so it fails
+	 * instead of passing the edit off as the tested code.
+	 */
+	private synchronized byte[] bytes() {
+		if (bytes == null) {
+			byte[] current;
+			try {
+				current = Files.readAllBytes(file);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			LoggingEvents.addBytesRead(current.length);
+			if (!digest(current).equals(digest)) {
+				throw new UncheckedIOException(new IOException(file + " changed after the tests started"));
+			}
+			bytes = current;
+		}
+		return bytes;
+	}
+
+	static String digest(byte[] bytes) {
+		CRC32C crc = new CRC32C();
+		crc.update(bytes, 0, bytes.length);
+		return String.format("%08x", crc.getValue());
+	}
+}
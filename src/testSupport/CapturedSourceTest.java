@@ -0,0 +1,109 @@
+package testSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Source files edited between beforeAll and the flush must be diffed as they
+ * were tested, never as they are at the flush.
+ */
+public class CapturedSourceTest {
+
+	private static final String TESTED = "class Tested {}\n";
+	private static final String EDITED = "class Tested { int edited; }\n";
+
+	private Path dir;
+	private Path file;
+	private SourceManifest.FileStat stat;
+	private SourceManifest manifest;
+	private Map<String, String> previousDigests;
+
+	/**
+	 * Records the file as the last session left it, old enough for its stat to be trusted.
+	 */
+	@BeforeEach
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("capturedSource");
+		file = dir.resolve("Tested.java");
+		Files.write(file, TESTED.getBytes(StandardCharsets.UTF_8));
+		long mtime = System.currentTimeMillis() - 10 * SourceManifest.RACY_WINDOW_MS;
+		Files.setLastModifiedTime(file, FileTime.fromMillis(mtime));
+		stat = new SourceManifest.FileStat(file, Files.size(file), mtime);
+
+		String digest = CapturedSource.digest(Files.readAllBytes(file));
+		manifest = new SourceManifest(System.currentTimeMillis());
+		manifest.put(stat, digest);
+		previousDigests = new HashMap<>();
+		previousDigests.put(file.toString(), digest);
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		try (Stream<Path> paths = Files.walk(dir)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Test
+	public void testFileChangedSinceLastDiffedRunIsReadAtCapture() throws IOException {
+		previousDigests.put(file.toString(), "00000000");
+		CapturedSource captured = CapturedSource.capture(stat, manifest, previousDigests, false);
+		assertFalse(captured.isDeferred());
+
+		edit();
+		assertEquals(TESTED, captured.getContents());
+		assertEquals(CapturedSource.digest(TESTED.getBytes(StandardCharsets.UTF_8)), captured.getDigest());
+	}
+
+	@Test
+	public void testRebaseliningReadsUnchangedFilesAtCapture() throws IOException {
+		CapturedSource captured = CapturedSource.capture(stat, manifest, previousDigests, true);
+		assertFalse(captured.isDeferred());
+
+		edit();
+		assertEquals(TESTED, captured.getContents());
+	}
+
+	@Test
+	public void testUnchangedFileIsDeferred() throws IOException {
+		CapturedSource captured = CapturedSource.capture(stat, manifest, previousDigests, false);
+		assertTrue(captured.isDeferred());
+		assertEquals(previousDigests.get(file.toString()), captured.getDigest());
+		assertEquals(TESTED, captured.getContents());
+	}
+
+	@Test
+	public void testDeferredFileEditedBeforeFlushIsNotDiffed() throws IOException {
+		CapturedSource captured = CapturedSource.capture(stat, manifest, previousDigests, false);
+		assertTrue(captured.isDeferred());
+
+		edit();
+		assertEquals(previousDigests.get(file.toString()), captured.getDigest());
+		assertThrows(UncheckedIOException.class, () -> captured.getContents());
+		assertThrows(UncheckedIOException.class, () -> captured.getLines());
+	}
+
+	// What a student saving the file while the tests run does
+	private void edit() throws IOException {
+		Files.write(file, EDITED.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,46 @@
+package testSupport;
+
+import java.util.List;
+
+import com.github.difflib.algorithm.Change;
+import com.github.difflib.algorithm.DiffAlgorithmI;
+import com.github.difflib.algorithm.DiffAlgorithmListener;
+import com.github.difflib.algorithm.DiffException;
+
+/**
+ * Line diff used for patches, chosen by "diffAlgorithm" in testRunInfo.json. Every
+ * algorithm runs on LineDiff's interned lines after trimming the common prefix and
+ * suffix, so the core compares ints; they differ only in how the middle is matched.
+ * Patches read the same whichever algorithm wrote them.
+ */
+enum DiffAlgorithm implements DiffAlgorithmI<String> {
+	// Shortest edit script, as DiffUtils.diff() has always produced
+	MYERS,
+	// Anchors on the rarest common lines, falling back to Myers where every line is frequent
+	HISTOGRAM,
+	// Anchors on the longest run of lines unique to both sides, falling back to Myers without any
+	PATIENCE;
+
+	@Override
+	public List<Change> computeDiff(List<String> source, List<String> target, DiffAlgorithmListener progress) throws DiffException {
+		if (progress != null) {
+			progress.diffStart();
+		}
+		List<Change> changes = new LineDiff(source, target).changes(this);
+		if (progress != null) {
+			progress.diffEnd();
+		}
+		return changes;
+	}
+
+	static DiffAlgorithm fromName(String name) {
+		if (name != null) {
+			for (DiffAlgorithm algorithm : values()) {
+				if (algorithm.name().equalsIgnoreCase(name)) {
+					return algorithm;
+				}
+			}
+		}
+		return MYERS;
+	}
+}
@@ -0,0 +1,354 @@
+package testSupport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.utils.BoundedInputStream;
+import org.apache.commons.compress.utils.CountingOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+/**
+ * Append-only container for one diffs generation (diffs_N_.tar.segs).
+ *
+ * Layout: one or more segments, each an independently compressed tar holding
+ * the files added by a single flush, followed by a footer that indexes every
+ * segment by offset, length and codec, and every entry by name, segment,
+ * uncompressed size and CRC32. Appending truncates the old footer, writes the
+ * new segment after the existing ones and writes a new footer, so earlier
+ * segments are never decompressed or rewritten.
+ */
+class DiffSegmentArchive {
+
+	//================================================================================
+	// Properties
+	//================================================================================
+
+	static final String baselinesPrefix = "baselines/";
+	static final String patchesPrefix = "patches/";
+
+	private static final int FOOTER_MAGIC = 0x44534547; // "DSEG"
+	private static final int FOOTER_VERSION = 1;
+	private static final int FOOTER_TRAILER_SIZE = Integer.BYTES * 2; // footer length + magic
+
+	private final List<Segment> segments = new ArrayList<>();
+	private final Map<String, Entry> entries = new LinkedHashMap<>();  // by name
+	private long dataEnd = 0;   // where the footer starts, i.e. the next segment's offset
+
+	// One segment's compressed bytes within the archive
+	static final class Segment {
+		final long offset;
+		final long length;
+		final DiffsCodec codec;
+
+		Segment(long offset, long length, DiffsCodec codec) {
+			this.offset = offset;
+			this.length = length;
+			this.codec = codec;
+		}
+	}
+
+	// One file: the index of the segment holding it, its uncompressed size and CRC32
+	static final class Entry {
+		final int segment;
+		final long size;
+		final long crc;
+
+		Entry(int segment, long size, long crc) {
+			this.segment = segment;
+			this.size = size;
+			this.crc = crc;
+		}
+	}
+
+	@FunctionalInterface
+	interface EntryVisitor {
+		void visit(TarArchiveEntry entry, InputStream contents) throws IOException;
+	}
+
+	//================================================================================
+	// Reading
+	//================================================================================
+
+	static DiffSegmentArchive read(Path archivePath) throws IOException {
+		try (FileChannel channel = FileChannel.open(archivePath, StandardOpenOption.READ)) {
+			return read(channel);
+		}
+	}
+
+	static DiffSegmentArchive read(SeekableByteChannel channel) throws IOException {
+		return read(channel, 0, channel.size());
+	}
+
+	// The archive stored at start..start+fileSize of channel, e.g. a member of an unindexed run.tar
+	static DiffSegmentArchive read(SeekableByteChannel channel, long start, long fileSize) throws IOException {
+		DiffSegmentArchive archive = new DiffSegmentArchive();
+		if (fileSize < FOOTER_TRAILER_SIZE) {
+			throw new IOException("Diff segments too short");
+		}
+		ByteBuffer trailer = ByteBuffer.allocate(FOOTER_TRAILER_SIZE);
+		readFully(channel, trailer, start + fileSize - FOOTER_TRAILER_SIZE);
+		trailer.flip();
+		int footerLength = trailer.getInt();
+		if (trailer.getInt() != FOOTER_MAGIC || footerLength < 0
+				|| footerLength > fileSize - FOOTER_TRAILER_SIZE) {
+			throw new IOException("Diff segments footer is missing or corrupt");
+		}
+
+		archive.dataEnd = fileSize - FOOTER_TRAILER_SIZE - footerLength;
+		ByteBuffer footer = ByteBuffer.allocate(footerLength);
+		readFully(channel, footer, start + archive.dataEnd);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(footer.array()));
+		int version = in.readInt();
+		if (version != FOOTER_VERSION) {
+			throw new IOException("Unsupported diff segments version " + version);
+		}
+		int segmentCount = in.readInt();
+		for (int i = 0; i < segmentCount; i++) {
+			long offset = in.readLong();
+			long length = in.readLong();
+			int codec = in.readUnsignedByte();
+			if (codec >= DiffsCodec.values().length) {
+				throw new IOException("Unknown diff segment codec " + codec);
+			}
+			archive.segments.add(new Segment(offset, length, DiffsCodec.values()[codec]));
+		}
+		int entryCount = in.readInt();
+		for (int i = 0; i < entryCount; i++) {
+			String name = in.readUTF();
+			archive.entries.put(name, new Entry(in.readInt(), in.readLong(), in.readLong()));
+		}
+		return archive;
+	}
+
+	/**
+	 * The archive a run.tar index describes, with segment offsets made absolute
+	 * by the member's data offset, for visiting straight off run.tar. It can be
+	 * read but not appended to.
+	 */
+	static DiffSegmentArchive fromIndex(RunTarIndex.Member member) {
+		DiffSegmentArchive archive = new DiffSegmentArchive();
+		for (RunTarIndex.Segment segment : member.segments) {
+			archive.segments.add(new Segment(member.offset + segment.offset, segment.length, segment.codec));
+		}
+		archive.entries.putAll(member.entries);
+		archive.dataEnd = -1;
+		return archive;
+	}
+
+	// Oldest first
+	List<Segment> getSegments() {
+		return Collections.unmodifiableList(segments);
+	}
+
+	// By name, in the order the segments added them
+	Map<String, Entry> getEntries() {
+		return Collections.unmodifiableMap(entries);
+	}
+
+	boolean contains(String name) {
+		return entries.containsKey(name);
+	}
+
+	// Every entry name, in the order the segments added them
+	Set<String> getEntryNames() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	// Index of the segment holding name, or -1
+	int getSegmentOf(String name) {
+		Entry entry = entries.get(name);
+		return entry == null ? -1 : entry.segment;
+	}
+
+	// Sum of the uncompressed patch sizes across every segment
+	long getPatchesSize() {
+		long total = 0;
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			if (entry.getKey().startsWith(patchesPrefix)) {
+				total += entry.getValue().size;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Compressed over uncompressed bytes of the segments holding baselines, or
+	 * with baselines false of those holding only patches; NaN if there are none.
+	 */
+	double getCompressionRatio(boolean baselines) {
+		long[] uncompressed = new long[segments.size()];
+		boolean[] hasBaselines = new boolean[segments.size()];
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			int segment = entry.getValue().segment;
+			uncompressed[segment] += entry.getValue().size;
+			hasBaselines[segment] |= entry.getKey().startsWith(baselinesPrefix);
+		}
+		long compressedTotal = 0;
+		long uncompressedTotal = 0;
+		for (int i = 0; i < segments.size(); i++) {
+			if (hasBaselines[i] == baselines && uncompressed[i] > 0) {
+				compressedTotal += segments.get(i).length;
+				uncompressedTotal += uncompressed[i];
+			}
+		}
+		return uncompressedTotal == 0 ? Double.NaN : (double) compressedTotal / uncompressedTotal;
+	}
+
+	/**
+	 * Extracts only the baselines into diffsDir of the workspace. Segments that
+	 * hold nothing but patches are skipped without being decompressed.
+	 */
+	void extractBaselines(SeekableByteChannel channel, Workspace workspace, String diffsDir) throws IOException {
+		TreeSet<Integer> baselineSegments = new TreeSet<>();
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			if (entry.getKey().startsWith(baselinesPrefix)) {
+				baselineSegments.add(entry.getValue().segment);
+			}
+		}
+
+		for (int segment : baselineSegments) {
+			visitSegment(channel, segment, (entry, contents) -> {
+				if (entry.getName().startsWith(baselinesPrefix)) {
+					workspace.write(Workspace.resolve(diffsDir, entry.getName()),
+							IOUtils.toByteArray(contents), entry.getModTime().getTime());
+				}
+			});
+		}
+	}
+
+	// Visits every file entry, oldest segment first
+	void forEachEntry(SeekableByteChannel channel, EntryVisitor visitor) throws IOException {
+		for (int segment = 0; segment < segments.size(); segment++) {
+			visitSegment(channel, segment, visitor);
+		}
+	}
+
+	// Visits the file entries of one segment, decompressing only that segment
+	void visitSegment(SeekableByteChannel channel, int segment, EntryVisitor visitor) throws IOException {
+		Segment bounds = segments.get(segment);
+		channel.position(bounds.offset);
+		visitSegment(new BoundedInputStream(Channels.newInputStream(channel), bounds.length), bounds.codec, visitor);
+	}
+
+	// Visits the file entries of one segment's compressed bytes
+	static void visitSegment(InputStream raw, DiffsCodec codec, EntryVisitor visitor) throws IOException {
+		TarArchiveInputStream tis = new TarArchiveInputStream(
+				new BufferedInputStream(codec.decompressSegment(raw)));
+		TarArchiveEntry entry;
+		while ((entry = tis.getNextTarEntry()) != null) {
+			if (!entry.isDirectory()) {
+				visitor.visit(entry, tis);
+			}
+		}
+	}
+
+	//================================================================================
+	// Writing
+	//================================================================================
+
+	/**
+	 * Appends one segment holding the given workspace files (names relative to
+	 * diffsDir), compressed with codec, to the archive in channel and rewrites
+	 * the footer. An empty channel becomes a new archive.
+	 */
+	void append(SeekableByteChannel channel, Workspace workspace, String diffsDir,
+				List<String> names, DiffsCodec codec) throws IOException {
+		if (names.isEmpty() && channel.size() > 0) {
+			return;
+		}
+		if (dataEnd < 0) {
+			throw new IOException("Diff segments read from an index cannot be appended to");
+		}
+
+		// Drop the old footer; everything before it stays untouched
+		channel.truncate(dataEnd);
+		channel.position(dataEnd);
+
+		OutputStream channelOut = Channels.newOutputStream(channel);
+		// Closing the tar stream must finish the segment but leave the channel open for the footer
+		CountingOutputStream counted = new CountingOutputStream(channelOut) {
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		};
+
+		int segmentIndex = segments.size();
+		try (TarArchiveOutputStream tOut = new TarArchiveOutputStream(
+				new BufferedOutputStream(codec.compressSegment(counted)))) {
+			tOut.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+			workspace.tar(diffsDir, names, tOut);
+		}
+		for (String name : names) {
+			byte[] contents = workspace.read(Workspace.resolve(diffsDir, name));
+			entries.put(name, new Entry(segmentIndex, contents.length, RunTarIndex.crc(contents, 0, contents.length)));
+		}
+
+		segments.add(new Segment(dataEnd, counted.getBytesWritten(), codec));
+		dataEnd += counted.getBytesWritten();
+
+		channelOut.write(buildFooter());
+		channelOut.flush();
+	}
+
+	private byte[] buildFooter() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(FOOTER_VERSION);
+		out.writeInt(segments.size());
+		for (Segment segment : segments) {
+			out.writeLong(segment.offset);
+			out.writeLong(segment.length);
+			out.writeByte(segment.codec.ordinal());
+		}
+		out.writeInt(entries.size());
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			out.writeUTF(entry.getKey());
+			out.writeInt(entry.getValue().segment);
+			out.writeLong(entry.getValue().size);
+			out.writeLong(entry.getValue().crc);
+		}
+		int footerLength = out.size();
+		out.writeInt(footerLength);
+		out.writeInt(FOOTER_MAGIC);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	//================================================================================
+	// Helpers
+	//================================================================================
+
+	private static void readFully(SeekableByteChannel channel, ByteBuffer buffer, long position) throws IOException {
+		channel.position(position);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("Unexpected end of diff segments");
+			}
+		}
+	}
+}
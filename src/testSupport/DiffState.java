@@ -0,0 +1,101 @@
+package testSupport;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inputs and outcomes of one run's diff stages (load, writeDiffs, archive).
+ * Inputs are snapshotted from LoggingSingleton on the calling thread and outcomes
+ * only reach testRunInfo through apply(), so the stages themselves never touch
+ * LoggingSingleton and can run on a background thread while tests are executing.
+ */
+class DiffState {
+
+	//================================================================================
+	// Inputs
+	//================================================================================
+
+	final int testRunNumber;
+	final int seed;
+	final boolean redactDiffs;
+	final boolean rebaselining;
+	final boolean appendOnly;
+	final boolean parallel;
+	final boolean streamArchive;
+	final DiffsCodec codec;
+	final DiffAlgorithm diffAlgorithm;
+	final boolean binaryPatches;
+	final RebaselinePolicy rebaselinePolicy;
+	final Set<String> tooLargeFiles;
+	final Map<String, String> previousDigests;
+	final FlushDeadline deadline;  // started by doSessionFlush(); until then stages are unbounded
+
+	// Current generation; moves to testRunNumber once writeDiffs has started a new one
+	int baselineRunNumber;
+
+	//================================================================================
+	// Outcomes
+	//================================================================================
+
+	final List<String> errors = new ArrayList<>();
+	final Map<String, Long> timings = new LinkedHashMap<>();  // applied to closeTiming in order
+	final List<String> tooLargeBaselines = new ArrayList<>();  // workspace paths
+	DiffSegmentArchive segments;        // current generation's segment index, null until loaded
+	Map<String, String> digests;        // this run's digests, set once writeDiffs completes
+	RebaselinePolicy.Decision rebaselineDecision;
+	boolean rebaselineNext;
+	boolean writeDiffsCompleted;
+	boolean archived;            // this run's patches reached the staged archive
+	boolean stoppedAtDeadline;   // writeDiffs left files undiffed
+	boolean deferred;            // some stage was left to the next session
+
+	private DiffState(FlushDeadline deadline) {
+		this.testRunNumber = LoggingSingleton.getCurrentTestRunNumber();
+		this.seed = LoggingSingleton.getSeed();
+		this.redactDiffs = LoggingSingleton.getRedactDiffs();
+		this.rebaselining = LoggingSingleton.isRebaselining();
+		this.appendOnly = LoggingSingleton.getAppendOnlyDiffs();
+		this.parallel = LoggingSingleton.getParallelDiffs();
+		this.streamArchive = LoggingSingleton.getStreamDiffsArchive();
+		this.codec = LoggingSingleton.getDiffsCodec();
+		this.diffAlgorithm = LoggingSingleton.getDiffAlgorithm();
+		this.binaryPatches = LoggingSingleton.getBinaryPatches();
+		this.rebaselinePolicy = LoggingSingleton.getRebaselinePolicy();
+		this.tooLargeFiles = LoggingSingleton.getTooLargeFiles();
+		this.previousDigests = LoggingSingleton.getFileDigests();
+		this.baselineRunNumber = LoggingSingleton.getPreviousBaselineRunNumber();
+		this.deadline = deadline;
+	}
+
+	// Must be called on the thread that owns testRunInfo
+	static DiffState snapshot(FlushDeadline deadline) {
+		return new DiffState(deadline);
+	}
+
+	/**
+	 * Writes the outcomes back into testRunInfo. Timings are always applied; too-large
+	 * files, digests, the baseline run number and rebaselining only change if writeDiffs
+	 * got through every file, the archive stage finished and nothing was deferred.
+	 * Must be called on the thread that owns testRunInfo.
+	 */
+	void apply() {
+		for (Map.Entry<String, Long> timing : timings.entrySet()) {
+			LoggingSingleton.addCloseTiming(timing.getKey(), timing.getValue());
+		}
+		if (!writeDiffsCompleted || !archived || deferred) {
+			return;
+		}
+		for (String tooLarge : tooLargeBaselines) {
+			LoggingSingleton.addTooLargeFile(tooLarge);
+		}
+		LoggingSingleton.setFileDigests(digests, testRunNumber);
+		if (rebaselining) {
+			LoggingSingleton.updatePreviousBaselineRunNumber();
+		}
+		LoggingSingleton.setRebaselining(rebaselineNext);
+		LoggingSingleton.setRebaselineThresholds(rebaselineDecision, testRunNumber);
+	}
+}
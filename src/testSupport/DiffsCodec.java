@@ -0,0 +1,133 @@
+package testSupport;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.snappy.FramedSnappyCompressorInputStream;
+import org.apache.commons.compress.compressors.snappy.FramedSnappyCompressorOutputStream;
+
+/**
+ * Compression around a diffs generation's tar, chosen by "diffsCodec" in testRunInfo.json.
+ * The suffix identifies a whole-generation archive's codec when reading, so existing
+ * .tar.zip files keep working whatever is configured. Segments (.tar.segs) record
+ * their codec in the footer instead and use the segment streams.
+ */
+enum DiffsCodec {
+	ZIP(".tar.zip"),
+	GZIP(".tar.gz"),
+	BZIP2(".tar.bz2"),
+	LZ4(".tar.lz4"),
+	SNAPPY(".tar.sz");
+
+	final String suffix;
+
+	DiffsCodec(String suffix) {
+		this.suffix = suffix;
+	}
+
+	// Whole-generation container; closing the returned stream finishes it
+	OutputStream compress(OutputStream out) throws IOException {
+		if (this == ZIP) {
+			ZipOutputStream zos = new ZipOutputStream(out);
+			zos.putNextEntry(new ZipEntry(LoggingExtension.diffsFolderName));
+			return zos;
+		}
+		return compressSegment(out);
+	}
+
+	InputStream decompress(InputStream in) throws IOException {
+		if (this == ZIP) {
+			ZipInputStream zis = new ZipInputStream(in);
+			if (zis.getNextEntry() == null) {
+				return InputStream.nullInputStream();
+			}
+			return zis;
+		}
+		return decompressSegment(in);
+	}
+
+	// Bare stream for one segment; ZIP segments are plain zlib/deflate streams
+	OutputStream compressSegment(OutputStream out) throws IOException {
+		switch (this) {
+			case GZIP:
+				return new GzipCompressorOutputStream(out);
+			case BZIP2:
+				return new BZip2CompressorOutputStream(out);
+			case LZ4:
+				return new FramedLZ4CompressorOutputStream(out);
+			case SNAPPY:
+				return new ChunkedOutputStream(new FramedSnappyCompressorOutputStream(out));
+			default:
+				return new DeflaterOutputStream(out);
+		}
+	}
+
+	InputStream decompressSegment(InputStream in) throws IOException {
+		switch (this) {
+			case GZIP:
+				return new GzipCompressorInputStream(in);
+			case BZIP2:
+				return new BZip2CompressorInputStream(in);
+			case LZ4:
+				return new FramedLZ4CompressorInputStream(in);
+			case SNAPPY:
+				return new FramedSnappyCompressorInputStream(in);
+			default:
+				return new InflaterInputStream(in);
+		}
+	}
+
+	// Unknown or missing names fall back to ZIP, the original format
+	static DiffsCodec fromName(String name) {
+		if (name != null) {
+			for (DiffsCodec codec : values()) {
+				if (codec.name().equalsIgnoreCase(name)) {
+					return codec;
+				}
+			}
+		}
+		return ZIP;
+	}
+
+	// Codec of a whole-generation archive, or null if the name is not one
+	static DiffsCodec forFilename(String filename) {
+		for (DiffsCodec codec : values()) {
+			if (filename.endsWith(codec.suffix)) {
+				return codec;
+			}
+		}
+		return null;
+	}
+
+	// commons-compress 1.22's framed Snappy writer corrupts any single write over 64 KiB
+	private static class ChunkedOutputStream extends FilterOutputStream {
+		private static final int MAX_WRITE = 32 * 1024;
+
+		ChunkedOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				int chunk = Math.min(len, MAX_WRITE);
+				out.write(b, off, chunk);
+				off += chunk;
+				len -= chunk;
+			}
+		}
+	}
+}
@@ -17,11 +17,14 @@ import testSupport.LoggingExtension;
 		
 		private int scoreString(String str) {
 			int comparison = 0;
-			if (LoggingExtension.isDiffsTarZipFilename(str) && isEvenDiffsTarZipFilename(str)) {
+			if (LoggingExtension.isDiffsArchiveFilename(str) && isEvenDiffsTarZipFilename(str)) {
 				comparison -= 20;
-			} else if (str.equals(LoggingExtension.testRunInfoFilename)) {
+			} else if (str.equals(LoggingExtension.testRunInfoFilename)
+					|| str.equals(LoggingExtension.testRunInfoBinaryFilename)) {
 				comparison -= 15;
-			} else if (LoggingExtension.isDiffsTarZipFilename(str)) {
+			} else if (str.equals(LoggingExtension.outcomeJournalFilename)) {
+				comparison -= 12;
+			} else if (LoggingExtension.isDiffsArchiveFilename(str)) {
 				comparison -= 10;
 			} else if (str.equals(LoggingExtension.errorLogFilename)) {
 				comparison -= 5;
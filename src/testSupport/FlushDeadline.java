@@ -0,0 +1,101 @@
+package testSupport;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time budget of one doSessionFlush(). Must-have stages (test statuses, error
+ * log, the run.tar commit) always run. An optional stage only starts if its
+ * estimate fits before the deadline, and writeDiffs stops between files once
+ * the deadline has passed. Deferred stages are left to the next session, which
+ * finds their inputs (digests, rebaselining, the current generation) untouched.
+ *
+ * Estimates are each stage's last measured duration, kept in testRunInfo as
+ * flushEstimates. A deferred stage's estimate is halved, so a stage that once
+ * ran long is retried after a few sessions instead of being deferred forever.
+ */
+final class FlushDeadline {
+
+	//================================================================================
+	// Properties
+	//================================================================================
+
+	private final Map<String, Long> estimates;  // stage -> ms
+	private final List<String> deferred = new ArrayList<>();
+	private volatile boolean started = false;
+	private volatile long deadlineNanos;
+
+	private FlushDeadline(Map<String, Long> estimates) {
+		this.estimates = new LinkedHashMap<>(estimates);
+	}
+
+	// Must be called on the thread that owns testRunInfo
+	static FlushDeadline load() {
+		return new FlushDeadline(LoggingSingleton.getFlushEstimates());
+	}
+
+	/**
+	 * Starts the clock: optional stages must finish within budgetMs of flushStart,
+	 * less what the reserved (must-have) stages are expected to take. Until this
+	 * is called, every stage fits; background diffing runs unbounded while tests do.
+	 */
+	synchronized void start(long flushStartNanos, long budgetMs, List<String> reserved) {
+		deadlineNanos = flushStartNanos + TimeUnit.MILLISECONDS.toNanos(budgetMs - estimate(reserved));
+		started = true;
+	}
+
+	//================================================================================
+	// Checks
+	//================================================================================
+
+	// Whether stages, run back to back from now, are expected to finish by the deadline
+	synchronized boolean fits(List<String> stages) {
+		if (!started) {
+			return true;
+		}
+		long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+		return remainingMs >= estimate(stages);
+	}
+
+	boolean passed() {
+		return started && System.nanoTime() - deadlineNanos > 0;
+	}
+
+	private long estimate(List<String> stages) {
+		long total = 0;
+		for (String stage : stages) {
+			total += estimates.getOrDefault(stage, 0L);
+		}
+		return total;
+	}
+
+	//================================================================================
+	// Outcomes
+	//================================================================================
+
+	synchronized void ran(String stage, long ms) {
+		estimates.put(stage, ms);
+	}
+
+	// Not started this session; tried again sooner next time
+	synchronized void defer(String stage) {
+		deferred.add(stage);
+		estimates.computeIfPresent(stage, (name, ms) -> ms / 2);
+	}
+
+	// Started but cut off at the deadline; its measured time stands as the estimate
+	synchronized void stopped(String stage) {
+		deferred.add(stage);
+	}
+
+	synchronized List<String> getDeferred() {
+		return new ArrayList<>(deferred);
+	}
+
+	synchronized Map<String, Long> getEstimates() {
+		return new LinkedHashMap<>(estimates);
+	}
+}
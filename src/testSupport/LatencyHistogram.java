@@ -0,0 +1,96 @@
+package testSupport;
+
+import java.util.Arrays;
+
+/**
+ * Log-bucketed latency histogram in the style of HdrHistogram: each power of two
+ * is split into SUB_BUCKETS / 2 linear buckets, so any recorded value is known to
+ * within about 3% (1 / 32). Recording is an index computation and an increment
+ * into a fixed array, with no allocation. Values are nanoseconds; anything above
+ * MAX_TRACKABLE lands in the top bucket, while getMax() stays exact. Not
+ * thread-safe: each thread records into its own, and add() merges them; the
+ * caller holds a lock that both the recording thread and the merge take.
+ */
+final class LatencyHistogram {
+
+	//================================================================================
+	// Properties
+	//================================================================================
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;   // 32
+	private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+	static final long MAX_TRACKABLE = (1L << 36) - 1;               // about 68 s
+
+	private final long[] counts = new long[indexOf(MAX_TRACKABLE) + 1];
+	private long totalCount;
+	private long max;
+
+	//================================================================================
+	// Recording
+	//================================================================================
+
+	void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts[indexOf(Math.min(value, MAX_TRACKABLE))]++;
+		totalCount++;
+		max = Math.max(max, value);
+	}
+
+	// Adds other's values, as if they had been recorded here too
+	void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		totalCount += other.totalCount;
+		max = Math.max(max, other.max);
+	}
+
+	void reset() {
+		Arrays.fill(counts, 0);
+		totalCount = 0;
+		max = 0;
+	}
+
+	// Bucket b (b >= 1) holds [16, 32) << b in 16 steps of 1 << b; bucket 0 holds 0..31 exactly
+	private static int indexOf(long value) {
+		int bucket = Math.max(0, (63 - Long.numberOfLeadingZeros(value | 1)) - (SUB_BUCKET_BITS - 1));
+		int subBucket = (int) (value >>> bucket);
+		return bucket * HALF_SUB_BUCKETS + subBucket;
+	}
+
+	// Largest value that maps to index, so percentiles never under-report
+	private static long highestValueAt(int index) {
+		int bucket = Math.max(0, index / HALF_SUB_BUCKETS - 1);
+		int subBucket = index - bucket * HALF_SUB_BUCKETS;
+		return ((long) (subBucket + 1) << bucket) - 1;
+	}
+
+	//================================================================================
+	// Queries
+	//================================================================================
+
+	long getCount() {
+		return totalCount;
+	}
+
+	long getMax() {
+		return max;
+	}
+
+	// Nearest-rank percentile (0-100), as the top of its bucket and never above getMax()
+	long valueAtPercentile(double percentile) {
+		if (totalCount == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValueAt(i), max);
+			}
+		}
+		return max;
+	}
+}
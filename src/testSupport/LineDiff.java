@@ -0,0 +1,296 @@
+package testSupport;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.difflib.algorithm.Change;
+import com.github.difflib.algorithm.DiffException;
+import com.github.difflib.algorithm.myers.MyersDiff;
+import com.github.difflib.patch.DeltaType;
+
+/**
+ * One diff of source against target lines. Lines are interned to dense int ids up
+ * front, so every later comparison is an int compare and the per-id tables below
+ * are plain arrays. Regions are worked off an explicit stack, each first trimmed
+ * of its common prefix and suffix; for an edit or two in a large file that trim
+ * leaves almost nothing for the algorithm itself.
+ */
+final class LineDiff {
+
+	//================================================================================
+	// Properties
+	//================================================================================
+
+	// Histogram ignores lines occurring more often than this in a region, as JGit does
+	private static final int MAX_CHAIN_LENGTH = 64;
+
+	private final int[] a;  // source line ids
+	private final int[] b;  // target line ids
+	private final int idCount;
+	private final List<Change> changes = new ArrayList<>();
+	private final Deque<int[]> regions = new ArrayDeque<>();  // {aFrom, aTo, bFrom, bTo}
+
+	// Scratch per region; counts are zeroed again after each use
+	private int[] countA;
+	private int[] countB;
+	private int[] lastA;  // histogram: last A position of each id, chained through nextA
+	private int[] nextA;
+
+	LineDiff(List<String> source, List<String> target) {
+		Map<String, Integer> ids = new HashMap<>(Math.max(16, (source.size() + target.size()) * 4 / 3));
+		a = intern(source, ids);
+		b = intern(target, ids);
+		idCount = ids.size();
+	}
+
+	private static int[] intern(List<String> lines, Map<String, Integer> ids) {
+		int[] interned = new int[lines.size()];
+		int i = 0;
+		for (String line : lines) {
+			Integer id = ids.get(line);
+			if (id == null) {
+				id = ids.size();
+				ids.put(line, id);
+			}
+			interned[i++] = id;
+		}
+		return interned;
+	}
+
+	//================================================================================
+	// Driver
+	//================================================================================
+
+	// Changes in source order, with source and target positions as DiffUtils expects them
+	List<Change> changes(DiffAlgorithm algorithm) throws DiffException {
+		regions.push(new int[] {0, a.length, 0, b.length});
+		while (!regions.isEmpty()) {
+			int[] region = regions.pop();
+			int aFrom = region[0];
+			int aTo = region[1];
+			int bFrom = region[2];
+			int bTo = region[3];
+
+			while (aFrom < aTo && bFrom < bTo && a[aFrom] == b[bFrom]) {
+				aFrom++;
+				bFrom++;
+			}
+			while (aFrom < aTo && bFrom < bTo && a[aTo - 1] == b[bTo - 1]) {
+				aTo--;
+				bTo--;
+			}
+			if (aFrom == aTo && bFrom == bTo) {
+				continue;
+			}
+			if (aFrom == aTo || bFrom == bTo) {
+				addChange(aFrom, aTo, bFrom, bTo);
+				continue;
+			}
+
+			switch (algorithm) {
+				case HISTOGRAM:
+					histogram(aFrom, aTo, bFrom, bTo);
+					break;
+				case PATIENCE:
+					patience(aFrom, aTo, bFrom, bTo);
+					break;
+				default:
+					myers(aFrom, aTo, bFrom, bTo);
+			}
+		}
+		changes.sort(Comparator.comparingInt((Change change) -> change.startOriginal));
+		return changes;
+	}
+
+	private void addChange(int aFrom, int aTo, int bFrom, int bTo) {
+		DeltaType type = aFrom == aTo ? DeltaType.INSERT : (bFrom == bTo ? DeltaType.DELETE : DeltaType.CHANGE);
+		changes.add(new Change(type, aFrom, aTo, bFrom, bTo));
+	}
+
+	//================================================================================
+	// Algorithms
+	//================================================================================
+
+	/**
+	 * Finds the longest common run around the lines of b that are rarest in a (at
+	 * most MAX_CHAIN_LENGTH occurrences), keeps it and splits the region around it.
+	 */
+	private void histogram(int aFrom, int aTo, int bFrom, int bTo) throws DiffException {
+		if (countA == null) {
+			countA = new int[idCount];
+			lastA = new int[idCount];
+		}
+		if (nextA == null) {
+			nextA = new int[a.length];
+		}
+		for (int i = aTo - 1; i >= aFrom; i--) {
+			int id = a[i];
+			nextA[i] = countA[id] == 0 ? -1 : lastA[id];
+			lastA[id] = i;
+			countA[id]++;
+		}
+
+		boolean anyCommon = false;
+		int bestCount = MAX_CHAIN_LENGTH;
+		int bestLength = 0;
+		int bestA = 0;
+		int bestB = 0;
+		int bi = bFrom;
+		while (bi < bTo) {
+			int count = countA[b[bi]];
+			int nextB = bi + 1;
+			anyCommon |= count > 0;
+			if (count > 0 && count <= bestCount) {
+				for (int ai = lastA[b[bi]]; ai >= 0; ai = nextA[ai]) {
+					int regionCount = count;
+					int as = ai;
+					int bs = bi;
+					while (as > aFrom && bs > bFrom && a[as - 1] == b[bs - 1]) {
+						as--;
+						bs--;
+						regionCount = Math.min(regionCount, countA[a[as]]);
+					}
+					int ae = ai + 1;
+					int be = bi + 1;
+					while (ae < aTo && be < bTo && a[ae] == b[be]) {
+						regionCount = Math.min(regionCount, countA[a[ae]]);
+						ae++;
+						be++;
+					}
+					if (regionCount < bestCount || (regionCount == bestCount && ae - as > bestLength)) {
+						bestCount = regionCount;
+						bestLength = ae - as;
+						bestA = as;
+						bestB = bs;
+					}
+					nextB = Math.max(nextB, be);
+				}
+			}
+			bi = nextB;
+		}
+
+		for (int i = aFrom; i < aTo; i++) {
+			countA[a[i]] = 0;
+		}
+
+		if (bestLength == 0) {
+			if (anyCommon) {
+				myers(aFrom, aTo, bFrom, bTo);
+			} else {
+				addChange(aFrom, aTo, bFrom, bTo);
+			}
+			return;
+		}
+		regions.push(new int[] {bestA + bestLength, aTo, bestB + bestLength, bTo});
+		regions.push(new int[] {aFrom, bestA, bFrom, bestB});
+	}
+
+	/**
+	 * Matches lines that occur exactly once on each side, keeps the longest
+	 * increasing sequence of those matches and diffs the gaps between them.
+	 */
+	private void patience(int aFrom, int aTo, int bFrom, int bTo) throws DiffException {
+		if (countA == null) {
+			countA = new int[idCount];
+			lastA = new int[idCount];
+		}
+		if (countB == null) {
+			countB = new int[idCount];
+		}
+		for (int i = aFrom; i < aTo; i++) {
+			countA[a[i]]++;
+			lastA[a[i]] = i;
+		}
+		for (int i = bFrom; i < bTo; i++) {
+			countB[b[i]]++;
+		}
+
+		// Unique matches in b order, as a positions
+		int[] matchA = new int[Math.min(aTo - aFrom, bTo - bFrom)];
+		int[] matchB = new int[matchA.length];
+		int matches = 0;
+		boolean anyCommon = false;
+		for (int i = bFrom; i < bTo; i++) {
+			int id = b[i];
+			anyCommon |= countA[id] > 0;
+			if (countA[id] == 1 && countB[id] == 1) {
+				matchA[matches] = lastA[id];
+				matchB[matches] = i;
+				matches++;
+			}
+		}
+
+		for (int i = aFrom; i < aTo; i++) {
+			countA[a[i]] = 0;
+		}
+		for (int i = bFrom; i < bTo; i++) {
+			countB[b[i]] = 0;
+		}
+
+		if (matches == 0) {
+			if (anyCommon) {
+				myers(aFrom, aTo, bFrom, bTo);
+			} else {
+				addChange(aFrom, aTo, bFrom, bTo);
+			}
+			return;
+		}
+
+		// Longest increasing subsequence of matchA by patience sorting
+		int[] tails = new int[matches];     // match index ending each pile
+		int[] previous = new int[matches];  // match index before each match in its sequence
+		int piles = 0;
+		for (int m = 0; m < matches; m++) {
+			int low = 0;
+			int high = piles;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (matchA[tails[mid]] < matchA[m]) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			previous[m] = low == 0 ? -1 : tails[low - 1];
+			tails[low] = m;
+			if (low == piles) {
+				piles++;
+			}
+		}
+
+		// Gaps between the kept matches
+		int aEnd = aTo;
+		int bEnd = bTo;
+		for (int m = tails[piles - 1]; m >= 0; m = previous[m]) {
+			regions.push(new int[] {matchA[m] + 1, aEnd, matchB[m] + 1, bEnd});
+			aEnd = matchA[m];
+			bEnd = matchB[m];
+		}
+		regions.push(new int[] {aFrom, aEnd, bFrom, bEnd});
+	}
+
+	// JGit's fallback too: the library's Myers on the (already trimmed) region
+	private void myers(int aFrom, int aTo, int bFrom, int bTo) throws DiffException {
+		List<Change> regionChanges = new MyersDiff<Integer>().computeDiff(
+				boxed(a, aFrom, aTo), boxed(b, bFrom, bTo), null);
+		for (Change change : regionChanges) {
+			changes.add(new Change(change.deltaType,
+					aFrom + change.startOriginal, aFrom + change.endOriginal,
+					bFrom + change.startRevised, bFrom + change.endRevised));
+		}
+	}
+
+	private static List<Integer> boxed(int[] ids, int from, int to) {
+		Integer[] boxed = new Integer[to - from];
+		for (int i = from; i < to; i++) {
+			boxed[i - from] = ids[i];
+		}
+		return Arrays.asList(boxed);
+	}
+}
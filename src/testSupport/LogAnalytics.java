@@ -0,0 +1,620 @@
+package testSupport;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarFile;
+import org.apache.commons.compress.utils.BoundedInputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Statistics over many run.tar logs at once, e.g. every student's in a term.
+ * Archives are analyzed in parallel on a work-stealing pool. Each one reads
+ * only testRunInfo, the outcome journal, the error log and the diffs footers
+ * (seeking through run.tar's index when it has one), never a patch, and is
+ * folded into the totals as soon as it is done. Memory is a few archives'
+ * metadata per thread plus the totals, however many logs there are.
+ *
+ * Reports pass rate by run, runs per log, flush and init timing percentiles,
+ * shutdown reasons, logged errors in analyze_errors.sh's "operation: exception"
+ * form, the most common failure causes and patch volume.
+ *
+ * Usage: java -cp &lt;classpath&gt; testSupport.LogAnalytics [-threads N] [-json out.json] &lt;run.tar or directory&gt;...
+ * A directory is searched for every .tar file under it.
+ */
+final class LogAnalytics {
+
+	//================================================================================
+	// Properties
+	//================================================================================
+
+	private static final int IN_FLIGHT_PER_THREAD = 4;  // archives queued ahead of each worker
+	private static final int TOP_COUNT = 10;
+	private static final int MAX_CAUSE_LENGTH = 120;
+	private static final int MAX_FAILURE_SAMPLES = 10;
+	private static final double[] PERCENTILES = {50, 90, 99};
+
+	private static final Pattern shutdownLine = Pattern.compile("^SHUTDOWN - [0-9:.]+: (.*)$");
+	private static final Pattern errorLine = Pattern.compile("^ERROR in ([^:]+): ([^:]+):");
+	private static final String recoveredPrefix = "RECOVERED: ";
+	private static final String closeTimingKey = "closeTiming";
+	private static final String initTimingKey = "initTiming";
+	private static final String deferredFlushStagesKey = "deferredFlushStages";
+	private static final String overheadKey = "overheadMicros";
+	private static final String timingBudgetsKey = "timingBudgets";
+	private static final String[] durationKeys = {"closeDurationMs", "beforeAllInitDurationMs", "beforeAllTotalDurationMs"};
+
+	// What one archive contributes; built by a worker, then merged into Totals
+	private static final class ArchiveStats {
+		int lastRun;
+		long[] testsAtRun = new long[0];
+		long[] passedAtRun = new long[0];
+		boolean[] allPassedAtRun = new boolean[0];
+		final Map<String, Long> timings = new TreeMap<>();
+		final Map<String, Long> shutdownReasons = new HashMap<>();
+		final Map<String, Long> errors = new HashMap<>();
+		final Map<String, Long> causes = new HashMap<>();
+		final Map<String, Long> deferredStages = new HashMap<>();  // stage -> runs that left it to the next session
+		long recoveries;
+		int generations;
+		long patches;
+		long patchBytes;
+		long baselineBytes;
+		long diffsBytes;  // as stored, i.e. compressed
+	}
+
+	// Growable list of one value per archive, for percentiles
+	private static final class Samples {
+		private long[] values = new long[16];
+		private int size;
+
+		void add(long value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		// Nearest-rank percentiles, then the maximum
+		long[] summary() {
+			long[] sorted = Arrays.copyOf(values, size);
+			Arrays.sort(sorted);
+			long[] summary = new long[PERCENTILES.length + 1];
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				int rank = (int) Math.ceil(PERCENTILES[i] / 100 * size);
+				summary[i] = size == 0 ? 0 : sorted[Math.max(0, rank - 1)];
+			}
+			summary[PERCENTILES.length] = size == 0 ? 0 : sorted[size - 1];
+			return summary;
+		}
+	}
+
+	/**
+	 * Everything merged so far. Merging an archive is a few array and map updates,
+	 * so workers share one Totals under its lock rather than keeping their own.
+	 */
+	static final class Totals {
+		private long archives;
+		private long unreadable;
+		private final List<String> failureSamples = new ArrayList<>();
+		private long[] testsAtRun = new long[0];
+		private long[] passedAtRun = new long[0];
+		private long[] archivesAtRun = new long[0];
+		private long[] allPassedAtRun = new long[0];
+		private final Samples lastRuns = new Samples();
+		private final Samples patchesPerArchive = new Samples();
+		private final Map<String, Samples> timings = new TreeMap<>();
+		private final Map<String, Long> shutdownReasons = new HashMap<>();
+		private final Map<String, Long> errors = new HashMap<>();
+		private final Map<String, Long> causes = new HashMap<>();
+		private final Map<String, Long> deferredStages = new HashMap<>();
+		private long recoveries;
+		private long generations;
+		private long patches;
+		private long patchBytes;
+		private long baselineBytes;
+		private long diffsBytes;
+
+		synchronized void add(ArchiveStats stats) {
+			archives++;
+			int runs = stats.testsAtRun.length;
+			if (runs > testsAtRun.length) {
+				testsAtRun = Arrays.copyOf(testsAtRun, runs);
+				passedAtRun = Arrays.copyOf(passedAtRun, runs);
+				archivesAtRun = Arrays.copyOf(archivesAtRun, runs);
+				allPassedAtRun = Arrays.copyOf(allPassedAtRun, runs);
+			}
+			for (int run = 0; run < runs; run++) {
+				if (stats.testsAtRun[run] > 0) {
+					testsAtRun[run] += stats.testsAtRun[run];
+					passedAtRun[run] += stats.passedAtRun[run];
+					archivesAtRun[run]++;
+					allPassedAtRun[run] += stats.allPassedAtRun[run] ? 1 : 0;
+				}
+			}
+			lastRuns.add(stats.lastRun);
+			patchesPerArchive.add(stats.patches);
+			for (Map.Entry<String, Long> timing : stats.timings.entrySet()) {
+				timings.computeIfAbsent(timing.getKey(), k -> new Samples()).add(timing.getValue());
+			}
+			mergeCounts(shutdownReasons, stats.shutdownReasons);
+			mergeCounts(errors, stats.errors);
+			mergeCounts(causes, stats.causes);
+			mergeCounts(deferredStages, stats.deferredStages);
+			recoveries += stats.recoveries;
+			generations += stats.generations;
+			patches += stats.patches;
+			patchBytes += stats.patchBytes;
+			baselineBytes += stats.baselineBytes;
+			diffsBytes += stats.diffsBytes;
+		}
+
+		synchronized void addFailure(Path archive, Throwable failure) {
+			unreadable++;
+			if (failureSamples.size() < MAX_FAILURE_SAMPLES) {
+				failureSamples.add(archive + ": " + failure);
+			}
+		}
+
+		long getArchives() {
+			return archives;
+		}
+
+		long getUnreadable() {
+			return unreadable;
+		}
+	}
+
+	private LogAnalytics() {
+	}
+
+	//================================================================================
+	// Command Line
+	//================================================================================
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		Path jsonOut = null;
+		List<Path> inputs = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threads") && i + 1 < args.length) {
+				threads = Math.max(1, Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-json") && i + 1 < args.length) {
+				jsonOut = Paths.get(args[++i]);
+			} else {
+				inputs.add(Paths.get(args[i]));
+			}
+		}
+		if (inputs.isEmpty()) {
+			System.out.println("Usage: LogAnalytics [-threads N] [-json out.json] <run.tar or directory>...");
+			return;
+		}
+
+		long start = System.nanoTime();
+		Totals totals = analyze(inputs, threads);
+		long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		printReport(totals, System.out::println);
+		System.out.println();
+		System.out.println("Analyzed " + totals.archives + " archives on " + threads + " threads in " + elapsedMs + " ms");
+		if (jsonOut != null) {
+			Files.write(jsonOut, new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsBytes(toJson(totals)));
+		}
+	}
+
+	//================================================================================
+	// Analysis
+	//================================================================================
+
+	/**
+	 * Analyzes every .tar file given or under a given directory. Paths are walked
+	 * lazily and at most IN_FLIGHT_PER_THREAD archives per thread wait in the
+	 * pool, so neither the file list nor the queue grows with the input.
+	 */
+	static Totals analyze(List<Path> inputs, int threads) throws IOException, InterruptedException {
+		Totals totals = new Totals();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		Semaphore inFlight = new Semaphore(threads * IN_FLIGHT_PER_THREAD);
+		try {
+			for (Path input : inputs) {
+				try (Stream<Path> archives = Files.isDirectory(input) ? Files.walk(input) : Stream.of(input)) {
+					Iterator<Path> iter = archives.filter(LogAnalytics::isArchive).iterator();
+					while (iter.hasNext()) {
+						Path archive = iter.next();
+						inFlight.acquire();
+						pool.execute(() -> {
+							try {
+								totals.add(analyzeArchive(archive));
+							} catch (IOException | RuntimeException e) {
+								totals.addFailure(archive, e);
+							} finally {
+								inFlight.release();
+							}
+						});
+					}
+				}
+			}
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		return totals;
+	}
+
+	private static boolean isArchive(Path path) {
+		return path.getFileName().toString().endsWith(LoggingExtension.tarSuffix) && Files.isRegularFile(path);
+	}
+
+	/**
+	 * One log's contribution. The members it needs are located through run.tar's
+	 * index, or for an older run.tar from its tar headers, and read by offset.
+	 */
+	private static ArchiveStats analyzeArchive(Path runTar) throws IOException {
+		try (FileChannel channel = FileChannel.open(runTar, StandardOpenOption.READ)) {
+			Map<String, long[]> members = new LinkedHashMap<>();  // name -> {offset, size}
+			Map<String, RunTarIndex.Member> indexed = new HashMap<>();
+			RunTarIndex index = RunTarIndex.read(channel);
+			if (index != null) {
+				for (RunTarIndex.Member member : index.getMembers()) {
+					members.put(member.name, new long[] {member.offset, member.size});
+					indexed.put(member.name, member);
+				}
+			} else {
+				// Not closed: that would close channel, which is still needed
+				TarFile tarFile = new TarFile(channel);
+				for (TarArchiveEntry entry : tarFile.getEntries()) {
+					if (entry.isFile() && !entry.isSparse()) {
+						members.put(entry.getName(), new long[] {entry.getDataOffset(), entry.getSize()});
+					}
+				}
+			}
+
+			byte[] testRunInfo = readMember(channel, members, LoggingExtension.testRunInfoBinaryFilename);
+			if (testRunInfo == null) {
+				testRunInfo = readMember(channel, members, LoggingExtension.testRunInfoFilename);
+			}
+			if (testRunInfo == null) {
+				throw new IOException("No testRunInfo");
+			}
+			ArchiveStats stats = new ArchiveStats();
+			JsonNode tree = TestRunInfoCodec.fold(testRunInfo,
+					readMember(channel, members, LoggingExtension.outcomeJournalFilename));
+			addOutcomes(stats, tree);
+			addTimings(stats, tree);
+			addDeferredStages(stats, tree);
+
+			byte[] errorLog = readMember(channel, members, LoggingExtension.errorLogFilename);
+			if (errorLog != null) {
+				addErrorLog(stats, new String(errorLog, StandardCharsets.UTF_8));
+			}
+
+			for (Map.Entry<String, long[]> member : members.entrySet()) {
+				if (LoggingExtension.isDiffsArchiveFilename(member.getKey())) {
+					addDiffs(stats, channel, member.getKey(), member.getValue(), indexed.get(member.getKey()));
+				}
+			}
+			return stats;
+		}
+	}
+
+	private static byte[] readMember(FileChannel channel, Map<String, long[]> members, String name) throws IOException {
+		long[] member = members.get(name);
+		return member == null ? null : RunTarIndex.readRegion(channel, member[0], member[1]);
+	}
+
+	// Per run: tests with an entry, how many passed, and whether every one did
+	private static void addOutcomes(ArchiveStats stats, JsonNode tree) {
+		RunHistory history = RunHistory.load((ObjectNode) tree);
+		int runs = history.runNumber + 1;
+		for (RunHistory.TestHistory test : history.getTests()) {
+			runs = Math.max(runs, test.getRunLimit());
+		}
+		stats.lastRun = runs - 1;
+		stats.testsAtRun = new long[runs];
+		stats.passedAtRun = new long[runs];
+		stats.allPassedAtRun = new boolean[runs];
+		for (RunHistory.TestHistory test : history.getTests()) {
+			for (int run = 0; run < test.getRunLimit(); run++) {
+				TestStatus status = test.getStatus(run);
+				if (status == null) {
+					continue;
+				}
+				stats.testsAtRun[run]++;
+				if (status == TestStatus.SUCCESSFUL) {
+					stats.passedAtRun[run]++;
+				} else if (status == TestStatus.FAILED && test.getCauseId(run) != RunHistory.NO_CAUSE) {
+					increment(stats.causes, normalize(history.getCause(test.getCauseId(run))));
+				}
+			}
+		}
+		for (int run = 0; run < runs; run++) {
+			stats.allPassedAtRun[run] = stats.testsAtRun[run] > 0 && stats.passedAtRun[run] == stats.testsAtRun[run];
+		}
+	}
+
+	// The latest run's durations, per-phase timings, per-callback p99 overhead and timing budgets
+	private static void addTimings(ArchiveStats stats, JsonNode tree) {
+		for (String key : durationKeys) {
+			if (tree.path(key).isNumber()) {
+				stats.timings.put(key, tree.path(key).asLong());
+			}
+		}
+		for (String group : new String[] {initTimingKey, closeTimingKey}) {
+			Iterator<Map.Entry<String, JsonNode>> phases = tree.path(group).fields();
+			while (phases.hasNext()) {
+				Map.Entry<String, JsonNode> phase = phases.next();
+				if (phase.getValue().isNumber()) {
+					stats.timings.put(group + "." + phase.getKey(), phase.getValue().asLong());
+				}
+			}
+		}
+		JsonNode latestOverhead = null;
+		for (JsonNode run : tree.path(overheadKey)) {
+			latestOverhead = run;  // runs are added in order
+		}
+		if (latestOverhead != null) {
+			Iterator<Map.Entry<String, JsonNode>> callbacks = latestOverhead.fields();
+			while (callbacks.hasNext()) {
+				Map.Entry<String, JsonNode> callback = callbacks.next();
+				if (callback.getValue().path("p99").isNumber()) {
+					stats.timings.put(overheadKey + "." + callback.getKey() + ".p99", callback.getValue().path("p99").asLong());
+				}
+			}
+		}
+		JsonNode latestBudgets = null;
+		for (JsonNode run : tree.path(timingBudgetsKey)) {
+			latestBudgets = run;
+		}
+		if (latestBudgets != null) {
+			Iterator<Map.Entry<String, JsonNode>> budgets = latestBudgets.fields();
+			while (budgets.hasNext()) {
+				Map.Entry<String, JsonNode> budget = budgets.next();
+				if (budget.getKey().endsWith("Ms")) {
+					stats.timings.put(timingBudgetsKey + "." + budget.getKey(), budget.getValue().asLong());
+				}
+			}
+		}
+	}
+
+	// Every run's flush stages left to the next session, see FlushDeadline
+	private static void addDeferredStages(ArchiveStats stats, JsonNode tree) {
+		for (JsonNode stages : tree.path(deferredFlushStagesKey)) {
+			for (String stage : stages.asText().split(", ")) {
+				increment(stats.deferredStages, stage);
+			}
+		}
+	}
+
+	private static void addErrorLog(ArchiveStats stats, String errorLog) {
+		for (String line : errorLog.split("\\r?\\n")) {
+			Matcher shutdown = shutdownLine.matcher(line);
+			Matcher error = errorLine.matcher(line);
+			if (shutdown.find()) {
+				increment(stats.shutdownReasons, normalize(shutdown.group(1)));
+			} else if (error.find()) {
+				increment(stats.errors, error.group(1) + ": " + error.group(2));
+			} else if (line.startsWith(recoveredPrefix)) {
+				stats.recoveries++;
+			}
+		}
+	}
+
+	/**
+	 * Patch and baseline counts of one generation: from the index, from the
+	 * segments footer, or for a whole-generation archive by listing its tar
+	 * while it decompresses, with each entry skipped rather than read.
+	 */
+	private static void addDiffs(ArchiveStats stats, FileChannel channel, String name, long[] member,
+			RunTarIndex.Member indexed) throws IOException {
+		stats.generations++;
+		stats.diffsBytes += member[1];
+		if (indexed != null && !indexed.segments.isEmpty()) {
+			addEntries(stats, indexed.entries);
+		} else if (name.endsWith(LoggingExtension.tarSegmentsSuffix)) {
+			addEntries(stats, DiffSegmentArchive.read(channel, member[0], member[1]).getEntries());
+		} else {
+			channel.position(member[0]);
+			InputStream raw = new BoundedInputStream(Channels.newInputStream(channel), member[1]);
+			try (TarArchiveInputStream tis = new TarArchiveInputStream(
+					new BufferedInputStream(DiffsCodec.forFilename(name).decompress(raw)))) {
+				TarArchiveEntry entry;
+				while ((entry = tis.getNextTarEntry()) != null) {
+					if (!entry.isDirectory()) {
+						addEntry(stats, entry.getName().replace('\\', '/'), entry.getSize());
+					}
+				}
+			}
+		}
+	}
+
+	private static void addEntries(ArchiveStats stats, Map<String, DiffSegmentArchive.Entry> entries) {
+		for (Map.Entry<String, DiffSegmentArchive.Entry> entry : entries.entrySet()) {
+			addEntry(stats, entry.getKey(), entry.getValue().size);
+		}
+	}
+
+	private static void addEntry(ArchiveStats stats, String name, long size) {
+		if (name.startsWith(DiffSegmentArchive.patchesPrefix)) {
+			stats.patches++;
+			stats.patchBytes += size;
+		} else if (name.startsWith(DiffSegmentArchive.baselinesPrefix)) {
+			stats.baselineBytes += size;
+		}
+	}
+
+	//================================================================================
+	// Report
+	//================================================================================
+
+	@FunctionalInterface
+	interface LineSink {
+		void println(String line);
+	}
+
+	static void printReport(Totals totals, LineSink out) {
+		synchronized (totals) {
+			out.println(String.format("Archives analyzed: %,d, unreadable: %,d", totals.archives, totals.unreadable));
+			for (String failure : totals.failureSamples) {
+				out.println("  " + failure);
+			}
+			out.println("");
+			out.println(summaryLine("Runs per log", totals.lastRuns));
+			out.println(summaryLine("Patches per log", totals.patchesPerArchive));
+			out.println(String.format("Generations: %,d, patches: %,d (%,d bytes), baselines: %,d bytes, diffs stored: %,d bytes",
+					totals.generations, totals.patches, totals.patchBytes, totals.baselineBytes, totals.diffsBytes));
+
+			out.println("");
+			out.println("Pass rate by run");
+			out.println(String.format("%6s %10s %12s %10s %14s", "run", "logs", "tests", "passed", "all passing"));
+			for (int run = 0; run < totals.testsAtRun.length; run++) {
+				if (totals.archivesAtRun[run] > 0) {
+					out.println(String.format("%6d %10d %12d %9.1f%% %13.1f%%", run, totals.archivesAtRun[run],
+							totals.testsAtRun[run], percent(totals.passedAtRun[run], totals.testsAtRun[run]),
+							percent(totals.allPassedAtRun[run], totals.archivesAtRun[run])));
+				}
+			}
+
+			out.println("");
+			out.println("Timing of each log's latest run (ms; " + overheadKey + " in microseconds)");
+			for (Map.Entry<String, Samples> timing : totals.timings.entrySet()) {
+				out.println(summaryLine("  " + timing.getKey(), timing.getValue()));
+			}
+
+			printTop(out, "Shutdown reasons", totals.shutdownReasons);
+			printTop(out, "Logged errors", totals.errors);
+			printTop(out, "Failure causes", totals.causes);
+			printTop(out, "Deferred flush stages (runs)", totals.deferredStages);
+			out.println("");
+			out.println(String.format("Recovered interrupted saves: %,d", totals.recoveries));
+		}
+	}
+
+	private static String summaryLine(String label, Samples samples) {
+		long[] summary = samples.summary();
+		StringBuilder line = new StringBuilder(String.format("%-44s", label + " (" + samples.size + ")"));
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			line.append(String.format(" p%-2d %8d", (int) PERCENTILES[i], summary[i]));
+		}
+		return line.append(String.format(" max %8d", summary[PERCENTILES.length])).toString();
+	}
+
+	private static void printTop(LineSink out, String title, Map<String, Long> counts) {
+		out.println("");
+		out.println(title + (counts.isEmpty() ? ": none" : ""));
+		for (Map.Entry<String, Long> count : top(counts)) {
+			out.println(String.format("%10d  %s", count.getValue(), count.getKey()));
+		}
+	}
+
+	static ObjectNode toJson(Totals totals) {
+		ObjectMapper mapper = new ObjectMapper();
+		ObjectNode root = mapper.createObjectNode();
+		synchronized (totals) {
+			root.put("archives", totals.archives);
+			root.put("unreadable", totals.unreadable);
+			ArrayNode byRun = root.putArray("passRateByRun");
+			for (int run = 0; run < totals.testsAtRun.length; run++) {
+				if (totals.archivesAtRun[run] > 0) {
+					ObjectNode row = byRun.addObject();
+					row.put("run", run);
+					row.put("logs", totals.archivesAtRun[run]);
+					row.put("tests", totals.testsAtRun[run]);
+					row.put("passed", totals.passedAtRun[run]);
+					row.put("allPassing", totals.allPassedAtRun[run]);
+				}
+			}
+			putSummary(root.putObject("runsPerLog"), totals.lastRuns);
+			putSummary(root.putObject("patchesPerLog"), totals.patchesPerArchive);
+			ObjectNode timings = root.putObject("timingsMs");
+			for (Map.Entry<String, Samples> timing : totals.timings.entrySet()) {
+				putSummary(timings.putObject(timing.getKey()), timing.getValue());
+			}
+			putCounts(root.putObject("shutdownReasons"), totals.shutdownReasons);
+			putCounts(root.putObject("errors"), totals.errors);
+			putCounts(root.putObject("failureCauses"), totals.causes);
+			putCounts(root.putObject("deferredFlushStages"), totals.deferredStages);
+			root.put("recoveries", totals.recoveries);
+			root.put("generations", totals.generations);
+			root.put("patches", totals.patches);
+			root.put("patchBytes", totals.patchBytes);
+			root.put("baselineBytes", totals.baselineBytes);
+			root.put("diffsBytes", totals.diffsBytes);
+		}
+		return root;
+	}
+
+	private static void putSummary(ObjectNode node, Samples samples) {
+		long[] summary = samples.summary();
+		node.put("count", samples.size);
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			node.put("p" + (int) PERCENTILES[i], summary[i]);
+		}
+		node.put("max", summary[PERCENTILES.length]);
+	}
+
+	private static void putCounts(ObjectNode node, Map<String, Long> counts) {
+		for (Map.Entry<String, Long> count : top(counts)) {
+			node.put(count.getKey(), count.getValue());
+		}
+	}
+
+	//================================================================================
+	// Helpers
+	//================================================================================
+
+	// Numbers vary per student (sizes, expected values); without them messages group
+	private static String normalize(String message) {
+		String normalized = message.replaceAll("\\d+", "N");
+		return normalized.length() > MAX_CAUSE_LENGTH ? normalized.substring(0, MAX_CAUSE_LENGTH) + "..." : normalized;
+	}
+
+	private static void increment(Map<String, Long> counts, String key) {
+		counts.merge(key, 1L, Long::sum);
+	}
+
+	private static void mergeCounts(Map<String, Long> into, Map<String, Long> from) {
+		for (Map.Entry<String, Long> count : from.entrySet()) {
+			into.merge(count.getKey(), count.getValue(), Long::sum);
+		}
+	}
+
+	// The TOP_COUNT largest counts, largest first
+	private static List<Map.Entry<String, Long>> top(Map<String, Long> counts) {
+		List<Map.Entry<String, Long>> sorted = new ArrayList<>(counts.entrySet());
+		sorted.sort(Map.Entry.<String, Long>comparingByValue(Collections.reverseOrder())
+				.thenComparing(Map.Entry.comparingByKey()));
+		return sorted.subList(0, Math.min(TOP_COUNT, sorted.size()));
+	}
+
+	private static double percent(long part, long whole) {
+		return whole == 0 ? 0 : 100.0 * part / whole;
+	}
+}
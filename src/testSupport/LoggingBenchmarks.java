@@ -0,0 +1,1407 @@
+package testSupport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarFile;
+import org.apache.commons.compress.utils.IOUtils;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.difflib.DiffUtils;
+import com.github.difflib.patch.AbstractDelta;
+import com.github.difflib.patch.Patch;
+
+/**
+ * Standalone benchmarks for the logger's hot paths. Not run by JUnit; invoke with
+ *   java -cp &lt;classpath&gt; testSupport.LoggingBenchmarks &lt;benchmark&gt; [args]
+ */
+class LoggingBenchmarks {
+
+	private static final int WARMUP_ROUNDS = 3;
+	private static final int MEASURED_ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		String benchmark = args.length > 0 ? args[0] : "";
+		switch (benchmark) {
+			case "capture":
+				captureFootprint(args.length > 1 ? Paths.get(args[1]) : Paths.get(LoggingExtension.sourceFolderName));
+				break;
+			case "manifest":
+				manifestStartup(args.length > 1 ? Paths.get(args[1]) : Paths.get(LoggingExtension.sourceFolderName));
+				break;
+			case "codecs":
+				codecThroughput(Arrays.copyOfRange(args, 1, args.length));
+				break;
+			case "extract":
+				extractionTime(args.length > 1 ? Paths.get(args[1]) : null);
+				break;
+			case "testruninfo":
+				testRunInfoFormats();
+				break;
+			case "callbacks":
+				callbackOverhead();
+				break;
+			case "histogram":
+				histogramRecording();
+				break;
+			case "parallel":
+				parallelRecording();
+				break;
+			case "redact":
+				redactionThroughput(args.length > 1 ? Paths.get(args[1]) : Paths.get(LoggingExtension.sourceFolderName));
+				break;
+			case "diff":
+				diffAlgorithms();
+				break;
+			case "patches":
+				patchEncodings();
+				break;
+			case "rebaseline":
+				rebaselinePolicies();
+				break;
+			case "reader":
+				readerSweep(Paths.get(args.length > 1 ? args[1] : LoggingExtension.sourceFolderName + "/" + LoggingExtension.testSupportPackageName + "/run.tar"));
+				break;
+			case "index":
+				indexedAccess(Paths.get(args.length > 1 ? args[1] : LoggingExtension.sourceFolderName + "/" + LoggingExtension.testSupportPackageName + "/run.tar"));
+				break;
+			case "analytics":
+				analyticsScaling(Paths.get(args.length > 1 ? args[1] : "."));
+				break;
+			default:
+				System.out.println("Usage: LoggingBenchmarks <benchmark> [args]");
+				System.out.println("  capture [srcDir]   retained heap and read time of source capture");
+				System.out.println("  manifest [srcDir]  beforeAll size check + capture, two full walks vs one scan and SourceManifest");
+				System.out.println("  codecs [run.tar..] compression ratio and MB/s of each diffs codec");
+				System.out.println("  extract [run.tar]  run.tar extraction time, stream copy vs channel transfer");
+				System.out.println("  testruninfo        testRunInfo size and parse/write time, JSON vs binary, by history length");
+				System.out.println("  callbacks          per-callback testRunInfo cost, ObjectNode mutation vs RunHistory");
+				System.out.println("  histogram          LatencyHistogram ns per record, and its percentiles against exact ones");
+				System.out.println("  parallel           recorded tests per second by thread count, lock-free path vs one global lock");
+				System.out.println("  redact [srcDir]    redaction MB/s, per-character hash vs Redactor table");
+				System.out.println("  diff               patch diff time by file size, DiffUtils Myers vs each DiffAlgorithm");
+				System.out.println("  patches            patch bytes by file size, text vs PatchCodec binary");
+				System.out.println("  rebaseline         simulated archive size and flush time, fixed 10 KB vs cost-model rebaselining");
+				System.out.println("  reader [run.tar]   rebuilding every class at every run, checkpointed sweep vs a fresh reader per snapshot");
+				System.out.println("  index [run.tar]    load, save and one-snapshot time, reading run.tar whole vs through its index");
+				System.out.println("  analytics [dir]    LogAnalytics archives per second over every .tar under dir, by thread count");
+		}
+	}
+
+	//================================================================================
+	// Source Capture
+	//================================================================================
+
+	// Old capture kept readAllLines + new String(readAllBytes) per file; new keeps one byte buffer
+	private static void captureFootprint(Path sourceFolder) throws IOException {
+		List<Path> files = listFiles(sourceFolder, ".java");
+		long sourceBytes = 0;
+		for (Path file : files) {
+			sourceBytes += Files.size(file);
+		}
+
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			captureTwoReads(files);
+			captureOneRead(files);
+		}
+
+		long twoReadsNanos = 0;
+		long oneReadNanos = 0;
+		for (int i = 0; i < MEASURED_ROUNDS; i++) {
+			long start = System.nanoTime();
+			captureTwoReads(files);
+			twoReadsNanos += System.nanoTime() - start;
+			start = System.nanoTime();
+			captureOneRead(files);
+			oneReadNanos += System.nanoTime() - start;
+		}
+
+		long twoReadsRetained = retainedBytes(() -> captureTwoReads(files));
+		long oneReadRetained = retainedBytes(() -> captureOneRead(files));
+
+		System.out.println("files: " + files.size() + ", source bytes: " + sourceBytes);
+		System.out.printf("two reads (lines + string): %,d bytes retained, %.2f ms/capture%n",
+				twoReadsRetained, nanosToMillis(twoReadsNanos) / MEASURED_ROUNDS);
+		System.out.printf("one read (CapturedSource):  %,d bytes retained, %.2f ms/capture%n",
+				oneReadRetained, nanosToMillis(oneReadNanos) / MEASURED_ROUNDS);
+		if (twoReadsRetained > 0) {
+			System.out.printf("retained ratio: %.2f%n", (double) oneReadRetained / twoReadsRetained);
+		}
+	}
+
+	private static Object captureTwoReads(List<Path> files) throws IOException {
+		Map<Path, List<String>> lines = new HashMap<>();
+		Map<Path, String> contents = new HashMap<>();
+		for (Path file : files) {
+			lines.put(file, Files.readAllLines(file, StandardCharsets.UTF_8));
+			contents.put(file, new String(Files.readAllBytes(file)));
+		}
+		return List.of(lines, contents);
+	}
+
+	private static Object captureOneRead(List<Path> files) throws IOException {
+		Map<Path, CapturedSource> captured = new HashMap<>();
+		for (Path file : files) {
+			captured.put(file, CapturedSource.read(file));
+		}
+		return captured;
+	}
+
+	// Old beforeAll walked src for its size, then again reading every file; new scans once and reads only changes
+	private static void manifestStartup(Path sourceFolder) throws IOException {
+		// As if recorded by a session long ago, so every unchanged file is trusted
+		SourceManifest manifest = new SourceManifest(System.currentTimeMillis());
+		for (SourceManifest.FileStat stat : SourceManifest.scan(sourceFolder, LoggingExtension.testSupportPackageName)) {
+			if (stat.path.toString().endsWith(".java")) {
+				manifest.put(stat, CapturedSource.read(stat.path).getDigest());
+			}
+		}
+		SourceManifest recorded = SourceManifest.decode(manifest.encode());
+
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			startupTwoWalks(sourceFolder);
+			startupWithManifest(sourceFolder, recorded);
+		}
+		long twoWalksNanos = 0;
+		long manifestNanos = 0;
+		int read = 0;
+		for (int i = 0; i < MEASURED_ROUNDS; i++) {
+			long start = System.nanoTime();
+			startupTwoWalks(sourceFolder);
+			twoWalksNanos += System.nanoTime() - start;
+			start = System.nanoTime();
+			read = startupWithManifest(sourceFolder, recorded);
+			manifestNanos += System.nanoTime() - start;
+		}
+
+		System.out.println("files in manifest: " + recorded.size() + ", read despite it (racy or changed): " + read);
+		System.out.printf("two walks, read all:       %.2f ms%n", nanosToMillis(twoWalksNanos) / MEASURED_ROUNDS);
+		System.out.printf("one scan + manifest:       %.2f ms%n", nanosToMillis(manifestNanos) / MEASURED_ROUNDS);
+	}
+
+	private static Object startupTwoWalks(Path sourceFolder) throws IOException {
+		long size = 0;
+		for (Path file : listFiles(sourceFolder, "")) {
+			if (!inTestSupport(sourceFolder, file)) {
+				size += Files.size(file);
+			}
+		}
+		Map<Path, CapturedSource> captured = new HashMap<>();
+		for (Path file : listFiles(sourceFolder, ".java")) {
+			if (!inTestSupport(sourceFolder, file)) {
+				captured.put(file, CapturedSource.read(file));
+			}
+		}
+		return List.of(size, captured);
+	}
+
+	// Both walks skipped every directory named testSupport
+	private static boolean inTestSupport(Path sourceFolder, Path file) {
+		for (Path name : sourceFolder.relativize(file)) {
+			if (name.toString().equals(LoggingExtension.testSupportPackageName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Returns how many files had to be read
+	private static int startupWithManifest(Path sourceFolder, SourceManifest recorded) throws IOException {
+		int read = 0;
+		Map<Path, CapturedSource> captured = new HashMap<>();
+		for (SourceManifest.FileStat stat : SourceManifest.scan(sourceFolder, LoggingExtension.testSupportPackageName)) {
+			if (stat.path.toString().endsWith(".java")) {
+				String digest = recorded.unchangedDigest(stat);
+				if (digest == null) {
+					read++;
+				}
+				captured.put(stat.path, digest != null
+						? CapturedSource.deferred(stat.path, digest) : CapturedSource.read(stat.path));
+			}
+		}
+		return read;
+	}
+
+	//================================================================================
+	// Diffs Codecs
+	//================================================================================
+
+	// Every codec on one uncompressed tar of the baselines and patches found in the given logs
+	private static void codecThroughput(String[] runTars) throws IOException {
+		byte[] corpus = buildDiffsCorpus(runTars);
+		System.out.printf("corpus: %,d bytes uncompressed%n", corpus.length);
+		System.out.printf("%-7s %12s %7s %14s %14s%n", "codec", "compressed", "ratio", "compress MB/s", "decompress MB/s");
+
+		for (DiffsCodec codec : DiffsCodec.values()) {
+			byte[] compressed = null;
+			for (int i = 0; i < WARMUP_ROUNDS; i++) {
+				compressed = compress(codec, corpus);
+				decompress(codec, compressed);
+			}
+
+			long compressNanos = 0;
+			long decompressNanos = 0;
+			for (int i = 0; i < MEASURED_ROUNDS; i++) {
+				long start = System.nanoTime();
+				compressed = compress(codec, corpus);
+				compressNanos += System.nanoTime() - start;
+				start = System.nanoTime();
+				if (decompress(codec, compressed) != corpus.length) {
+					throw new IllegalStateException(codec + " did not round-trip the corpus");
+				}
+				decompressNanos += System.nanoTime() - start;
+			}
+
+			System.out.printf("%-7s %,12d %7.3f %14.1f %14.1f%n", codec, compressed.length,
+					(double) compressed.length / corpus.length,
+					megabytesPerSecond(corpus.length * (long) MEASURED_ROUNDS, compressNanos),
+					megabytesPerSecond(corpus.length * (long) MEASURED_ROUNDS, decompressNanos));
+		}
+	}
+
+	private static byte[] buildDiffsCorpus(String[] runTars) throws IOException {
+		List<Path> logs = new ArrayList<>();
+		for (String runTar : runTars) {
+			logs.add(Paths.get(runTar));
+		}
+		if (logs.isEmpty()) {
+			logs.add(Paths.get(LoggingExtension.sourceFolderName, LoggingExtension.testSupportPackageName,
+					LoggingExtension.finalTarFilename));
+		}
+
+		ByteArrayOutputStream tarBytes = new ByteArrayOutputStream();
+		int[] entryCount = {0};
+		try (TarArchiveOutputStream corpus = new TarArchiveOutputStream(tarBytes)) {
+			corpus.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+			for (Path log : logs) {
+				if (Files.notExists(log) || Files.size(log) == 0) {
+					System.out.println("skipping empty or missing " + log);
+					continue;
+				}
+				forEachDiffsEntry(log, (name, contents) -> {
+					addCorpusEntry(corpus, log.getFileName() + "/" + name, contents);
+					entryCount[0]++;
+				});
+			}
+			if (entryCount[0] == 0) {
+				// No history to hand; source files are what baselines are made of
+				System.out.println("no diffs found; using the .java files under " + LoggingExtension.sourceFolderName);
+				for (Path file : listFiles(Paths.get(LoggingExtension.sourceFolderName), ".java")) {
+					addCorpusEntry(corpus, file.toString(), Files.readAllBytes(file));
+				}
+			}
+		}
+		return tarBytes.toByteArray();
+	}
+
+	@FunctionalInterface
+	private interface DiffsEntryVisitor {
+		void visit(String name, byte[] contents) throws IOException;
+	}
+
+	// Baselines and patches of every diffs generation in a run.tar, whatever its codec or layout
+	private static void forEachDiffsEntry(Path runTar, DiffsEntryVisitor visitor) throws IOException {
+		try (TarFile tarFile = new TarFile(runTar)) {
+			for (TarArchiveEntry archive : tarFile.getEntries()) {
+				String archiveName = archive.getName();
+				if (!LoggingExtension.isDiffsArchiveFilename(archiveName)) {
+					continue;
+				}
+				byte[] archiveBytes;
+				try (InputStream in = tarFile.getInputStream(archive)) {
+					archiveBytes = IOUtils.toByteArray(in);
+				}
+
+				DiffsCodec codec = DiffsCodec.forFilename(archiveName);
+				if (codec == null) {
+					SeekableInMemoryByteChannel channel = new SeekableInMemoryByteChannel(archiveBytes);
+					DiffSegmentArchive.read(channel).forEachEntry(channel,
+							(entry, contents) -> visitor.visit(archiveName + "/" + entry.getName(), IOUtils.toByteArray(contents)));
+					continue;
+				}
+				try (TarArchiveInputStream tis = new TarArchiveInputStream(
+						codec.decompress(new ByteArrayInputStream(archiveBytes)))) {
+					TarArchiveEntry entry;
+					while ((entry = tis.getNextTarEntry()) != null) {
+						if (!entry.isDirectory()) {
+							visitor.visit(archiveName + "/" + entry.getName(), IOUtils.toByteArray(tis));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static void addCorpusEntry(TarArchiveOutputStream corpus, String name, byte[] contents) throws IOException {
+		TarArchiveEntry entry = new TarArchiveEntry(name);
+		entry.setSize(contents.length);
+		corpus.putArchiveEntry(entry);
+		corpus.write(contents);
+		corpus.closeArchiveEntry();
+	}
+
+	private static byte[] compress(DiffsCodec codec, byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+		try (OutputStream compressed = codec.compress(out)) {
+			compressed.write(data);
+		}
+		return out.toByteArray();
+	}
+
+	// Returns the decompressed length
+	private static long decompress(DiffsCodec codec, byte[] data) throws IOException {
+		byte[] buffer = new byte[8_192];
+		long total = 0;
+		try (InputStream in = codec.decompress(new ByteArrayInputStream(data))) {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				total += read;
+			}
+		}
+		return total;
+	}
+
+	//================================================================================
+	// run.tar Extraction
+	//================================================================================
+
+	private static final int SYNTHETIC_GENERATIONS = 6;
+	private static final int SYNTHETIC_GENERATION_SIZE = 1024 * 1024;
+
+	// Extraction is the only part of beforeAllInitDurationMs that differs between the paths
+	private static void extractionTime(Path runTar) throws IOException {
+		Path workDir = Files.createTempDirectory("extractBenchmark");
+		try {
+			if (runTar == null) {
+				runTar = workDir.resolve(LoggingExtension.finalTarFilename);
+				writeSyntheticRunTar(runTar);
+			}
+			System.out.printf("%s: %,d bytes%n", runTar, Files.size(runTar));
+
+			Path target = workDir.resolve("extracted");
+			for (int i = 0; i < WARMUP_ROUNDS; i++) {
+				untarStreaming(target, runTar);
+				untarTransferring(target, runTar);
+				new Workspace().untar(runTar, "");
+			}
+
+			long streamingNanos = 0;
+			long transferNanos = 0;
+			long workspaceNanos = 0;
+			for (int i = 0; i < MEASURED_ROUNDS; i++) {
+				long start = System.nanoTime();
+				untarStreaming(target, runTar);
+				streamingNanos += System.nanoTime() - start;
+				start = System.nanoTime();
+				untarTransferring(target, runTar);
+				transferNanos += System.nanoTime() - start;
+				start = System.nanoTime();
+				new Workspace().untar(runTar, "");
+				workspaceNanos += System.nanoTime() - start;
+			}
+
+			double streamingMs = nanosToMillis(streamingNanos) / MEASURED_ROUNDS;
+			double transferMs = nanosToMillis(transferNanos) / MEASURED_ROUNDS;
+			double workspaceMs = nanosToMillis(workspaceNanos) / MEASURED_ROUNDS;
+			System.out.printf("stream copy to disk (IOUtils.copy): %.2f ms/extraction%n", streamingMs);
+			System.out.printf("channel transfer to disk:           %.2f ms/extraction%n", transferMs);
+			System.out.printf("workspace (in memory):              %.2f ms/extraction%n", workspaceMs);
+		} finally {
+			try (Stream<Path> walk = Files.walk(workDir)) {
+				walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+			}
+		}
+	}
+
+	// The temp-directory extraction LoggingExtension used before the workspace
+	private static void untarStreaming(Path targetPath, Path tarPath) throws IOException {
+		try (TarArchiveInputStream tIn = new TarArchiveInputStream(
+				new BufferedInputStream(Files.newInputStream(tarPath)))) {
+			TarArchiveEntry entry;
+			while ((entry = tIn.getNextTarEntry()) != null) {
+				if (entry.isDirectory()) {
+					continue;
+				}
+				Path outPath = targetPath.resolve(entry.getName());
+				Files.createDirectories(outPath.getParent());
+				try (OutputStream o = Files.newOutputStream(outPath)) {
+					IOUtils.copy(tIn, o);
+				}
+				Files.setLastModifiedTime(outPath, FileTime.fromMillis(entry.getModTime().getTime()));
+			}
+		}
+	}
+
+	// Same, with each member moved by FileChannel.transferTo
+	private static void untarTransferring(Path targetPath, Path tarPath) throws IOException {
+		try (FileChannel source = FileChannel.open(tarPath, StandardOpenOption.READ);
+			 TarFile tarFile = new TarFile(source)) {
+			for (TarArchiveEntry entry : tarFile.getEntries()) {
+				if (entry.isDirectory()) {
+					continue;
+				}
+				Path outPath = targetPath.resolve(entry.getName());
+				Files.createDirectories(outPath.getParent());
+				try (FileChannel out = FileChannel.open(outPath, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE)) {
+					long position = entry.getDataOffset();
+					long remaining = entry.getSize();
+					while (remaining > 0) {
+						long transferred = source.transferTo(position, remaining, out);
+						position += transferred;
+						remaining -= transferred;
+					}
+				}
+				Files.setLastModifiedTime(outPath, FileTime.fromMillis(entry.getModTime().getTime()));
+			}
+		}
+	}
+
+	// Same members as a real log; the diffs archives are incompressible, like compressed data is
+	private static void writeSyntheticRunTar(Path runTar) throws IOException {
+		Random random = new Random(0);
+		try (TarArchiveOutputStream tOut = new TarArchiveOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(runTar)))) {
+			tOut.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+			addCorpusEntry(tOut, LoggingExtension.testRunInfoFilename,
+					Files.readAllBytes(Paths.get(LoggingExtension.sourceFolderName,
+							LoggingExtension.testSupportPackageName, LoggingExtension.startTestRunInfoFilename)));
+			addCorpusEntry(tOut, LoggingExtension.errorLogFilename, new byte[0]);
+			for (int generation = 0; generation < SYNTHETIC_GENERATIONS; generation++) {
+				byte[] archive = new byte[SYNTHETIC_GENERATION_SIZE];
+				random.nextBytes(archive);
+				addCorpusEntry(tOut, LoggingExtension.getDiffsSegmentsFilename(generation * 10), archive);
+			}
+		}
+	}
+
+	//================================================================================
+	// testRunInfo Formats
+	//================================================================================
+
+	private static final int[] HISTORY_RUNS = {100, 1000, 5000, 20000};
+	private static final int SYNTHETIC_TEST_FILES = 4;
+	private static final int SYNTHETIC_TESTS_PER_FILE = 8;
+
+	// Per-run cost is what must stay flat as a log's history grows
+	private static void testRunInfoFormats() throws IOException {
+		ObjectMapper mapper = new ObjectMapper();
+		System.out.printf("%7s %12s %12s %12s %12s%n", "runs", "json bytes", "bin bytes", "json us/run", "bin us/run");
+		for (int runs : HISTORY_RUNS) {
+			JsonNode history = syntheticHistory(mapper, runs);
+			byte[] json = TestRunInfoCodec.toJson(history);
+			byte[] binary = TestRunInfoCodec.encode(history);
+			if (!Arrays.equals(TestRunInfoCodec.toJson(TestRunInfoCodec.decode(binary)), json)) {
+				throw new IllegalStateException("Binary testRunInfo did not round-trip at " + runs + " runs");
+			}
+
+			for (int i = 0; i < WARMUP_ROUNDS; i++) {
+				TestRunInfoCodec.toJson(mapper.readTree(json));
+				TestRunInfoCodec.encode(TestRunInfoCodec.decode(binary));
+			}
+			long jsonNanos = 0;
+			long binaryNanos = 0;
+			for (int i = 0; i < MEASURED_ROUNDS; i++) {
+				long start = System.nanoTime();
+				TestRunInfoCodec.toJson(mapper.readTree(json));
+				jsonNanos += System.nanoTime() - start;
+				start = System.nanoTime();
+				TestRunInfoCodec.encode(TestRunInfoCodec.decode(binary));
+				binaryNanos += System.nanoTime() - start;
+			}
+			System.out.printf("%7d %,12d %,12d %12.2f %12.2f%n", runs, json.length, binary.length,
+					nanosToMillis(jsonNanos) * 1000 / MEASURED_ROUNDS / runs,
+					nanosToMillis(binaryNanos) * 1000 / MEASURED_ROUNDS / runs);
+		}
+	}
+
+	// startTestRunInfo.json plus a status for every test at every run, a few of them failures
+	private static JsonNode syntheticHistory(ObjectMapper mapper, int runs) throws IOException {
+		ObjectNode root = (ObjectNode) mapper.readTree(Files.readAllBytes(
+				Paths.get(LoggingExtension.sourceFolderName, "testSupport", LoggingExtension.startTestRunInfoFilename)));
+		Random random = new Random(0);
+		ObjectNode runTimes = (ObjectNode) root.get("runTimes");
+		for (int run = 1; run <= runs; run++) {
+			runTimes.put(Integer.toString(run), "2024-01-01 00:00:00." + (run % 1000));
+		}
+		root.put("prevRunNumber", runs);
+		for (int file = 0; file < SYNTHETIC_TEST_FILES; file++) {
+			ObjectNode fileNode = root.putObject(SYNTHETIC_FILE_NAMES[file]);
+			for (int test = 0; test < SYNTHETIC_TESTS_PER_FILE; test++) {
+				ObjectNode testNode = fileNode.putObject(SYNTHETIC_TEST_NAMES[test]);
+				for (int run = 1; run <= runs; run++) {
+					testNode.put(Integer.toString(run), random.nextInt(10) == 0
+							? TestStatus.FAILED + ": java.lang.AssertionError: expected:<" + test + "> but was:<0>"
+							: TestStatus.SUCCESSFUL.toString());
+				}
+			}
+		}
+		return root;
+	}
+
+	//================================================================================
+	// Callback Overhead
+	//================================================================================
+
+	private static final int CALLBACK_RUNS = 200; // sessions simulated on top of each history
+	private static final String[] SYNTHETIC_FILE_NAMES = new String[SYNTHETIC_TEST_FILES];
+	private static final String[] SYNTHETIC_TEST_NAMES = new String[SYNTHETIC_TESTS_PER_FILE];
+	static {
+		for (int file = 0; file < SYNTHETIC_TEST_FILES; file++) {
+			SYNTHETIC_FILE_NAMES[file] = "SyntheticTest" + file;
+		}
+		for (int test = 0; test < SYNTHETIC_TESTS_PER_FILE; test++) {
+			SYNTHETIC_TEST_NAMES[test] = "test" + test + "()";
+		}
+	}
+
+	// What each test costs in beforeEach + afterEach: a strike check, the ABORTED default and the outcome
+	private static void callbackOverhead() throws IOException {
+		ObjectMapper mapper = new ObjectMapper();
+		System.out.printf("%7s %16s %16s%n", "runs", "tree ns/test", "history ns/test");
+		for (int runs : HISTORY_RUNS) {
+			byte[] json = TestRunInfoCodec.toJson(syntheticHistory(mapper, runs));
+
+			for (int i = 0; i < WARMUP_ROUNDS; i++) {
+				treeCallbacks((ObjectNode) mapper.readTree(json), runs);
+				historyCallbacks(RunHistory.load((ObjectNode) mapper.readTree(json)), runs);
+			}
+			long treeNanos = 0;
+			long historyNanos = 0;
+			for (int i = 0; i < MEASURED_ROUNDS; i++) {
+				ObjectNode tree = (ObjectNode) mapper.readTree(json);
+				long start = System.nanoTime();
+				treeCallbacks(tree, runs);
+				treeNanos += System.nanoTime() - start;
+				RunHistory history = RunHistory.load((ObjectNode) mapper.readTree(json));
+				start = System.nanoTime();
+				historyCallbacks(history, runs);
+				historyNanos += System.nanoTime() - start;
+			}
+			long callbacks = (long) MEASURED_ROUNDS * CALLBACK_RUNS * SYNTHETIC_TEST_FILES * SYNTHETIC_TESTS_PER_FILE;
+			System.out.printf("%7d %16.1f %16.1f%n", runs, treeNanos / (double) callbacks, historyNanos / (double) callbacks);
+		}
+	}
+
+	// The ObjectNode mutation LoggingSingleton did before RunHistory
+	private static void treeCallbacks(ObjectNode root, int firstRun) {
+		for (int run = firstRun + 1; run <= firstRun + CALLBACK_RUNS; run++) {
+			root.put("prevRunNumber", root.get("prevRunNumber").asInt() + 1);
+			for (int file = 0; file < SYNTHETIC_TEST_FILES; file++) {
+				for (int test = 0; test < SYNTHETIC_TESTS_PER_FILE; test++) {
+					int struck = 0;
+					ObjectNode strikes = (ObjectNode) root.get("strikes");
+					Iterator<String> iter = strikes.fieldNames();
+					while (iter.hasNext()) {
+						if (strikes.get(iter.next()).asBoolean()) {
+							struck++;
+						}
+					}
+					Reference.reachabilityFence(struck);
+					int current = root.get("prevRunNumber").asInt();
+					ObjectNode testNode = (ObjectNode) root.get(SYNTHETIC_FILE_NAMES[file]).get(SYNTHETIC_TEST_NAMES[test]);
+					testNode.put(Integer.toString(current), TestStatus.ABORTED.toString());
+					current = root.get("prevRunNumber").asInt();
+					testNode.put(Integer.toString(current), TestStatus.SUCCESSFUL.toString());
+				}
+			}
+		}
+	}
+
+	private static void historyCallbacks(RunHistory history, int firstRun) {
+		for (int run = firstRun + 1; run <= firstRun + CALLBACK_RUNS; run++) {
+			history.runNumber++;
+			for (int file = 0; file < SYNTHETIC_TEST_FILES; file++) {
+				for (int test = 0; test < SYNTHETIC_TESTS_PER_FILE; test++) {
+					Reference.reachabilityFence(history.strikes.cardinality());
+					RunHistory.TestHistory testHistory = history.getOrAddTest(SYNTHETIC_FILE_NAMES[file], SYNTHETIC_TEST_NAMES[test]);
+					history.record(testHistory, history.runNumber, TestStatus.ABORTED, RunHistory.NO_CAUSE);
+					history.record(testHistory, history.runNumber, TestStatus.SUCCESSFUL, RunHistory.NO_CAUSE);
+				}
+			}
+		}
+	}
+
+	//================================================================================
+	// Overhead Histograms
+	//================================================================================
+
+	private static final int HISTOGRAM_SAMPLES = 10_000_000;
+
+	// Log-normal latencies around 50 us with a long tail, like callback overhead
+	private static void histogramRecording() {
+		Random random = new Random(42);
+		long[] samples = new long[HISTOGRAM_SAMPLES];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = (long) (50_000 * Math.exp(random.nextGaussian()));
+		}
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			histogram.reset();
+			recordAll(histogram, samples);
+		}
+		long nanos = 0;
+		for (int i = 0; i < MEASURED_ROUNDS; i++) {
+			histogram.reset();
+			long start = System.nanoTime();
+			recordAll(histogram, samples);
+			nanos += System.nanoTime() - start;
+		}
+
+		long[] sorted = samples.clone();
+		Arrays.sort(sorted);
+		System.out.printf("record: %.2f ns/value over %,d values%n", nanos / (double) MEASURED_ROUNDS / samples.length, samples.length);
+		for (double percentile : new double[] {50, 90, 99, 99.9}) {
+			long exact = sorted[(int) Math.ceil(percentile / 100 * sorted.length) - 1];
+			long bucketed = histogram.valueAtPercentile(percentile);
+			System.out.printf("p%-5s exact %,12d ns  histogram %,12d ns  error %+.2f%%%n",
+					percentile, exact, bucketed, 100.0 * (bucketed - exact) / exact);
+		}
+		System.out.printf("max    exact %,12d ns  histogram %,12d ns%n", sorted[sorted.length - 1], histogram.getMax());
+	}
+
+	private static void recordAll(LatencyHistogram histogram, long[] samples) {
+		for (long sample : samples) {
+			histogram.record(sample);
+		}
+	}
+
+	//================================================================================
+	// Parallel Recording
+	//================================================================================
+
+	private static final int PARALLEL_TESTS_PER_THREAD = 50_000;
+	private static final int PARALLEL_DISTINCT_TESTS = 200;
+
+	// A test's callbacks as LoggingExtension records them (outcomes, timing, overhead), on 1 to 2 x cores threads
+	private static void parallelRecording() throws Exception {
+		Path workDir = Files.createTempDirectory("parallelBenchmark");
+		Path pendingFile = workDir.resolve(LoggingExtension.pendingOutcomesFilename);
+		try {
+			LoggingSingleton.getInstance(Files.readAllBytes(Paths.get(LoggingExtension.sourceFolderName,
+					LoggingExtension.testSupportPackageName, LoggingExtension.startTestRunInfoFilename)), null, pendingFile);
+			int cores = Runtime.getRuntime().availableProcessors();
+			System.out.printf("%d cores, outcome journal %s%n", cores, LoggingSingleton.getOutcomeJournal() ? "on" : "off");
+			System.out.printf("%8s %18s %18s%n", "threads", "lock-free tests/s", "global lock tests/s");
+			for (int threads = 1; threads <= cores * 2; threads *= 2) {
+				double lockFree = testsPerSecond(threads, null);
+				double globalLock = testsPerSecond(threads, new Object());
+				System.out.printf("%8d %18.0f %18.0f%n", threads, lockFree, globalLock);
+			}
+		} finally {
+			LoggingSingleton.closePendingJournal(pendingFile, true);
+			try (Stream<Path> walk = Files.walk(workDir)) {
+				walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+			}
+		}
+	}
+
+	// With globalLock, every test's callbacks hold it, as a synchronized LoggingSingleton would
+	private static double testsPerSecond(int threads, Object globalLock) throws Exception {
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			recordInParallel(threads, globalLock);
+		}
+		long nanos = 0;
+		for (int i = 0; i < MEASURED_ROUNDS; i++) {
+			nanos += recordInParallel(threads, globalLock);
+		}
+		return (double) MEASURED_ROUNDS * threads * PARALLEL_TESTS_PER_THREAD / (nanos / 1e9);
+	}
+
+	private static long recordInParallel(int threads, Object globalLock) throws Exception {
+		List<Thread> workers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			String testFileName = "ParallelTests" + t;
+			workers.add(new Thread(() -> {
+				for (int i = 0; i < PARALLEL_TESTS_PER_THREAD; i++) {
+					String testName = SYNTHETIC_TEST_NAMES[i % SYNTHETIC_TEST_NAMES.length] + (i % PARALLEL_DISTINCT_TESTS);
+					if (globalLock == null) {
+						recordTest(testFileName, testName);
+					} else {
+						synchronized (globalLock) {
+							recordTest(testFileName, testName);
+						}
+					}
+				}
+			}));
+		}
+		long start = System.nanoTime();
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		LoggingSingleton.mergePendingOutcomes();
+		return System.nanoTime() - start;
+	}
+
+	private static void recordTest(String testFileName, String testName) {
+		long start = System.nanoTime();
+		LoggingSingleton.resetAccumulatedTime();
+		LoggingSingleton.restartTiming();
+		LoggingSingleton.setTestRunNumberAndStatus(testFileName, testName, TestStatus.ABORTED);
+		LoggingSingleton.accumulateTime();
+		LoggingSingleton.recordOverhead("beforeEach", System.nanoTime() - start);
+		start = System.nanoTime();
+		LoggingSingleton.restartTiming();
+		LoggingSingleton.setTestRunNumberAndStatus(testFileName, testName, TestStatus.SUCCESSFUL);
+		LoggingSingleton.accumulateTime();
+		LoggingSingleton.recordOverhead("testSuccessful", System.nanoTime() - start);
+	}
+
+	//================================================================================
+	// Redaction
+	//================================================================================
+
+	private static final int REDACTION_SEED = 0x5eed;
+
+	// Both the baseline (whole contents) and the diff (per line) forms, checked identical first
+	private static void redactionThroughput(Path sourceFolder) throws IOException {
+		List<CapturedSource> sources = new ArrayList<>();
+		List<String> contents = new ArrayList<>();
+		List<List<String>> lines = new ArrayList<>();
+		long chars = 0;
+		for (Path file : listFiles(sourceFolder, ".java")) {
+			CapturedSource source = CapturedSource.read(file);
+			sources.add(source);
+			contents.add(source.getContents());
+			lines.add(source.getLines());
+			chars += source.getContents().length();
+		}
+		Redactor redactor = Redactor.forSeed(REDACTION_SEED);
+		for (int i = 0; i < sources.size(); i++) {
+			if (!legacyRedactString(contents.get(i), REDACTION_SEED).equals(redactor.redact(contents.get(i)))
+					|| !legacyRedactStrings(lines.get(i), REDACTION_SEED).equals(redactor.redactLines(lines.get(i)))
+					|| !redactor.redactLines(lines.get(i)).equals(redactor.redactedLines(sources.get(i)))) {
+				throw new IllegalStateException("Redactor output differs from the per-character algorithm");
+			}
+		}
+
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			legacyRedactAll(contents, lines);
+			redactorAll(redactor, contents, lines);
+		}
+		long legacyNanos = 0;
+		long tableNanos = 0;
+		long cachedNanos = 0;
+		for (int i = 0; i < MEASURED_ROUNDS; i++) {
+			long start = System.nanoTime();
+			legacyRedactAll(contents, lines);
+			legacyNanos += System.nanoTime() - start;
+			start = System.nanoTime();
+			redactorAll(redactor, contents, lines);
+			tableNanos += System.nanoTime() - start;
+			start = System.nanoTime();
+			for (CapturedSource source : sources) {
+				redactor.redactedContents(source);
+				redactor.redactedLines(source);
+			}
+			cachedNanos += System.nanoTime() - start;
+		}
+
+		long redactedChars = chars * 2 * MEASURED_ROUNDS; // contents and lines
+		System.out.printf("files: %d, chars: %,d (output identical)%n", sources.size(), chars);
+		System.out.printf("per-character hash + StringBuilder: %10.1f Mchars/s%n", megabytesPerSecond(redactedChars, legacyNanos));
+		System.out.printf("Redactor table, bulk char[]:        %10.1f Mchars/s%n", megabytesPerSecond(redactedChars, tableNanos));
+		System.out.printf("Redactor, cached by content:        %10.1f Mchars/s%n", megabytesPerSecond(redactedChars, cachedNanos));
+	}
+
+	private static Object legacyRedactAll(List<String> contents, List<List<String>> lines) {
+		List<Object> out = new ArrayList<>();
+		for (int i = 0; i < contents.size(); i++) {
+			out.add(legacyRedactString(contents.get(i), REDACTION_SEED));
+			out.add(legacyRedactStrings(lines.get(i), REDACTION_SEED));
+		}
+		return out;
+	}
+
+	private static Object redactorAll(Redactor redactor, List<String> contents, List<List<String>> lines) {
+		List<Object> out = new ArrayList<>();
+		for (int i = 0; i < contents.size(); i++) {
+			out.add(redactor.redact(contents.get(i)));
+			out.add(redactor.redactLines(lines.get(i)));
+		}
+		return out;
+	}
+
+	// LoggingExtension's redaction before Redactor, verbatim
+	private static String legacyRedactString(String str, int seed) {
+		boolean sequenceStarted = false;
+		char seqChar = '$';
+		StringBuilder toRet = new StringBuilder();
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (Redactor.isAlphanum(c)) {
+				if (!sequenceStarted) {
+					seqChar = legacyRedactedChar(c, seed);
+					sequenceStarted = true;
+				}
+				toRet.append(seqChar);
+			} else {
+				sequenceStarted = false;
+				seqChar = '$';
+				toRet.append(c);
+			}
+		}
+		return toRet.toString();
+	}
+
+	private static List<String> legacyRedactStrings(List<String> strs, int seed) {
+		List<String> toRet = new ArrayList<>();
+		for (String str : strs) {
+			toRet.add(legacyRedactString(str, seed));
+		}
+		return toRet;
+	}
+
+	private static char legacyRedactedChar(char c, int seed) {
+		int x = seed ^ c;
+		x *= 0x27D4_EB2D;
+		x ^= x >>> 15;
+		x *= 0x85EB_CA6B;
+		x ^= x >>> 13;
+		int idx = Math.floorMod(x, 62);
+		if (idx < 10) {
+			return (char) ('0' + idx);
+		}
+		idx -= 10;
+		return idx < 26 ? (char) ('A' + idx) : (char) ('a' + idx - 26);
+	}
+
+	//================================================================================
+	// Diff Algorithms
+	//================================================================================
+
+	private static final int[] DIFF_FILE_SIZES = {1 << 10, 16 << 10, 256 << 10, 1 << 20, 5 << 20};
+	private static final int DIFF_HISTORY_REVISIONS = 6;
+	private static final long PLAIN_MYERS_MAX_SIZE = 1 << 20;  // MAX_DIFFED_FILE_SIZE; beyond it Myers is minutes
+
+	// Each size diffs a synthetic edit history revision by revision; every patch must rebuild its revision
+	private static void diffAlgorithms() throws Exception {
+		DiffAlgorithm[] algorithms = DiffAlgorithm.values();
+		System.out.printf("%9s %8s %14s", "size", "lines", "DiffUtils ms");
+		for (DiffAlgorithm algorithm : algorithms) {
+			System.out.printf(" %12s", algorithm.name().toLowerCase() + " ms");
+		}
+		System.out.printf(" %s%n", "deltas (DiffUtils/each)");
+
+		for (int size : DIFF_FILE_SIZES) {
+			List<List<String>> history = syntheticEditHistory(size, new Random(size));
+			boolean plainMyers = size <= PLAIN_MYERS_MAX_SIZE;
+			int rounds = size <= (256 << 10) ? MEASURED_ROUNDS : 1;
+			StringBuilder deltas = new StringBuilder();
+
+			String plainMs = "-";
+			if (plainMyers) {
+				deltas.append(diffHistory(history, null, 1)[1]);
+				plainMs = String.format("%.2f", nanosToMillis(diffHistory(history, null, rounds)[0]) / rounds);
+			} else {
+				deltas.append('-');
+			}
+			System.out.printf("%9s %8d %14s", size >= (1 << 20) ? (size >> 20) + " MB" : (size >> 10) + " KB",
+					history.get(0).size(), plainMs);
+			for (DiffAlgorithm algorithm : algorithms) {
+				if (algorithm == DiffAlgorithm.MYERS && !plainMyers) {
+					System.out.printf(" %12s", "-");
+					deltas.append("/-");
+					continue;
+				}
+				deltas.append('/').append(diffHistory(history, algorithm, 1)[1]);
+				System.out.printf(" %12.2f", nanosToMillis(diffHistory(history, algorithm, rounds)[0]) / rounds);
+			}
+			System.out.printf(" %s%n", deltas);
+		}
+	}
+
+	// {nanos, deltas} of diffing every revision against the one before, rounds times; null is DiffUtils' own Myers
+	private static long[] diffHistory(List<List<String>> history, DiffAlgorithm algorithm, int rounds) throws Exception {
+		long nanos = 0;
+		long deltas = 0;
+		for (int round = 0; round < rounds; round++) {
+			for (int i = 1; i < history.size(); i++) {
+				List<String> original = history.get(i - 1);
+				List<String> revised = history.get(i);
+				long start = System.nanoTime();
+				Patch<String> patch = algorithm == null
+						? DiffUtils.diff(original, revised) : DiffUtils.diff(original, revised, algorithm);
+				nanos += System.nanoTime() - start;
+				if (round == 0) {
+					if (!DiffUtils.patch(original, patch).equals(revised)) {
+						throw new IllegalStateException((algorithm == null ? "DiffUtils" : algorithm) + " patch does not rebuild revision " + i);
+					}
+					deltas += patch.getDeltas().size();
+				}
+			}
+		}
+		return new long[] {nanos, deltas};
+	}
+
+	/**
+	 * A Java file of roughly size bytes followed by revisions that each make one
+	 * kind of edit a student makes: a few changed lines, a new method, a deleted
+	 * method, methods moved, an identifier renamed throughout, a reformat.
+	 */
+	private static List<List<String>> syntheticEditHistory(int size, Random random) {
+		List<String> file = new ArrayList<>();
+		file.add("package pkg;");
+		file.add("");
+		file.add("public class Synthetic {");
+		long bytes = 0;
+		int methods = 0;
+		while (bytes < size) {
+			for (String line : syntheticMethod(methods++, random)) {
+				file.add(line);
+				bytes += line.length() + 1;
+			}
+		}
+		file.add("}");
+
+		List<List<String>> history = new ArrayList<>();
+		history.add(file);
+		for (int revision = 1; revision < DIFF_HISTORY_REVISIONS; revision++) {
+			List<String> next = new ArrayList<>(file);
+			int methodLines = syntheticMethod(0, random).size();
+			int at = 3 + random.nextInt(Math.max(1, next.size() - 3 - methodLines));
+			switch (revision) {
+				case 1:  // a few edited lines
+					for (int i = 0; i < 3; i++) {
+						int line = 3 + random.nextInt(next.size() - 4);
+						next.set(line, next.get(line) + " // edited");
+					}
+					break;
+				case 2:  // a new method
+					next.addAll(at, syntheticMethod(methods++, random));
+					break;
+				case 3:  // a deleted method
+					next.subList(at, Math.min(at + methodLines, next.size() - 1)).clear();
+					break;
+				case 4: { // a run of methods moved further down
+					int length = Math.min(methodLines * 8, (next.size() - 4) / 4);
+					int from = 3 + random.nextInt(Math.max(1, next.size() - 4 - length * 2));
+					List<String> moved = new ArrayList<>(next.subList(from, from + length));
+					next.subList(from, from + length).clear();
+					next.addAll(Math.min(from + length, next.size() - 1), moved);
+					break;
+				}
+				default:  // a local renamed wherever it appears
+					for (int i = 0; i < next.size(); i++) {
+						next.set(i, next.get(i).replace("total", "sum"));
+					}
+			}
+			history.add(next);
+			file = next;
+		}
+		return history;
+	}
+
+	private static List<String> syntheticMethod(int index, Random random) {
+		List<String> lines = new ArrayList<>();
+		lines.add("");
+		lines.add("\t/**");
+		lines.add("\t * Computes value " + index + " from its inputs.");
+		lines.add("\t */");
+		lines.add("\tpublic int method" + index + "(int[] values, int limit) {");
+		lines.add("\t\tint total = 0;");
+		int body = 2 + random.nextInt(6);
+		for (int i = 0; i < body; i++) {
+			lines.add("\t\tfor (int i = 0; i < values.length; i++) {");
+			lines.add("\t\t\tif (values[i] > " + random.nextInt(100) + ") {");
+			lines.add("\t\t\t\ttotal += values[i] * " + random.nextInt(10) + ";");
+			lines.add("\t\t\t}");
+			lines.add("\t\t}");
+		}
+		lines.add("\t\treturn Math.min(total, limit);");
+		lines.add("\t}");
+		return lines;
+	}
+
+	//================================================================================
+	// Patch Encodings
+	//================================================================================
+
+	// Every revision of each synthetic history diffed against the first, as patches are against their baseline
+	private static void patchEncodings() throws Exception {
+		System.out.printf("%9s %14s %14s %7s %14s%n", "size", "text bytes", "binary bytes", "ratio", "decode MB/s");
+		for (int size : DIFF_FILE_SIZES) {
+			List<List<String>> history = syntheticEditHistory(size, new Random(size));
+			List<String> baseline = history.get(0);
+			long textBytes = 0;
+			long binaryBytes = 0;
+			long decodeNanos = 0;
+			for (int i = 1; i < history.size(); i++) {
+				List<AbstractDelta<String>> deltas = DiffUtils.diff(baseline, history.get(i), DiffAlgorithm.PATIENCE).getDeltas();
+				String text = LoggingExtension.buildDiffOutputString(deltas);
+				byte[] binary = PatchCodec.encode(deltas, baseline);
+				long start = System.nanoTime();
+				String decoded = PatchCodec.decode(binary, baseline);
+				decodeNanos += System.nanoTime() - start;
+				if (!decoded.equals(text)) {
+					throw new IllegalStateException("Binary patch does not decode to the text patch of revision " + i);
+				}
+				textBytes += text.getBytes(StandardCharsets.UTF_8).length;
+				binaryBytes += binary.length;
+			}
+			System.out.printf("%9s %,14d %,14d %7.3f %14.1f%n", size >= (1 << 20) ? (size >> 20) + " MB" : (size >> 10) + " KB",
+					textBytes, binaryBytes, (double) binaryBytes / textBytes, megabytesPerSecond(textBytes, decodeNanos));
+		}
+	}
+
+	//================================================================================
+	// Rebaselining
+	//================================================================================
+
+	private static final int[] SIMULATED_REPO_SIZES = {16 << 10, 128 << 10, 1 << 20};
+	private static final int SIMULATED_FILES = 8;
+	private static final int SIMULATED_RUNS = 400;
+	private static final int[] SIMULATED_CHECKPOINTS = {25, 50, 100, 200, 400};
+
+	/**
+	 * Replays one seeded edit history per repo size under each policy. Every run
+	 * really diffs, encodes and compresses its segment as appendDiffSegment()
+	 * would, so archive bytes are exact and flush time is the measured tar and
+	 * compression time.
+	 */
+	private static void rebaselinePolicies() throws Exception {
+		RebaselinePolicy[] policies = {RebaselinePolicy.fromName("fixed"), RebaselinePolicy.fromName("cost")};
+		System.out.printf("%9s %6s %6s %14s %14s %11s%n", "repo", "policy", "run", "archive bytes", "flush ms/run", "rebaselines");
+		for (int size : SIMULATED_REPO_SIZES) {
+			for (RebaselinePolicy policy : policies) {
+				SimulatedLog log = new SimulatedLog(policy);
+				Random random = new Random(size);
+				List<List<String>> files = new ArrayList<>();
+				int methods = 0;
+				for (int f = 0; f < SIMULATED_FILES; f++) {
+					List<String> file = new ArrayList<>();
+					while (file.size() * 24 < size / SIMULATED_FILES) { // roughly 24 bytes a line
+						file.addAll(syntheticMethod(methods++, random));
+					}
+					files.add(file);
+				}
+
+				long windowNanos = 0;
+				int windowStart = 1;
+				int checkpoint = 0;
+				for (int run = 1; run <= SIMULATED_RUNS; run++) {
+					boolean[] changed = new boolean[SIMULATED_FILES];
+					simulateEdits(files, changed, random, methods);
+					methods += SIMULATED_FILES;
+					windowNanos += log.flush(run, files, changed);
+					if (run == SIMULATED_CHECKPOINTS[checkpoint]) {
+						System.out.printf("%9s %6s %6d %,14d %14.2f %11d%n", (size >> 10) + " KB", policy.getName(), run,
+								log.archiveBytes, nanosToMillis(windowNanos) / (run - windowStart + 1), log.rebaselines);
+						windowNanos = 0;
+						windowStart = run + 1;
+						checkpoint++;
+					}
+				}
+			}
+		}
+	}
+
+	// Mostly small edits to a file or two, sometimes a new method, rarely a rename across a file
+	private static void simulateEdits(List<List<String>> files, boolean[] changed, Random random, int methods) {
+		int edits = random.nextInt(3);
+		for (int e = 0; e < edits; e++) {
+			int f = random.nextInt(files.size());
+			List<String> file = files.get(f);
+			changed[f] = true;
+			int kind = random.nextInt(20);
+			if (kind == 0) {
+				for (int i = 0; i < file.size(); i++) {
+					file.set(i, file.get(i).replace("values", "items" + methods));
+				}
+			} else if (kind < 5) {
+				file.addAll(random.nextInt(file.size()), syntheticMethod(methods + f, random));
+			} else {
+				int line = random.nextInt(file.size());
+				file.set(line, file.get(line) + " // run edit " + methods);
+			}
+		}
+	}
+
+	// Just enough of writeDiffs() and appendDiffSegment() to size and time each flush
+	private static final class SimulatedLog {
+		final RebaselinePolicy policy;
+		final List<List<String>> baselines = new ArrayList<>();
+		final List<long[]> segments = new ArrayList<>();  // {compressed, uncompressed, has baselines}
+		long archiveBytes = 0;
+		long generationPatchBytes = 0;
+		int generationStart = 0;
+		int rebaselines = 0;
+		boolean rebaselineNext = true;
+
+		SimulatedLog(RebaselinePolicy policy) {
+			this.policy = policy;
+		}
+
+		// Nanos spent diffing, tarring and compressing the run's segment
+		long flush(int run, List<List<String>> files, boolean[] changed) throws Exception {
+			long start = System.nanoTime();
+			ByteArrayOutputStream tarBytes = new ByteArrayOutputStream();
+			long baselineBytes = 0;
+			long runPatchBytes = 0;
+			boolean newGeneration = rebaselineNext;
+			try (TarArchiveOutputStream tar = new TarArchiveOutputStream(tarBytes)) {
+				if (newGeneration) {
+					baselines.clear();
+					segments.clear();
+					generationPatchBytes = 0;
+					generationStart = run;
+					rebaselines++;
+				}
+				for (int f = 0; f < files.size(); f++) {
+					List<String> file = files.get(f);
+					if (newGeneration) {
+						baselines.add(new ArrayList<>(file));
+						byte[] baseline = String.join("\n", file).getBytes(StandardCharsets.UTF_8);
+						addCorpusEntry(tar, "baselines/f" + f, baseline);
+					} else if (changed[f]) {
+						List<AbstractDelta<String>> deltas = DiffUtils.diff(baselines.get(f), file, DiffAlgorithm.PATIENCE).getDeltas();
+						byte[] patch = PatchCodec.encode(deltas, baselines.get(f));
+						addCorpusEntry(tar, "patches/f" + f + "_" + run, patch);
+						runPatchBytes += patch.length;
+					}
+				}
+			}
+			for (List<String> baseline : baselines) {
+				for (String line : baseline) {
+					baselineBytes += line.length() + 1;
+				}
+			}
+			byte[] segment = compressSegment(tarBytes.toByteArray());
+			long nanos = System.nanoTime() - start;
+
+			archiveBytes += segment.length;
+			segments.add(new long[] {segment.length, tarBytes.size(), newGeneration ? 1 : 0});
+			generationPatchBytes += runPatchBytes;
+			rebaselineNext = policy.decide(baselineBytes, runPatchBytes, generationPatchBytes, run - generationStart,
+					ratio(true), ratio(false)).rebaseline;
+			return nanos;
+		}
+
+		private double ratio(boolean withBaselines) {
+			long compressed = 0;
+			long uncompressed = 0;
+			for (long[] segment : segments) {
+				if ((segment[2] == 1) == withBaselines) {
+					compressed += segment[0];
+					uncompressed += segment[1];
+				}
+			}
+			return uncompressed == 0 ? Double.NaN : (double) compressed / uncompressed;
+		}
+
+		private static byte[] compressSegment(byte[] tar) throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (OutputStream compressed = DiffsCodec.ZIP.compressSegment(out)) {
+				compressed.write(tar);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	//================================================================================
+	// Run Archive Reader
+	//================================================================================
+
+	private static void readerSweep(Path runTar) throws IOException {
+		byte[] tar = Files.readAllBytes(runTar);
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			RunArchiveReader warmup = RunArchiveReader.open(new ByteArrayInputStream(tar));
+			for (String className : warmup.getClassNames()) {
+				warmup.forEachSnapshot(className, snapshot -> { });
+			}
+		}
+		long start = System.nanoTime();
+		RunArchiveReader reader = RunArchiveReader.open(new ByteArrayInputStream(tar));
+		long openNanos = System.nanoTime() - start;
+
+		long[] snapshots = {0};
+		start = System.nanoTime();
+		for (String className : reader.getClassNames()) {
+			reader.forEachSnapshot(className, snapshot -> snapshots[0]++);
+		}
+		long sweepNanos = System.nanoTime() - start;
+
+		// Without checkpoints every snapshot opens, decompresses and applies from scratch
+		int sampled = 0;
+		start = System.nanoTime();
+		for (String className : reader.getClassNames()) {
+			for (int run = 1; run <= reader.getLastRun() && sampled < 200; run += Math.max(1, reader.getLastRun() / 20)) {
+				RunArchiveReader.open(new ByteArrayInputStream(tar)).getSnapshot(className, run);
+				sampled++;
+			}
+		}
+		long coldNanos = System.nanoTime() - start;
+
+		System.out.printf("%s: %,d bytes, %d classes, last run %d%n", runTar, tar.length, reader.getClassNames().size(), reader.getLastRun());
+		System.out.printf("open and index:          %10.2f ms%n", nanosToMillis(openNanos));
+		System.out.printf("checkpointed sweep:      %10.2f ms for %,d snapshots (%.3f ms each)%n",
+				nanosToMillis(sweepNanos), snapshots[0], nanosToMillis(sweepNanos) / Math.max(1, snapshots[0]));
+		System.out.printf("fresh reader, sampled:   %10.3f ms each (%d samples)%n", nanosToMillis(coldNanos) / Math.max(1, sampled), sampled);
+	}
+
+	//================================================================================
+	// Run Tar Index
+	//================================================================================
+
+	// run.tar must have been written with its index, i.e. by a session of this version
+	private static void indexedAccess(Path runTar) throws IOException {
+		try (FileChannel channel = FileChannel.open(runTar, StandardOpenOption.READ)) {
+			if (RunTarIndex.read(channel) == null) {
+				System.out.println(runTar + " has no index; run a session to rewrite it");
+				return;
+			}
+		}
+		List<String> names = new ArrayList<>();
+		try (TarFile tarFile = new TarFile(runTar)) {
+			for (TarArchiveEntry entry : tarFile.getEntries()) {
+				if (!entry.getName().equals(RunTarIndex.entryName)) {
+					names.add(entry.getName());
+				}
+			}
+		}
+
+		long[] loadNanos = new long[2];
+		long[] saveNanos = new long[2];
+		for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+			for (int deferred = 0; deferred < 2; deferred++) {
+				Workspace workspace = new Workspace();
+				long start = System.nanoTime();
+				workspace.untar(runTar, "", deferred == 1 ? LoggingExtension::isDiffsArchiveFilename : name -> false);
+				long loaded = System.nanoTime();
+				workspace.writeIndexedTar("", names, OutputStream.nullOutputStream());
+				long saved = System.nanoTime();
+				if (round >= WARMUP_ROUNDS) {
+					loadNanos[deferred] += loaded - start;
+					saveNanos[deferred] += saved - loaded;
+				}
+			}
+		}
+
+		// One class at one run, each from a fresh reader as a one-off query would
+		RunArchiveReader probe = RunArchiveReader.open(runTar);
+		List<String> classNames = probe.getClassNames();
+		int lastRun = probe.getLastRun();
+		Random random = new Random(42);
+		int samples = 50;
+		long[] queryNanos = new long[2];
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < samples; i++) {
+				String className = classNames.get(random.nextInt(classNames.size()));
+				int run = 1 + random.nextInt(Math.max(1, lastRun));
+				long start = System.nanoTime();
+				try (InputStream in = new BufferedInputStream(Files.newInputStream(runTar))) {
+					RunArchiveReader.open(in).getSnapshot(className, run);
+				}
+				long scanned = System.nanoTime();
+				RunArchiveReader.open(runTar).getSnapshot(className, run);
+				long indexed = System.nanoTime();
+				if (round == 1) {
+					queryNanos[0] += scanned - start;
+					queryNanos[1] += indexed - scanned;
+				}
+			}
+		}
+
+		System.out.printf("%s: %,d bytes, %d members, %d classes, last run %d%n",
+				runTar, Files.size(runTar), names.size(), classNames.size(), lastRun);
+		System.out.printf("%-26s %12s %12s%n", "", "whole", "indexed");
+		System.out.printf("%-26s %10.2fms %10.2fms%n", "load into workspace",
+				nanosToMillis(loadNanos[0]) / MEASURED_ROUNDS, nanosToMillis(loadNanos[1]) / MEASURED_ROUNDS);
+		System.out.printf("%-26s %10.2fms %10.2fms%n", "save (tar + index)",
+				nanosToMillis(saveNanos[0]) / MEASURED_ROUNDS, nanosToMillis(saveNanos[1]) / MEASURED_ROUNDS);
+		System.out.printf("%-26s %10.3fms %10.3fms%n", "open + one snapshot",
+				nanosToMillis(queryNanos[0]) / samples, nanosToMillis(queryNanos[1]) / samples);
+	}
+
+	//================================================================================
+	// Log Analytics
+	//================================================================================
+
+	private static void analyticsScaling(Path logsDir) throws IOException, InterruptedException {
+		int cores = Runtime.getRuntime().availableProcessors();
+		LogAnalytics.analyze(List.of(logsDir), cores); // warmup, and the page cache
+		System.out.printf("%s, %d cores%n", logsDir, cores);
+		System.out.printf("%8s %10s %12s %12s%n", "threads", "archives", "ms", "archives/s");
+		for (int threads = 1; threads <= cores * 2; threads *= 2) {
+			long start = System.nanoTime();
+			LogAnalytics.Totals totals = LogAnalytics.analyze(List.of(logsDir), threads);
+			long nanos = System.nanoTime() - start;
+			System.out.printf("%8d %10d %12.1f %12.1f%n", threads, totals.getArchives() + totals.getUnreadable(),
+					nanosToMillis(nanos), (totals.getArchives() + totals.getUnreadable()) / (nanos / 1e9));
+		}
+	}
+
+	//================================================================================
+	// Helpers
+	//================================================================================
+
+	@FunctionalInterface
+	private interface Capture {
+		Object run() throws IOException;
+	}
+
+	// Heap still in use after GC while the captured structure is reachable, minus the baseline
+	private static long retainedBytes(Capture capture) throws IOException {
+		long before = usedHeapAfterGc();
+		Object retained = capture.run();
+		long after = usedHeapAfterGc();
+		Reference.reachabilityFence(retained);
+		return Math.max(0, after - before);
+	}
+
+	private static long usedHeapAfterGc() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	static double megabytesPerSecond(long bytes, long nanos) {
+		return (bytes / (1024.0 * 1024.0)) / (nanos / (double) TimeUnit.SECONDS.toNanos(1));
+	}
+
+	static double nanosToMillis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	static List<Path> listFiles(Path root, String suffix) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (Stream<Path> walk = Files.walk(root)) {
+			walk.filter(p -> Files.isRegularFile(p) && p.toString().endsWith(suffix)).forEach(files::add);
+		}
+		return files;
+	}
+}
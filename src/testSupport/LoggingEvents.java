@@ -0,0 +1,145 @@
+package testSupport;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder events for LoggingExtension's phases, so a recording of a
+ * slow session shows where the time went next to the JVM's own GC, file I/O and
+ * Jackson allocation events. Record with -XX:StartFlightRecording (or jcmd
+ * JFR.start) and open the file in JDK Mission Control or `jfr print --categories
+ * testSupport`. When no recording is running, an event is a flag check.
+ *
+ * bytesRead and bytesWritten are this logger's disk I/O while the event ran, on
+ * every thread: run.tar, its backup, captured sources and the pending journal.
+ */
+final class LoggingEvents {
+
+	//================================================================================
+	// Disk I/O Counters
+	//================================================================================
+
+	private static final AtomicLong bytesRead = new AtomicLong();
+	private static final AtomicLong bytesWritten = new AtomicLong();
+
+	private LoggingEvents() {}
+
+	static void addBytesRead(long bytes) {
+		bytesRead.addAndGet(bytes);
+	}
+
+	static void addBytesWritten(long bytes) {
+		bytesWritten.addAndGet(bytes);
+	}
+
+	// -1 until testRunInfo is loaded
+	static int currentRun() {
+		return LoggingSingleton.getRunHistory() == null ? -1 : LoggingSingleton.getCurrentTestRunNumber();
+	}
+
+	//================================================================================
+	// Events
+	//================================================================================
+
+	@Category("testSupport")
+	abstract static class IoEvent extends Event {
+		@Label("Run Number")
+		int runNumber;
+
+		@Label("Bytes Read")
+		@DataAmount
+		long bytesRead;
+
+		@Label("Bytes Written")
+		@DataAmount
+		long bytesWritten;
+
+		transient long readAtStart;
+		transient long writtenAtStart;
+	}
+
+	// Static rather than IoEvent methods: JDK 17's event instrumentation rejects
+	// a base class method that writes fields after calling shouldCommit()
+	static void start(IoEvent event) {
+		event.readAtStart = bytesRead.get();
+		event.writtenAtStart = bytesWritten.get();
+		event.begin();
+	}
+
+	// Ends the event; false if it would not be recorded, so there is nothing more to fill in
+	static boolean stop(IoEvent event, int run) {
+		event.end();
+		if (!event.shouldCommit()) {
+			return false;
+		}
+		event.runNumber = run;
+		event.bytesRead = bytesRead.get() - event.readAtStart;
+		event.bytesWritten = bytesWritten.get() - event.writtenAtStart;
+		return true;
+	}
+
+	@Name("testSupport.BeforeAllInit")
+	@Label("Logger Init")
+	@Description("beforeAll's first-time setup: loading run.tar into the workspace")
+	static final class Init extends IoEvent {
+		@Label("Workspace Files")
+		int fileCount;
+	}
+
+	@Name("testSupport.SourceCapture")
+	@Label("Source Capture")
+	@Description("Scanning src and reading the sources whose size or mtime changed")
+	static final class SourceCapture extends IoEvent {
+		@Label("Files Captured")
+		int fileCount;
+
+		@Label("Files Read")
+		int filesRead;
+	}
+
+	@Name("testSupport.FlushStage")
+	@Label("Flush Stage")
+	@Description("One timedSafeExecute stage of doSessionFlush(), or a diff stage run in the background")
+	static final class FlushStage extends IoEvent {
+		@Label("Stage")
+		String stage;
+
+		@Label("Failed")
+		boolean failed;
+
+		@Label("Deferred")
+		@Description("Left to the next session by the flush deadline")
+		boolean deferred;
+	}
+
+	@Name("testSupport.SaveStep")
+	@Label("Save Step")
+	@Description("One step of atomicallySaveTempFiles(): writing, backing up and replacing run.tar")
+	static final class SaveStep extends IoEvent {
+		@Label("Step")
+		String step;
+
+		@Label("File Count")
+		int fileCount;
+	}
+
+	@Name("testSupport.Callback")
+	@Label("Test Callback")
+	@Description("One JUnit callback into LoggingExtension")
+	static final class Callback extends IoEvent {
+		@Label("Callback")
+		String callback;
+
+		@Label("Test Class")
+		String testClass;
+
+		@Label("Test Name")
+		String testName;
+	}
+}
@@ -7,42 +7,41 @@ import org.junit.jupiter.api.extension.BeforeEachCallback;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardOpenOption;
 import java.nio.file.AtomicMoveNotSupportedException;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.nio.file.attribute.FileTime;
 import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
-import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.utils.IOUtils;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
 
-import com.fasterxml.jackson.core.exc.StreamWriteException;
-import com.fasterxml.jackson.databind.DatabindException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.difflib.DiffUtils;
@@ -57,41 +56,51 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 	//================================================================================
 
 	static private LoggingSingleton logger;
-	static private boolean loggerInitialized = false;
-	static private Path tempDirectory;
-	static private Map<Path, List<String>> inMemoryBaselines;  // Source files captured at test start time
-	static private Map<Path, String> inMemoryBaselineBytes;  // new String(Files.readAllBytes(file))
+	static private volatile boolean loggerInitialized = false;
+	static private final Object sessionLock = new Object();  // one-time init and run.tar writes, across parallel test threads
+	static private Workspace workspace;                   // session files, in memory instead of a temp directory
+	static private Map<Path, CapturedSource> inMemoryBaselines;  // Source files captured at test start time
 	static private boolean loggedShutdownReason = false;  // Ensures shutdown reason is logged only once
 	static LoggingExtension instance;                      // accessed by LoggingSessionListener
 	static boolean launcherSessionListenerFired = false;   // used by shutdown hook fallback
-	static private Long cachedRepoSize = null;     // repo size, stable for the entire JVM run
+	static private List<SourceManifest.FileStat> cachedSourceStats = null;  // one scan of src, stable for the entire JVM run
+	static private long sourceScanStart;           // when that scan started, for SourceManifest's racy check
 	static private Boolean cachedTarTooBig = null; // tar size check, stable for the entire JVM run
+	static private Thread backgroundDiffsThread = null;    // opt-in diff worker started in beforeAll
+	static private DiffState backgroundDiffState = null;   // its inputs/outcomes; read only after join
+	static private TimingBudgets budgets = TimingBudgets.fixed();  // scaled to this machine once testRunInfo is loaded
+	static private final List<String> initErrors = new ArrayList<>();  // recoverable beforeAll errors, logged by the flush
 
 	final static String testRunInfoFilename = "testRunInfo.json";
+	final static String testRunInfoBinaryFilename = "testRunInfo.bin"; // compact form, see TestRunInfoCodec
+	final static String outcomeJournalFilename = "outcomes.journal";    // outcomes not yet in testRunInfo, see OutcomeJournal
+	final static String pendingOutcomesFilename = "outcomes.pending";   // next to run.tar: this session's outcomes until saved
+	final static String sourceManifestFilename = "sources.manifest";    // size, mtime and digest per source, see SourceManifest
 	final static String startTestRunInfoFilename  = "startTestRunInfo.json";
 	final static String errorLogFilename = "error-logs.txt";
 	final static String finalTarFilename = "run.tar";
 	final static String backupTarPrefix = "run.tar.bak.";  // followed by run numbers separated by -
 	final static String diffsPrefix = "diffs";
 	final static String tarSuffix = ".tar";
-	final static String tarZipSuffix = ".tar.zip";
+	final static String tarSegmentsSuffix = ".tar.segs";
 
 	final  static String sourceFolderName = "src";
 	final static String testSupportPackageName = "testSupport";
 	final static String diffsFolderName = "diffs";
+	final static String baselinesFolderName = "baselines";
 	final static String patchesFolderName = "patches";
 	final static String tempFolderName = "temp";
 
 	private final long MB_SIZE = 1024 * 1024;   // 1 MB
 	private final long KB_SIZE = 1024;   // 1 KB
-	private final long SYNC_MAX_TIME = 500;        // in ms — per-test callback overhead
-	private final long BEFORE_ALL_MAX_TIME = 2000; // in ms — filesystem I/O in beforeAll()
-	private final long ASYNC_MAX_TIME = 3000;      // in ms — afterAll() I/O operations
-	private final long WAY_TOO_LONG_FACTOR = 3;
-	private final long REBASELINE_SIZE = 10L * KB_SIZE;
 	private final long MAX_TAR_SIZE = 2L * MB_SIZE;
 	private final long MAX_REPO_SIZE = 10L * MB_SIZE;
 	private final long MAX_DIFFED_FILE_SIZE = MB_SIZE;
+	private final int MAX_DIFF_WORKERS = 4;         // upper bound on the parallel writeDiffs pool
+	// Flush stages inside the async budget that always run; their estimates are reserved from the budget.
+	// addPriorRebaslinedDiffs only moves archives in memory, but run.tar is written from the staged files
+	// alone, so deferring it would drop every prior generation instead of leaving work for the next session.
+	private static final List<String> MUST_HAVE_FLUSH_STAGES = List.of("addPriorRebaslinedDiffs", "copyErrorLogs", "saveSourceManifest");
 
 	//================================================================================
 	// Public Methods (Only JUnit Callbacks)
@@ -99,84 +108,113 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 
 	@Override
 	public void beforeAll(ExtensionContext ctx) {
+		long callbackStart = System.nanoTime();
+		LoggingEvents.Callback callbackEvent = new LoggingEvents.Callback();
+		LoggingEvents.start(callbackEvent);
 		try {
 			LoggingSingleton.resetAccumulatedTime();
-			long beforeAllStart = System.nanoTime();
 			LoggingSingleton.restartTiming();
 
-			// Initialize tempDirectory early so logError() can work if exceptions occur
-			if (tempDirectory == null) {
-				initTempDirectory();
-			}
+			// Test classes may start in parallel; the first one initializes, the rest wait for it.
+			// Per-test callbacks never take this lock
+			synchronized (sessionLock) {
+				// Initialize the workspace early so logError() can work if exceptions occur
+				if (workspace == null) {
+					workspace = new Workspace();
+				}
 			
-			long repoSize = getRepoFilesSize();
-			boolean repoTooBig = repoSize > MAX_REPO_SIZE;
-			boolean tarIsTooBig = tarTooBig();
-			if (repoTooBig || tarIsTooBig) {
-				if (repoTooBig) {
-					logShutdownReason("Repo size (" + repoSize + " bytes) exceeds MAX_REPO_SIZE (" + MAX_REPO_SIZE + " bytes)");
-				} else {
-					logShutdownReason("Tar size exceeds MAX_TAR_SIZE (" + MAX_TAR_SIZE + " bytes)");
+				long repoSize = getRepoFilesSize();
+				boolean repoTooBig = repoSize > MAX_REPO_SIZE;
+				boolean tarIsTooBig = tarTooBig();
+				if (repoTooBig || tarIsTooBig) {
+					if (repoTooBig) {
+						logShutdownReason("Repo size (" + repoSize + " bytes) exceeds MAX_REPO_SIZE (" + MAX_REPO_SIZE + " bytes)");
+					} else {
+						logShutdownReason("Tar size exceeds MAX_TAR_SIZE (" + MAX_TAR_SIZE + " bytes)");
+					}
+					return;
 				}
-				return;
-			}
 
-			if (!loggerInitialized) {
-				long initStart = System.nanoTime();
-
-				initDirectories();
-
-				// Capture source files into memory before tests run
-				// This ensures code snapshots match the actual tested code
-				captureSourceFilesInMemory();
-
-				File testRunInfoFile = filepathResolve(tempDirectory)
-						.resolve(testRunInfoFilename).toFile();
-				logger = LoggingSingleton.getInstance(testRunInfoFile);
-
-				loggerInitialized = true;
-				instance = this;
-				// Cleanup-only hook: safe to kill mid-deletion (temp dir leaks at worst)
-				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-					try {
-						if (!launcherSessionListenerFired && instance != null) {
-							instance.doSessionFlush();  // fallback if SPI not discovered
-						}
-					} catch (Throwable ignored) {}
-					try {
-						if (tempDirectory != null) {
-							try (var walkStream = Files.walk(tempDirectory)) {
-								walkStream.sorted(Comparator.reverseOrder())
-										  .map(Path::toFile)
-										  .forEach(File::delete);
+				if (!loggerInitialized) {
+					long initStart = System.nanoTime();
+					LoggingEvents.Init initEvent = new LoggingEvents.Init();
+					LoggingEvents.start(initEvent);
+
+					initWorkspace();
+					long initWorkspaceMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - initStart);
+					boolean recordInit = LoggingEvents.stop(initEvent, -1);
+
+					logger = LoggingSingleton.getInstance(workspace.read(testRunInfoPath()),
+							workspace.read(outcomeJournalFilename), filepathResolve().resolve(pendingOutcomesFilename));
+
+					// Capture source files into memory before tests run
+					// This ensures code snapshots match the actual tested code
+					long captureStart = System.nanoTime();
+					LoggingEvents.SourceCapture captureEvent = new LoggingEvents.SourceCapture();
+					LoggingEvents.start(captureEvent);
+					int filesRead = captureSourceFilesInMemory();
+					long captureMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - captureStart);
+					boolean recordCapture = LoggingEvents.stop(captureEvent, -1);
+
+					// Measured before testRunInfo existed, so recorded now
+					LoggingSingleton.addInitTiming("initWorkspace", initWorkspaceMs);
+					LoggingSingleton.addInitTiming("captureSourceFiles", captureMs);
+					loadTimingBudgets();
+					if (recordInit) {
+						initEvent.runNumber = LoggingEvents.currentRun();
+						initEvent.fileCount = workspace.fileCount();
+						initEvent.commit();
+					}
+					if (recordCapture) {
+						captureEvent.runNumber = LoggingEvents.currentRun();
+						captureEvent.fileCount = inMemoryBaselines.size();
+						captureEvent.filesRead = filesRead;
+						captureEvent.commit();
+					}
+
+					loggerInitialized = true;
+					instance = this;
+					// Fallback-only hook; the workspace is in memory, so there is nothing to clean up
+					Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+						try {
+							if (!launcherSessionListenerFired && instance != null) {
+								instance.doSessionFlush();  // fallback if SPI not discovered
 							}
-						}
-					} catch (Throwable ignored) {}
-				}));
-				LoggingSingleton.setBeforeAllInitDurationMs(
-						TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - initStart));
-			}
+						} catch (Throwable ignored) {}
+					}));
+					if (LoggingSingleton.getBackgroundDiffs() && !LoggingSingleton.getSkipLogging()) {
+						startBackgroundDiffs();
+					}
+					LoggingSingleton.setBeforeAllInitDurationMs(
+							TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - initStart));
+				}
 
-			Class<?> testClass = ctx.getTestClass().orElseThrow();
-			String testFileName = testClass.getSimpleName();
-			String packageName = testClass.getPackageName();
+				Class<?> testClass = ctx.getTestClass().orElseThrow();
+				String testFileName = testClass.getSimpleName();
+				String packageName = testClass.getPackageName();
 
-			LoggingSingleton.setCurrentTestFilePath(testFileName, packageName);
+				LoggingSingleton.setCurrentTestFilePath(testFileName, packageName);
 
-			LoggingSingleton.setBeforeAllTotalDurationMs(
-					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beforeAllStart));
-			accumulateAndCheckTiming(BEFORE_ALL_MAX_TIME);
+				LoggingSingleton.setBeforeAllTotalDurationMs(
+						TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - callbackStart));
+			}
+			accumulateAndCheckTiming(budgets.beforeAllMs);
 		} catch (Throwable T) {
 			logError(T);
+		} finally {
+			callbackFinished("beforeAll", ctx, callbackStart, callbackEvent);
 		}
 	}
 
 	@Override
 	public void beforeEach(ExtensionContext ctx) {
+		long callbackStart = System.nanoTime();
+		LoggingEvents.Callback callbackEvent = new LoggingEvents.Callback();
+		LoggingEvents.start(callbackEvent);
 		try {
 			LoggingSingleton.resetAccumulatedTime();
 
-			setUpAndCheckTiming(SYNC_MAX_TIME);
+			setUpAndCheckTiming(budgets.syncMs);
 
 			boolean skip = LoggingSingleton.getSkipLogging();
 			boolean strikes = LoggingSingleton.tooManyStrikes();
@@ -198,16 +236,21 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 
 			LoggingSingleton.setTestRunNumberAndStatus(testFileName, testName, TestStatus.ABORTED); // aborted by default
 
-			accumulateAndCheckTiming(SYNC_MAX_TIME);
+			accumulateAndCheckTiming(budgets.syncMs);
 		} catch (Throwable T) {
 			logError(T);
+		} finally {
+			callbackFinished("beforeEach", ctx, callbackStart, callbackEvent);
 		}
 	}
 
 	@Override
 	public void testAborted(ExtensionContext ctx, Throwable cause) {
+		long callbackStart = System.nanoTime();
+		LoggingEvents.Callback callbackEvent = new LoggingEvents.Callback();
+		LoggingEvents.start(callbackEvent);
 		try {
-			setUpAndCheckTiming(SYNC_MAX_TIME);
+			setUpAndCheckTiming(budgets.syncMs);
 
 			boolean skip = LoggingSingleton.getSkipLogging();
 			boolean strikes = LoggingSingleton.tooManyStrikes();
@@ -221,16 +264,21 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 			}
 			setTestRunNumberAndStatusHelper(ctx, TestStatus.ABORTED, cause);
 
-			accumulateAndCheckTiming(SYNC_MAX_TIME);
+			accumulateAndCheckTiming(budgets.syncMs);
 		} catch (Throwable T) {
 			logError(T);
+		} finally {
+			callbackFinished("testAborted", ctx, callbackStart, callbackEvent);
 		}
 
 	}
 
 	public void testDisabled(ExtensionContext ctx) {
+		long callbackStart = System.nanoTime();
+		LoggingEvents.Callback callbackEvent = new LoggingEvents.Callback();
+		LoggingEvents.start(callbackEvent);
 		try {
-			setUpAndCheckTiming(SYNC_MAX_TIME);
+			setUpAndCheckTiming(budgets.syncMs);
 
 			boolean skip = LoggingSingleton.getSkipLogging();
 			boolean strikes = LoggingSingleton.tooManyStrikes();
@@ -244,17 +292,22 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 			}
 			setTestRunNumberAndStatusHelper(ctx, TestStatus.DISABLED);
 
-			accumulateAndCheckTiming(SYNC_MAX_TIME);
+			accumulateAndCheckTiming(budgets.syncMs);
 		} catch (Throwable T) {
 			logError(T);
+		} finally {
+			callbackFinished("testDisabled", ctx, callbackStart, callbackEvent);
 		}
 
 	}
 
 	@Override
 	public void testFailed(ExtensionContext ctx, Throwable cause) {
+		long callbackStart = System.nanoTime();
+		LoggingEvents.Callback callbackEvent = new LoggingEvents.Callback();
+		LoggingEvents.start(callbackEvent);
 		try {
-			setUpAndCheckTiming(SYNC_MAX_TIME);
+			setUpAndCheckTiming(budgets.syncMs);
 
 			boolean skip = LoggingSingleton.getSkipLogging();
 			boolean strikes = LoggingSingleton.tooManyStrikes();
@@ -268,17 +321,22 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 			}
 			setTestRunNumberAndStatusHelper(ctx, TestStatus.FAILED, cause);
 
-			accumulateAndCheckTiming(SYNC_MAX_TIME);
+			accumulateAndCheckTiming(budgets.syncMs);
 		} catch (Throwable T) {
 			logError(T);
+		} finally {
+			callbackFinished("testFailed", ctx, callbackStart, callbackEvent);
 		}
 
 	}
 
 	@Override
 	public void testSuccessful(ExtensionContext ctx) {
+		long callbackStart = System.nanoTime();
+		LoggingEvents.Callback callbackEvent = new LoggingEvents.Callback();
+		LoggingEvents.start(callbackEvent);
 		try {
-			setUpAndCheckTiming(SYNC_MAX_TIME);
+			setUpAndCheckTiming(budgets.syncMs);
 
 			boolean skip = LoggingSingleton.getSkipLogging();
 			boolean strikes = LoggingSingleton.tooManyStrikes();
@@ -292,19 +350,28 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 			}
 			setTestRunNumberAndStatusHelper(ctx, TestStatus.SUCCESSFUL);
 
-			accumulateAndCheckTiming(SYNC_MAX_TIME);
+			accumulateAndCheckTiming(budgets.syncMs);
 		} catch (Throwable T) {
 			logError(T);
+		} finally {
+			callbackFinished("testSuccessful", ctx, callbackStart, callbackEvent);
 		}
 	}
 
+	// Tests are over, but a straggling logError() on another thread must not save run.tar at the same time
 	void doSessionFlush() {
+		synchronized (sessionLock) {
+			doSessionFlushLocked();
+		}
+	}
+
+	private void doSessionFlushLocked() {
 		long closeStart = System.nanoTime();
 		// Track errors but continue processing - don't let one failure kill everything
-		List<String> errors = new ArrayList<>();
+		List<String> errors = new ArrayList<>(initErrors);
 
 		try {
-			setUpAndCheckTiming(ASYNC_MAX_TIME);
+			setUpAndCheckTiming(budgets.asyncMs);
 			if (LoggingSingleton.getSkipLogging()) {
 				logShutdownReason("skipLogging flag is set (in launcherSessionClosed)");
 				return;
@@ -314,62 +381,77 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 			}
 
 			int currentTestRunNumber = logger.getCurrentTestRunNumber();
-			int seed = logger.getSeed();
-			boolean redactDiffs = logger.getRedactDiffs();
 
-			// Each operation is independent - failures don't cascade
-			errors.addAll(timedSafeExecute("unzipAndUntarDiffs", () -> unzipAndUntarDiffs()));
-			errors.addAll(timedSafeExecute("writeDiffs", () -> writeDiffs(currentTestRunNumber, seed, redactDiffs)));
-			errors.addAll(timedSafeExecute("tarAndZipDiffs", () -> tarAndZipDiffs()));
-			errors.addAll(timedSafeExecute("addPriorRebaslinedDiffs", () -> addPriorRebaslinedDiffs()));
+			// Diff stages are optional: they only start while they fit the budget, and are otherwise left to the next session
+			FlushDeadline deadline = backgroundDiffState != null ? backgroundDiffState.deadline : FlushDeadline.load();
+			if (LoggingSingleton.getDeadlineFlush()) {
+				deadline.start(closeStart, budgets.asyncMs, MUST_HAVE_FLUSH_STAGES);
+			}
+
+			// Diff stages either already ran in the background or run here
+			DiffState diffState = null;
+			if (backgroundDiffsThread != null) {
+				// The worker checks the deadline too, so this wait ends about when it does
+				errors.addAll(timedSafeExecute(deadline, "awaitBackgroundDiffs", () -> backgroundDiffsThread.join()));
+				diffState = backgroundDiffState;
+			}
+			if (diffState == null) {
+				diffState = DiffState.snapshot(deadline);
+				runDiffStages(diffState);
+			}
+			errors.addAll(diffState.errors);
+			diffState.apply();
+
+			errors.addAll(timedSafeExecute(deadline, "addPriorRebaslinedDiffs", () -> addPriorRebaslinedDiffs()));
 
 			// Copy error logs - use copy instead of move for safety
-			errors.addAll(timedSafeExecute("copyErrorLogs", () -> {
-				Path oldErrorLogsFilePath = filepathResolve(tempDirectory).resolve(errorLogFilename);
-				Path newErrorLogsFilePath = tempFilepathResolve(tempDirectory).resolve(errorLogFilename);
-				if (Files.exists(oldErrorLogsFilePath)) {
-					Files.copy(oldErrorLogsFilePath, newErrorLogsFilePath,
-							StandardCopyOption.REPLACE_EXISTING);
-				} else {
-					Files.createDirectories(newErrorLogsFilePath.getParent());
-					Files.createFile(newErrorLogsFilePath);
+			errors.addAll(timedSafeExecute(deadline, "copyErrorLogs", () -> {
+				if (!workspace.copy(errorLogFilename, stagedPath(errorLogFilename))) {
+					workspace.write(stagedPath(errorLogFilename), new byte[0]);
 				}
 			}));
+			errors.addAll(timedSafeExecute(deadline, "saveSourceManifest", () -> saveSourceManifest()));
 
-			accumulateAndCheckTiming(ASYNC_MAX_TIME);
+			accumulateAndCheckTiming(budgets.asyncMs);
 
 			// Write any accumulated errors to the error log before final save
 			if (!errors.isEmpty()) {
-				Path errorFilepath = tempFilepathResolve(tempDirectory).resolve(errorLogFilename);
-				Files.write(errorFilepath, errors, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+				workspace.appendLines(stagedPath(errorLogFilename), errors);
 			}
 
 			// Log successful run number if no errors and no shutdown occurred
 			// This allows identifying gaps where runs failed
 			if (errors.isEmpty() && !loggedShutdownReason) {
-				Path errorFilepath = tempFilepathResolve(tempDirectory).resolve(errorLogFilename);
-				Files.write(errorFilepath, List.of(String.valueOf(currentTestRunNumber)),
-						StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+				workspace.appendLines(stagedPath(errorLogFilename), List.of(String.valueOf(currentTestRunNumber)));
 			}
 
 			// Record close duration before saving testRunInfo so it appears in the tar
 			long closeDurationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - closeStart);
 			LoggingSingleton.setCloseDurationMs(closeDurationMs);
+			LoggingSingleton.saveOverheadPercentiles();
+			LoggingSingleton.setFlushEstimates(deadline.getEstimates());
+			if (!deadline.getDeferred().isEmpty()) {
+				LoggingSingleton.addDeferredFlushStages(currentTestRunNumber, deadline.getDeferred());
+			}
 
-			errors.addAll(safeExecute("saveTestRunInfo", () ->
-					saveTestRunInfo(logger.getObjectMapper(), logger.getTestRunInfo())));
+			List<String> saveErrors = new ArrayList<>();
+			saveErrors.addAll(safeExecute("saveTestRunInfo", () ->
+					saveTestRunInfo(logger.getObjectMapper(), LoggingSingleton.foldOutcomes())));
 
-			errors.addAll(safeExecute("atomicallySaveTempFiles", () -> atomicallySaveTempFiles()));
+			saveErrors.addAll(safeExecute("atomicallySaveTempFiles", () -> atomicallySaveTempFiles()));
+			errors.addAll(saveErrors);
+			// Kept if the save failed, so the next session recovers this one's outcomes
+			boolean saved = saveErrors.isEmpty();
+			errors.addAll(safeExecute("closePendingJournal", () -> LoggingSingleton.closePendingJournal(
+					filepathResolve().resolve(pendingOutcomesFilename), saved)));
 
 
 		} catch (Throwable T) {
 			// Last resort - try to save whatever we can
 			try {
-				Path errorFilepath = tempFilepathResolve(tempDirectory).resolve(errorLogFilename);
-				Files.createDirectories(errorFilepath.getParent());
 				errors.add("FATAL: " + T.getClass().getName() + ": " + T.getMessage());
-				Files.write(errorFilepath, errors, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-				saveTestRunInfo(logger.getObjectMapper(), logger.getTestRunInfo());
+				workspace.appendLines(stagedPath(errorLogFilename), errors);
+				saveTestRunInfo(logger.getObjectMapper(), LoggingSingleton.foldOutcomes());
 				atomicallySaveTempFiles();
 			} catch (Throwable ignored) {
 				// Fail silently - no stderr output
@@ -393,10 +475,101 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 		return errors;
 	}
 
-	private List<String> timedSafeExecute(String operationName, ThrowingRunnable operation) {
+	// Diff stage variant: records into the DiffState instead of LoggingSingleton
+	private void timedSafeExecute(DiffState state, String operationName, ThrowingRunnable operation) {
 		long opStart = System.nanoTime();
+		LoggingEvents.FlushStage event = new LoggingEvents.FlushStage();
+		LoggingEvents.start(event);
 		List<String> errors = safeExecute(operationName, operation);
 		long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - opStart);
+		commitFlushStage(event, state.testRunNumber, operationName, !errors.isEmpty(), false);
+		state.errors.addAll(errors);
+		state.timings.put(operationName, durationMs);
+		state.deadline.ran(operationName, durationMs);
+	}
+
+	private static void commitFlushStage(LoggingEvents.FlushStage event, int runNumber, String stage,
+			boolean failed, boolean deferred) {
+		if (LoggingEvents.stop(event, runNumber)) {
+			event.stage = stage;
+			event.failed = failed;
+			event.deferred = deferred;
+			event.commit();
+		}
+	}
+
+	// Zero-length FlushStage events, so a recording shows what the deadline left out
+	private static void deferDiffStages(DiffState state, List<String> stages) {
+		state.deferred = true;
+		for (String stage : stages) {
+			state.deadline.defer(stage);
+			LoggingEvents.FlushStage event = new LoggingEvents.FlushStage();
+			LoggingEvents.start(event);
+			commitFlushStage(event, state.testRunNumber, stage, false, true);
+		}
+	}
+
+	/**
+	 * Each operation is independent - failures don't cascade. Each stage needs the
+	 * ones before it, though, so a stage only starts if it and every later stage
+	 * fit the flush deadline; otherwise all of them are left to the next session.
+	 */
+	private void runDiffStages(DiffState state) {
+		Map<String, ThrowingRunnable> stages = new LinkedHashMap<>();
+		if (state.appendOnly) {
+			stages.put("loadDiffSegments", () -> loadDiffSegments(state));
+			stages.put("writeDiffs", () -> writeDiffs(state));
+			stages.put("appendDiffSegment", () -> appendDiffSegment(state));
+		} else {
+			stages.put("unzipAndUntarDiffs", () -> unzipAndUntarDiffs(state));
+			stages.put("writeDiffs", () -> writeDiffs(state));
+			// Distinct timing names so closeTiming shows which archive path produced the numbers
+			if (state.streamArchive) {
+				stages.put("streamTarAndZipDiffs", () -> streamTarAndZipDiffs(state));
+			} else {
+				stages.put("tarAndZipDiffs", () -> tarAndZipDiffs(state));
+			}
+		}
+
+		List<String> names = new ArrayList<>(stages.keySet());
+		for (int i = 0; i < names.size(); i++) {
+			List<String> rest = names.subList(i, names.size());
+			if (!state.deadline.fits(rest)) {
+				deferDiffStages(state, rest);
+				return;
+			}
+			timedSafeExecute(state, names.get(i), stages.get(names.get(i)));
+			if (state.stoppedAtDeadline) {
+				state.deadline.stopped(names.get(i));
+				deferDiffStages(state, rest.subList(1, rest.size()));
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Opt-in (backgroundDiffs): computes this run's patches and archive on a
+	 * low-priority daemon thread while tests execute, since the sources were
+	 * already captured. doSessionFlush() joins it and applies the outcomes.
+	 */
+	private void startBackgroundDiffs() {
+		DiffState state = DiffState.snapshot(FlushDeadline.load());
+		Thread worker = new Thread(() -> runDiffStages(state), "testSupport-diffs");
+		worker.setDaemon(true);
+		worker.setPriority(Thread.MIN_PRIORITY);
+		backgroundDiffState = state;
+		backgroundDiffsThread = worker;
+		worker.start();
+	}
+
+	private List<String> timedSafeExecute(FlushDeadline deadline, String operationName, ThrowingRunnable operation) {
+		long opStart = System.nanoTime();
+		LoggingEvents.FlushStage event = new LoggingEvents.FlushStage();
+		LoggingEvents.start(event);
+		List<String> errors = safeExecute(operationName, operation);
+		long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - opStart);
+		commitFlushStage(event, LoggingEvents.currentRun(), operationName, !errors.isEmpty(), false);
+		deadline.ran(operationName, durationMs);
 		try {
 			LoggingSingleton.addCloseTiming(operationName, durationMs);
 		} catch (Throwable ignored) {}
@@ -412,19 +585,21 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 	// Logger Initialization
 	//================================================================================
 
-	private void initDirectories() throws IOException {
+	/**
+	 * Loads run.tar into a fresh workspace. Apart from reading run.tar here and
+	 * replacing it in atomicallySaveTempFiles(), a normal session never touches the disk.
+	 * Diffs archives are left in run.tar until read, so older generations never load.
+	 */
+	private void initWorkspace() throws IOException {
 		try {
-			initTempDirectory();
-			// This line is needed now that temp dirs are being used; nothing exists yet
-			Files.createDirectories(tempFilepathResolve(tempDirectory));
-			Path filesDir = filepathResolve(tempDirectory);
+			workspace = new Workspace();
 			Path tarPath  = filepathResolve().resolve(finalTarFilename);
 			Path tempTarPath = filepathResolve().resolve(finalTarFilename + ".tmp");
 
 			// Clean up any interrupted temp file
 			Files.deleteIfExists(tempTarPath);
 
-			// Variables for recovery tracking (used after untarLogs)
+			// Variables for recovery tracking (used after loading run.tar)
 			List<Integer> lostRuns = null;
 			int maxLostRun = -1;
 
@@ -439,115 +614,81 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 					Files.copy(backupPath, tarPath, StandardCopyOption.REPLACE_EXISTING);
 
 					// Log recovery with all interrupted run numbers
-					Path errorLogPath = filepathResolve(tempDirectory).resolve(errorLogFilename);
-					Files.createDirectories(errorLogPath.getParent());
 					String msg = "RECOVERED: " + formatInterruptedRuns(lostRuns)
 						+ " interrupted at " + LocalTime.now();
-					Files.write(errorLogPath, List.of(msg),
-						StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+					workspace.appendLines(errorLogFilename, List.of(msg));
 				}
 				// If tar exists, keep backup anyway - it tracks prior failed run numbers
 				// The backup will be extended in atomicallySaveTempFiles() and deleted on success
 			}
 
-			untarLogs(filesDir, tarPath);
+			if (Files.exists(tarPath)) {
+				workspace.untar(tarPath, "", LoggingExtension::isDiffsArchiveFilename);
+			}
 
-			// After untarring, update prevRunNumber to skip interrupted runs
+			// After loading, update prevRunNumber to skip interrupted runs
 			if (lostRuns != null && maxLostRun > 0) {
-				Path testRunInfoPath = filepathResolve(tempDirectory).resolve(testRunInfoFilename);
-				if (Files.exists(testRunInfoPath)) {
-					updatePrevRunNumber(testRunInfoPath, maxLostRun);
+				if (workspace.exists(testRunInfoPath())) {
+					updatePrevRunNumber(maxLostRun);
 				}
 			}
-			Path testRunInfoPath = filepathResolve(tempDirectory).resolve(testRunInfoFilename);
-			Path errorLogFilePath = filepathResolve(tempDirectory).resolve(errorLogFilename);
-			if (Files.notExists(errorLogFilePath)) {
-				Files.createFile(errorLogFilePath);                      // = CREATE_NEW
+			if (!workspace.exists(errorLogFilename)) {
+				workspace.write(errorLogFilename, new byte[0]);
 			}
-			if (Files.notExists(testRunInfoPath)) {
-				Files.copy(
-						filepathResolve().resolve(startTestRunInfoFilename),
-						testRunInfoPath,
-						StandardCopyOption.REPLACE_EXISTING);
+			if (!workspace.exists(testRunInfoPath())) {
+				workspace.write(testRunInfoFilename,
+						Files.readAllBytes(filepathResolve().resolve(startTestRunInfoFilename)));
 			}
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
 	}
 
-	void initTempDirectory() throws IOException {
-		tempDirectory = Files.createTempDirectory(tempFolderName);
-	}
-
 	/**
 	 * Captures source files into memory at test start time.
 	 * This ensures diffs are computed against the code that was actually tested,
 	 * not code that may have been modified during test execution.
-	 * Integrates with the initial size check to ensure excessively large files
-	 * are never loaded into memory.
+	 * Reuses the repo size check's scan, so excessively large files are never
+	 * loaded into memory. A file is only left unread if the last session's manifest
+	 * shows it unchanged since the last diffed run, so writeDiffs will skip it.
+	 * Needs testRunInfo loaded. Returns how many files were read.
 	 */
-	private void captureSourceFilesInMemory() {
+	private int captureSourceFilesInMemory() {
 		inMemoryBaselines = new HashMap<>();
-		inMemoryBaselineBytes = new HashMap<>();
-		Path sourceFolder = Paths.get(sourceFolderName);
+		SourceManifest previous = SourceManifest.decode(workspace.read(sourceManifestFilename));
+		Map<String, String> previousDigests = LoggingSingleton.getFileDigests();
+		boolean rebaselining = LoggingSingleton.isRebaselining();
+		int filesRead = 0;
 		try {
-			Files.walkFileTree(sourceFolder, new SimpleFileVisitor<Path>() {
-				@Override
-				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-					if (dir.getFileName().toString().equals(testSupportPackageName)) {
-						return FileVisitResult.SKIP_SUBTREE;
+			for (SourceManifest.FileStat stat : scanSourceFiles()) {
+				if (stat.path.toString().endsWith(".java") && stat.size < MAX_DIFFED_FILE_SIZE) {
+					// One read per file; lines are only decoded if the file is actually diffed
+					CapturedSource captured = CapturedSource.capture(stat, previous, previousDigests, rebaselining);
+					if (!captured.isDeferred()) {
+						filesRead++;
 					}
-					return FileVisitResult.CONTINUE;
+					inMemoryBaselines.put(stat.path, captured);
 				}
-				@Override
-				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-					if (file.toString().endsWith(".java")) {
-						// Use simple size check - LoggingSingleton isn't initialized yet
-						if (!fileLargerThan(file, MAX_DIFFED_FILE_SIZE)) {
-							inMemoryBaselines.put(file, Files.readAllLines(file, StandardCharsets.UTF_8));
-							inMemoryBaselineBytes.put(file, new String(Files.readAllBytes(file)));
-						}
-					}
-					return FileVisitResult.CONTINUE;
-				}
-			});
+			}
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
+		return filesRead;
 	}
 
-	// note that this is gets rid of the outermost folder surrounding the tar
-	private void untarLogs(Path targetPath, Path tarPath) {
-		if (Files.notExists(tarPath)) {
+	// Stats and digests of this session's captured sources, for the next session
+	private void saveSourceManifest() throws IOException {
+		if (inMemoryBaselines == null) {
 			return;
 		}
-		try (InputStream fIn  = Files.newInputStream(tarPath);
-			 BufferedInputStream bIn = new BufferedInputStream(fIn);
-			 TarArchiveInputStream tIn = new TarArchiveInputStream(bIn)) {
-
-			TarArchiveEntry entry;
-			while ((entry = tIn.getNextTarEntry()) != null) {
-				Path outPath = targetPath.resolve(entry.getName()).normalize();
-				if (!outPath.startsWith(targetPath)) {
-					throw new IOException("Illegal TAR entry: " + entry.getName());
-				}
-
-				Path upDirectory = outPath.getParent();
-				if (entry.isDirectory()) {
-					Files.createDirectories(upDirectory);
-				} else {
-					Files.createDirectories(upDirectory);
-					try (OutputStream o = Files.newOutputStream(outPath, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE)) {
-						IOUtils.copy(tIn, o);         // stream file bytes
-					}
-
-					FileTime mtime = FileTime.fromMillis(entry.getModTime().getTime());
-					Files.setLastModifiedTime(outPath, mtime);
-				}
+		SourceManifest manifest = new SourceManifest(sourceScanStart);
+		for (SourceManifest.FileStat stat : scanSourceFiles()) {
+			CapturedSource captured = inMemoryBaselines.get(stat.path);
+			if (captured != null) {
+				manifest.put(stat, captured.getDigest());
 			}
-		} catch (IOException e) {
-			throw new UncheckedIOException(e);
 		}
+		workspace.write(stagedPath(sourceManifestFilename), manifest.encode());
 	}
 
 	//================================================================================
@@ -570,6 +711,18 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 		LoggingSingleton.setTestRunNumberAndStatus(testFileName, testName, testStatus, testCause.toString());
 	}
 
+	// Every callback's overhead goes to its histogram, and to a JFR event if one is recording
+	private static void callbackFinished(String callback, ExtensionContext ctx, long callbackStart,
+			LoggingEvents.Callback event) {
+		LoggingSingleton.recordOverhead(callback, System.nanoTime() - callbackStart);
+		if (LoggingEvents.stop(event, LoggingEvents.currentRun())) {
+			event.callback = callback;
+			event.testClass = ctx.getTestClass().map(Class::getName).orElse(null);
+			event.testName = ctx.getDisplayName();
+			event.commit();
+		}
+	}
+
 	//================================================================================
 	// Size Checks
 	//================================================================================
@@ -583,21 +736,64 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 	}
 
 	private long getRepoFilesSize() throws IOException {
-		if (cachedRepoSize == null) {
-			Path sourceFolder = Paths.get(sourceFolderName);
-			cachedRepoSize = getFilesSize(sourceFolder);
+		long repoSize = 0;
+		for (SourceManifest.FileStat stat : scanSourceFiles()) {
+			if (stat.size > 0) {
+				repoSize += stat.size;
+			}
+		}
+		return repoSize;
+	}
+
+	// Every file under src outside testSupport, stat'ed once per JVM for both the size check and capture
+	private List<SourceManifest.FileStat> scanSourceFiles() throws IOException {
+		if (cachedSourceStats == null) {
+			sourceScanStart = System.currentTimeMillis();
+			cachedSourceStats = SourceManifest.scan(Paths.get(sourceFolderName), testSupportPackageName);
 		}
-		return cachedRepoSize;
+		return cachedSourceStats;
 	}
 
-	private long getUncompressedDiffSize() throws IOException {
-		return getFilesSize(filepathResolve(tempDirectory).resolve(diffsFolderName));
+	private long getUncompressedDiffSize() {
+		return workspace.sizeUnder(diffsFolderName);
+	}
+
+	// Patches in the workspace plus, in append-only mode, those already sealed in earlier segments
+	private long getGenerationPatchesSize(String patchesFolder, DiffState state) {
+		long size = workspace.sizeUnder(patchesFolder);
+		if (state.segments != null) {
+			size += state.segments.getPatchesSize();
+		}
+		return size;
 	}
 
 	//================================================================================
 	// Timing Checks
 	//================================================================================
 
+	// Scales the budgets to this machine, measuring it again only once the cached calibration is stale
+	private void loadTimingBudgets() {
+		budgets = TimingBudgets.fixed();
+		if (LoggingSingleton.getCalibrateBudgets() && !LoggingSingleton.getSkipLogging()) {
+			int run = LoggingSingleton.getCurrentTestRunNumber();
+			TimingBudgets.Calibration cached = LoggingSingleton.getCalibration();
+			if (cached != null && !cached.isStale(run)) {
+				budgets = TimingBudgets.scaled(cached);
+			} else {
+				// A failed calibration keeps the fixed budgets for this run and is measured again next run
+				long calibrateStart = System.nanoTime();
+				initErrors.addAll(safeExecute("calibrateBudgets", () -> {
+					TimingBudgets.Calibration calibration = TimingBudgets.measure(filepathResolve(), run);
+					LoggingSingleton.setCalibration(calibration);
+					budgets = TimingBudgets.scaled(calibration);
+				}));
+				LoggingSingleton.addInitTiming("calibrateBudgets",
+						TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - calibrateStart));
+			}
+		}
+		LoggingSingleton.addTimingBudgets(budgets);
+	}
+
 	private void setUpAndCheckTiming(long time) {
 		LoggingSingleton.restartTiming();
 		checkTiming(time);
@@ -616,7 +812,7 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 		}
 
 		boolean tooManyStrikes = LoggingSingleton.tooManyStrikes();
-		if (tooManyStrikes || (timeElapsed > WAY_TOO_LONG_FACTOR*time)) {
+		if (tooManyStrikes || budgets.wayTooLong(timeElapsed, time)) {
 			LoggingSingleton.addSecondStrike();
 		}
 	}
@@ -625,21 +821,14 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 	// File Utilities
 	//================================================================================
 
-	private Path tempFilepathResolve(Path toResolve) {
-		return toResolve
-				.resolve(sourceFolderName)
-				.resolve(testSupportPackageName)
-				.resolve(tempFolderName);
-	}
-
-	private Path filepathResolve(Path toResolve) {
-		return toResolve
-				.resolve(sourceFolderName)
-				.resolve(testSupportPackageName);
+	// Workspace folder holding the files bound for run.tar
+	private static String stagedPath(String fileName) {
+		return Workspace.resolve(tempFolderName, fileName);
 	}
 
-	private Path tempFilepathResolve() {
-		return Paths.get(sourceFolderName,testSupportPackageName,tempFolderName);
+	// Workspace path of a baseline or patch: diffs/folder/name
+	private static String diffsPath(String folder, String name) {
+		return Workspace.resolve(Workspace.resolve(diffsFolderName, folder), name);
 	}
 
 	private Path filepathResolve() {
@@ -681,33 +870,34 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 		return "runs #" + first + "-" + last;
 	}
 
-	private void updatePrevRunNumber(Path testRunInfoPath, int newPrevRunNumber) throws IOException {
-		// Read, modify, write testRunInfo.json to skip interrupted run numbers
-		ObjectMapper mapper = new ObjectMapper();
-		JsonNode root = mapper.readTree(testRunInfoPath.toFile());
+	private void updatePrevRunNumber(int newPrevRunNumber) throws IOException {
+		// Read, modify, write testRunInfo, in whichever form it is stored, to skip interrupted run numbers
+		String path = testRunInfoPath();
+		JsonNode root = TestRunInfoCodec.decodeAny(workspace.read(path));
 		((com.fasterxml.jackson.databind.node.ObjectNode) root)
 			.put("prevRunNumber", newPrevRunNumber);
-		mapper.writerWithDefaultPrettyPrinter().writeValue(testRunInfoPath.toFile(), root);
+		workspace.write(path, path.equals(testRunInfoBinaryFilename)
+				? TestRunInfoCodec.encode(root) : TestRunInfoCodec.toJson(root));
 	}
 
-	private List<String> readContents(Path path) throws IOException {
-		Path file = tempDirectory.resolve(path);
-		String content  = Files.readString(file, StandardCharsets.UTF_8);  // Java 11+
+	// The binary form wins if a log somehow holds both
+	private static String testRunInfoPath() {
+		return workspace.exists(testRunInfoBinaryFilename) ? testRunInfoBinaryFilename : testRunInfoFilename;
+	}
+
+	private List<String> readContents(String path) {
+		// Split into lines; binary patches are decoded against this same split
+		return PatchCodec.baselineLines(workspace.readString(path));
+	}
 
-		// Split into lines
-		return Arrays.asList(content.split("\\r?\\n"));
+	// Replaces the workspace file if it already exists
+	private long writeContents(String toWritePath, String fileName, String toWrite) {
+		return writeBytes(toWritePath, toWrite.getBytes(StandardCharsets.UTF_8));
 	}
 
-	private long writeContents(Path toWritePath, String fileName, String toWrite) throws IOException {
-		// `StandardOpenOption.CREATE` replaces the file if it already exists.
-		Files.writeString(
-				toWritePath,
-				toWrite,
-				StandardCharsets.UTF_8,
-				StandardOpenOption.CREATE,
-				StandardOpenOption.TRUNCATE_EXISTING   // overwrite
-		);
-		return Files.size(toWritePath);
+	private long writeBytes(String toWritePath, byte[] contents) {
+		workspace.write(toWritePath, contents);
+		return contents.length;
 	}
 
 	private boolean fileLargerThan(Path path, long size) throws IOException {
@@ -717,42 +907,16 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 		return Files.size(path) >= size;
 	}
 
-	private boolean fileIsOrWasLargerThan(Path path, long size) throws IOException {
-		boolean larger = fileLargerThan(path, size) || LoggingSingleton.fileWasTooLarge(path);
-		if (larger) {
-			LoggingSingleton.addTooLargeFile(path);
-		}
-		return larger;
-	}
-
-	private long getFilesSize(Path sourceFolder) throws IOException {
-		LoggingSingleton.resetFileSizes();
-
-		Files.walkFileTree(sourceFolder, new SimpleFileVisitor<Path>() {
-			@Override
-			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-				LoggingSingleton.increaseFileSizes(Files.size(file));
-
-				return FileVisitResult.CONTINUE;
-			}
-
-			@Override
-			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-				if (dir.getFileName().toString().equals(testSupportPackageName)) {
-					return FileVisitResult.SKIP_SUBTREE;
-				}
-				return FileVisitResult.CONTINUE;
-			}
-		});
-
-		return LoggingSingleton.getFileSizes();
+	// tooLargeFiles is a snapshot of toIgnore, so this can be called from diff workers
+	private boolean fileIsOrWasLargerThan(String path, long size, Set<String> tooLargeFiles) {
+		return (workspace.exists(path) && workspace.size(path) >= size) || tooLargeFiles.contains(path);
 	}
 
 	//================================================================================
 	// String/Redacting Methods
 	//================================================================================
 
-	private String buildDiffOutputString(List<AbstractDelta<String>> deltas) {
+	static String buildDiffOutputString(List<AbstractDelta<String>> deltas) {
 		StringBuilder toRet = new StringBuilder();
 		toRet.append(deltas.size());
 		toRet.append(";\n");
@@ -788,295 +952,284 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 	}
 
 
-	private boolean isAlphanum(char c) {
-		return ('0' <= c && c <= '9') || ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z');
+	static String getDiffsTarFilename(int baselineRunNumber) {
+		return diffsPrefix+"_"+baselineRunNumber+"_"+tarSuffix;
 	}
 
-	// Maps 0–61 → ['0'–'9', 'A'–'Z', 'a'–'z']
-	private char idxToAlphanum(int idx) {
-		if (idx < 10) {
-			return (char) ('0' + idx);
-		}
-		idx -= 10;
-
-		if (idx < 26) {
-			return (char) ('A' + idx);
-		}
-		idx -= 26;
-
-		return (char) ('a' + idx);
+	// Every archive of generation N starts with this, whatever its codec
+	static String getDiffsGenerationPrefix(int baselineRunNumber) {
+		return diffsPrefix+"_"+baselineRunNumber+"_";
 	}
 
-	private char getRedactedChar(char c, int seed) {
-		int x = seed ^ c;          // combine seed and character
-		x *= 0x27D4_EB2D;           // mix 1
-		x ^= x >>> 15;              // mix 2
-		x *= 0x85EB_CA6B;           // mix 3
-		x ^= x >>> 13;              // mix 4
-
-		int span = ('9' - '0' + 1)   // 10 digits
-				+ ('Z' - 'A' + 1)   // 26 uppercase
-				+ ('z' - 'a' + 1);  // 26 lowercase
-		// span == 62
-		int idx = Math.floorMod(x, span);
-
-		return idxToAlphanum(idx);
+	static String getDiffsArchiveFilename(int baselineRunNumber, DiffsCodec codec) {
+		return getDiffsGenerationPrefix(baselineRunNumber)+codec.suffix;
 	}
 
-	private String redactString(String str, int seed) {
-		boolean sequenceStarted = false;
-		char seqChar = '$';
-		StringBuilder toRet = new StringBuilder();
-		for (int i = 0; i < str.length(); i++) {
-			char c = str.charAt(i);
-			if (isAlphanum(c)) {
-				if (!sequenceStarted) {
-					seqChar = getRedactedChar(c,seed);
-					sequenceStarted = true;
-				}
-				toRet.append(seqChar);
-			} else {
-				sequenceStarted = false;
-				seqChar = '$';
-				toRet.append(c);
-			}
-		}
-		return toRet.toString();
+	static String getDiffsSegmentsFilename(int baselineRunNumber) {
+		return getDiffsGenerationPrefix(baselineRunNumber)+tarSegmentsSuffix;
 	}
 
-	private List<String> redactStrings(List<String> strs, int seed) {
-		List<String> toRet = new ArrayList<>();
-		for (String str:strs) {
-			toRet.add(redactString(str,seed));
+	// Loaded whole-generation archive of that generation, whichever codec wrote it, or null
+	private static String findDiffsArchive(int baselineRunNumber) {
+		for (DiffsCodec codec : DiffsCodec.values()) {
+			String archive = getDiffsArchiveFilename(baselineRunNumber, codec);
+			if (workspace.exists(archive)) {
+				return archive;
+			}
 		}
-		return toRet;
-	}
-
-	static String getDiffsTarFilename() {
-		return diffsPrefix+"_"+LoggingSingleton.getPreviousBaselineRunNumber()+"_"+tarSuffix;
-	}
-
-	static String getDiffsTarZipFilename() {
-		return diffsPrefix+"_"+LoggingSingleton.getPreviousBaselineRunNumber()+"_"+tarZipSuffix;
+		return null;
 	}
 
-	static boolean isDiffsTarZipFilename(String filename) {
-		return filename.startsWith(diffsPrefix) && filename.endsWith(tarZipSuffix);
+	// Any diffs generation, whether a compressed tar (any codec) or an append-only .tar.segs
+	static boolean isDiffsArchiveFilename(String filename) {
+		return filename.startsWith(diffsPrefix)
+				&& (DiffsCodec.forFilename(filename) != null || filename.endsWith(tarSegmentsSuffix));
 	}
 
 	//================================================================================
 	// Diff/Log Update Methods
 	//================================================================================
 
-	private void unzipAndUntarDiffs() {
-		Path zipPath = filepathResolve(tempDirectory).resolve(getDiffsTarZipFilename());
-		Path diffsDir = filepathResolve(tempDirectory).resolve(diffsFolderName);
-		if (Files.notExists(zipPath) || LoggingSingleton.isRebaselining()) {
+	private void unzipAndUntarDiffs(DiffState state) {
+		String archiveName = findDiffsArchive(state.baselineRunNumber);
+		if (archiveName == null || state.rebaselining) {
 			return;
 		}
-		try (ZipInputStream zis = new ZipInputStream(Files.newInputStream(zipPath))) {
-			ZipEntry zentry = zis.getNextEntry();
-			if (zentry != null) {
-				TarArchiveInputStream tis = new TarArchiveInputStream(new BufferedInputStream(zis));
-				TarArchiveEntry entry;
-				while ((entry = tis.getNextTarEntry()) != null) {
-
-					Path outPath = diffsDir.resolve(entry.getName()).normalize();
-					if (!outPath.startsWith(diffsDir)) {
-						throw new IOException("Illegal TAR entry: " + entry.getName());
-					}
-
-					if (entry.isDirectory()) {
-						Files.createDirectories(outPath);
-					} else {
-						Files.createDirectories(outPath.getParent());
-
-						try (OutputStream o = Files.newOutputStream(outPath,
-								StandardOpenOption.CREATE,
-								StandardOpenOption.TRUNCATE_EXISTING)) {
-							IOUtils.copy(tis, o);
-						}
-
-						FileTime mtime = FileTime.fromMillis(entry.getModTime().getTime());
-						Files.setLastModifiedTime(outPath, mtime);
-					}
+		// The suffix, not the configured codec, says how an existing archive was written
+		DiffsCodec codec = DiffsCodec.forFilename(archiveName);
+		try (InputStream in = codec.decompress(new ByteArrayInputStream(workspace.read(archiveName)))) {
+			TarArchiveInputStream tis = new TarArchiveInputStream(new BufferedInputStream(in));
+			TarArchiveEntry entry;
+			while ((entry = tis.getNextTarEntry()) != null) {
+				if (entry.isDirectory()) {
+					continue;
 				}
+				// Archives written on Windows used its separator
+				String name = entry.getName().replace('\\', '/');
+				if (!Workspace.isPlainRelative(name)) {
+					throw new IOException("Illegal TAR entry: " + entry.getName());
+				}
+				workspace.write(Workspace.resolve(diffsFolderName, name),
+						IOUtils.toByteArray(tis), entry.getModTime().getTime());
 			}
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
 	}
 
-	private void writeDiffs(int testRunNumber, int seed, boolean redactDiffs) throws IOException {
-		Path tempDiffsFolder = filepathResolve(tempDirectory).resolve(diffsFolderName);
-		Path srcRoot = Paths.get(sourceFolderName);
-
+	private void writeDiffs(DiffState state) throws IOException {
 		// Iterate over captured files instead of walking filesystem
 		// This ensures we only process files that were successfully captured in memory,
 		// avoiding null pointer issues when path objects don't match between walks
-		for (Map.Entry<Path, List<String>> entry : inMemoryBaselines.entrySet()) {
-			Path file = entry.getKey();
-			List<String> capturedLines = entry.getValue();
-
-			String fileName = file.getFileName().toString();
-			String fileNameNoJava = fileName.substring(0, fileName.length() - ".java".length());
-
-			Path relative = srcRoot.relativize(file);
-			Path packagePath = (relative.getParent() == null) ? relative : relative.getParent();
-			String packageName = packagePath.toString().replace(File.separatorChar, '.');
-
-			Path baselineFilePath = tempDiffsFolder.resolve("baselines")
-					.resolve(packageName + "." + fileNameNoJava);
+		List<Path> files = new ArrayList<>(inMemoryBaselines.keySet());
+		// Baselines found too large, per file; recorded in iteration order below
+		String[] tooLargeBaselines = new String[files.size()];
 
-			if (Files.exists(baselineFilePath)) {
-				// Diff against existing baseline
-				try {
-					addDiffedFile(fileNameNoJava, packageName, capturedLines,
-							baselineFilePath, testRunNumber, seed, redactDiffs);
-				} catch (DiffException e) {
-					throw new UncheckedIOException("DiffException: " + e.getMessage(), null);
-				}
-			} else {
-				// Create new baseline using captured bytes
-				String sourceContents = inMemoryBaselineBytes.get(file);
-				if (sourceContents != null) {
-					if (redactDiffs) {
-						sourceContents = redactString(sourceContents, seed);
-					}
-					Files.createDirectories(baselineFilePath.getParent());
-					writeContents(baselineFilePath, fileName, sourceContents);
-
-					// Write creation patch
-					String toWriteName = fileNameNoJava + "_" + testRunNumber;
-					Path toWritePath = tempDiffsFolder.resolve(patchesFolderName)
-							.resolve(packageName + "." + toWriteName);
-					Files.createDirectories(toWritePath.getParent());
-					writeContents(toWritePath, toWriteName + ".java", "File created!");
+		boolean allDiffed = true;
+		if (state.parallel && files.size() > 1) {
+			allDiffed = writeDiffsInParallel(files, tooLargeBaselines, state);
+		} else {
+			for (int i = 0; i < files.size(); i++) {
+				if (state.deadline.passed()) {
+					allDiffed = false;
+					break;
 				}
+				tooLargeBaselines[i] = writeDiff(files.get(i), state);
+			}
+		}
+		if (!allDiffed) {
+			state.stoppedAtDeadline = true;  // the remaining files wait for the next session
+			return;
+		}
+
+		for (String tooLarge : tooLargeBaselines) {
+			if (tooLarge != null) {
+				state.tooLargeBaselines.add(tooLarge);
 			}
 		}
 
+		// Only reached when every file was handled, so the next run can trust these
+		Map<String, String> currentDigests = new TreeMap<>();
+		for (Path file : files) {
+			currentDigests.put(file.toString(), inMemoryBaselines.get(file).getDigest());
+		}
+		state.digests = currentDigests;
+
 		// Rebaselining logic
-		if (LoggingSingleton.isRebaselining()) {
-			LoggingSingleton.updatePreviousBaselineRunNumber();
+		if (state.rebaselining) {
+			state.baselineRunNumber = state.testRunNumber;
 		}
-		LoggingSingleton.setRebaselining(false);
-		if (getFilesSize(tempDiffsFolder.resolve(patchesFolderName)) > REBASELINE_SIZE) {
-			LoggingSingleton.setRebaselining(true);
+		String patchesFolder = Workspace.resolve(diffsFolderName, patchesFolderName);
+		long runPatchBytes = 0;
+		for (String name : workspace.list(patchesFolder)) {
+			if (name.endsWith("_" + state.testRunNumber)) {
+				runPatchBytes += workspace.size(Workspace.resolve(patchesFolder, name));
+			}
 		}
+		state.rebaselineDecision = state.rebaselinePolicy.decide(
+				workspace.sizeUnder(Workspace.resolve(diffsFolderName, baselinesFolderName)),
+				runPatchBytes,
+				getGenerationPatchesSize(patchesFolder, state),
+				state.testRunNumber - state.baselineRunNumber,
+				state.segments == null ? Double.NaN : state.segments.getCompressionRatio(true),
+				state.segments == null ? Double.NaN : state.segments.getCompressionRatio(false));
+		state.rebaselineNext = state.rebaselineDecision.rebaseline;
+		state.writeDiffsCompleted = true;
 	}
 
 
-	private void tarAndZipDiffs() throws IOException {
-		Files.createDirectories(tempFilepathResolve(tempDirectory));
+	private void tarAndZipDiffs(DiffState state) throws IOException {
+		tarDiffs(state);
 
-		tarDiffs();
+		byte[] tar = workspace.read(stagedPath(getDiffsTarFilename(state.baselineRunNumber)));
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		try (OutputStream out = state.codec.compress(archive)) {
+			out.write(tar);
+		}
+		workspace.write(stagedPath(getDiffsArchiveFilename(state.baselineRunNumber, state.codec)),
+				archive.toByteArray());
+		state.archived = true;
+	}
 
-		Path targetTar = tempFilepathResolve(tempDirectory)
-				.resolve(getDiffsTarFilename());
-		Path zipPath = tempFilepathResolve(tempDirectory)
-				.resolve(getDiffsTarZipFilename());
+	/**
+	 * Append-only counterpart of unzipAndUntarDiffs(): reads the segment footer
+	 * and extracts just the baselines. Patches from earlier runs stay compressed.
+	 * A legacy .tar.zip generation is extracted in full once, then migrated into
+	 * a segments file by appendDiffSegment().
+	 */
+	private void loadDiffSegments(DiffState state) throws IOException {
+		state.segments = null;
+		String segmentsName = getDiffsSegmentsFilename(state.baselineRunNumber);
 
-		try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zipPath,
-				StandardOpenOption.CREATE,
-				StandardOpenOption.TRUNCATE_EXISTING));
-			 InputStream in = Files.newInputStream(targetTar)) {
+		if (state.rebaselining || !workspace.exists(segmentsName)) {
+			if (findDiffsArchive(state.baselineRunNumber) != null) {
+				unzipAndUntarDiffs(state); // no-op while rebaselining
+			}
+			state.segments = new DiffSegmentArchive();
+			return;
+		}
+		SeekableInMemoryByteChannel channel = new SeekableInMemoryByteChannel(workspace.read(segmentsName));
+		DiffSegmentArchive loaded = DiffSegmentArchive.read(channel);
+		loaded.extractBaselines(channel, workspace, diffsFolderName);
+		state.segments = loaded;
+	}
 
-			ZipEntry entry = new ZipEntry(diffsFolderName);
-			zos.putNextEntry(entry);
+	/**
+	 * Appends this run's new baselines and patches to the current generation as a
+	 * single segment. Only files missing from the segment footer are written.
+	 */
+	private void appendDiffSegment(DiffState state) throws IOException {
+		// Name is taken after writeDiffs(), which may have started a new generation
+		String segmentsName = getDiffsSegmentsFilename(state.baselineRunNumber);
+		String target = stagedPath(segmentsName);
+
+		if (state.segments == null) {
+			// Footer could not be read; keep the generation exactly as it was
+			workspace.move(segmentsName, target);
+			throw new IllegalStateException("Diff segments were not loaded; skipped appending run "
+					+ state.testRunNumber);
+		}
 
-			byte[] buffer = new byte[8_192];
-			int bytesRead;
-			while ((bytesRead = in.read(buffer)) != -1) {
-				zos.write(buffer, 0, bytesRead);
-			}
+		// The loaded archive is appended to in place, so it leaves the loaded files
+		byte[] existing = workspace.read(segmentsName);
+		workspace.delete(segmentsName);
 
-			zos.closeEntry();
-		} catch (IOException e) {
-			throw new UncheckedIOException(e);
+		List<String> newNames = new ArrayList<>();
+		for (String name : workspace.list(diffsFolderName)) {   // sorted
+			if (!state.segments.contains(name)) {
+				newNames.add(name);
+			}
 		}
+		SeekableInMemoryByteChannel channel = new SeekableInMemoryByteChannel(
+				existing == null ? new byte[0] : existing);
+		state.segments.append(channel, workspace, diffsFolderName, newNames, state.codec);
+		workspace.write(target, Arrays.copyOf(channel.array(), Math.toIntExact(channel.size())));
+
+		// A migrated legacy generation must not be saved alongside its replacement
+		for (DiffsCodec codec : DiffsCodec.values()) {
+			workspace.delete(getDiffsArchiveFilename(state.baselineRunNumber, codec));
+		}
+		state.archived = true;
 	}
 
-	private void addPriorRebaslinedDiffs() {
-		try {
-			Path tempFilePath = filepathResolve(tempDirectory);
-
-			Files.walkFileTree(tempFilePath, new SimpleFileVisitor<Path>() {
-				@Override
-				public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) throws IOException {
-					String fileName = p.getFileName().toString();
-					if (isDiffsTarZipFilename(fileName) &&
-							!fileName.equals(getDiffsTarZipFilename())) { // any prior
-						Path newPriorRebaslinedDiffPath = tempFilepathResolve(tempDirectory)
-								.resolve(fileName);
-						try {
-							Files.move(p, newPriorRebaslinedDiffPath,
-									StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
-						} catch (AtomicMoveNotSupportedException e) {
-							Files.copy(p, newPriorRebaslinedDiffPath, StandardCopyOption.REPLACE_EXISTING);
-							Files.delete(p);
-						}
+	/**
+	 * Single-pass alternative to tarAndZipDiffs(): the tar is written straight into
+	 * the codec's stream, so no intermediate diffs_N_.tar is written to disk and read back.
+	 * Produces the same diffs_N_ archive layout.
+	 */
+	private void streamTarAndZipDiffs(DiffState state) throws IOException {
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		// Closing the tar stream finishes the codec's stream (for zip, the entry and central directory)
+		writeDiffsTar(state.codec.compress(archive));
+		workspace.write(stagedPath(getDiffsArchiveFilename(state.baselineRunNumber, state.codec)),
+				archive.toByteArray());
+		state.archived = true;
+	}
 
-					}
-					return FileVisitResult.CONTINUE;
-				}
-			});
-		} catch (IOException e) {
-			throw new UncheckedIOException(e);
+	private void addPriorRebaslinedDiffs() {
+		// Older archives of the current generation were superseded by this run's
+		String currentGeneration = getDiffsGenerationPrefix(LoggingSingleton.getPreviousBaselineRunNumber());
+		// unless no diff stage staged one (they were deferred), so it is kept as it was
+		boolean currentStaged = false;
+		for (String fileName : workspace.listChildren(tempFolderName)) {
+			currentStaged |= isDiffsArchiveFilename(fileName) && fileName.startsWith(currentGeneration);
+		}
+		for (String fileName : workspace.listChildren("")) {
+			if (isDiffsArchiveFilename(fileName) &&
+					(!fileName.startsWith(currentGeneration) || !currentStaged)) { // any prior
+				workspace.move(fileName, stagedPath(fileName));
+			}
 		}
 	}
 
-	private void saveTestRunInfo(ObjectMapper objectMapper, JsonNode testRunInfo) throws StreamWriteException, DatabindException, IOException {
-		File testRunInfoFile = tempFilepathResolve(tempDirectory)
-				.resolve(testRunInfoFilename).toFile();
-		objectMapper.writerWithDefaultPrettyPrinter().writeValue(testRunInfoFile, testRunInfo);
+	// Stages exactly one of testRunInfo.bin and testRunInfo.json, so switching forms migrates the log,
+	// plus the outcome journal unless testRunInfo has just absorbed it
+	private void saveTestRunInfo(ObjectMapper objectMapper, LoggingSingleton.FoldedOutcomes folded) throws IOException {
+		if (folded.journal != null) {
+			workspace.write(stagedPath(outcomeJournalFilename), folded.journal);
+		} else {
+			workspace.delete(stagedPath(outcomeJournalFilename));
+		}
+		if (LoggingSingleton.getBinaryTestRunInfo()) {
+			workspace.write(stagedPath(testRunInfoBinaryFilename), TestRunInfoCodec.encode(folded.testRunInfo));
+			workspace.delete(stagedPath(testRunInfoFilename));
+		} else {
+			workspace.write(stagedPath(testRunInfoFilename),
+					objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(folded.testRunInfo));
+			workspace.delete(stagedPath(testRunInfoBinaryFilename));
+		}
 	}
 
 	private void atomicallySaveTempFiles() {
 		Path targetTar = filepathResolve()
 				.resolve(finalTarFilename);
-		Path tempTargetTar = tempFilepathResolve(tempDirectory)
-				.resolve(finalTarFilename);
-		Path tempDirectoryPath = tempFilepathResolve(tempDirectory);
-
-		Map<String,Path> tempFiles = new TreeMap<>(new FilenameComparator());
-		tempFiles.put(errorLogFilename,null);
-		tempFiles.put(testRunInfoFilename,null); // Move to first in list increase readability
-
-		try (OutputStream fOut = Files.newOutputStream(tempTargetTar);
-			 BufferedOutputStream bOut = new BufferedOutputStream(fOut);
-			 TarArchiveOutputStream tOut = new TarArchiveOutputStream(bOut)) {
-
-			tOut.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
-
-			// Add all diff tar files
-			Files.walkFileTree(tempDirectoryPath, new SimpleFileVisitor<Path>() {
-				@Override
-				public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) throws IOException {
-					String fileName = p.getFileName().toString();
-					if (tempFiles.containsKey(fileName) || isDiffsTarZipFilename(fileName)) {
-						tempFiles.put(fileName,p);
-					}
-					return FileVisitResult.CONTINUE;
-				}
-			});
-
-			for (String fileName:tempFiles.keySet()) {
-				Path p = tempFiles.getOrDefault(fileName,null);
-				if (p != null) {
-					TarArchiveEntry entry = new TarArchiveEntry(p.toFile(), fileName);
-					tOut.putArchiveEntry(entry);
-					Files.copy(p, tOut);
-					tOut.closeArchiveEntry();
-				}
+		// Next to run.tar, so the final move never crosses filesystems
+		Path tempTargetTar = filepathResolve()
+				.resolve(finalTarFilename + ".tmp");
+
+		List<String> tempFiles = new ArrayList<>();
+		for (String fileName : workspace.listChildren(tempFolderName)) {
+			if (fileName.equals(errorLogFilename) || fileName.equals(testRunInfoFilename)
+					|| fileName.equals(testRunInfoBinaryFilename) || fileName.equals(outcomeJournalFilename)
+					|| fileName.equals(sourceManifestFilename) || isDiffsArchiveFilename(fileName)) {
+				tempFiles.add(fileName);
 			}
+		}
+		tempFiles.sort(new FilenameComparator()); // testRunInfo.json first to increase readability
 
+		// Unchanged generations are copied from run.tar unread; the index goes last
+		RunTarIndex index;
+		LoggingEvents.SaveStep event = startSaveStep();
+		try (OutputStream fOut = Files.newOutputStream(tempTargetTar)) {
+			index = workspace.writeIndexedTar(tempFolderName, tempFiles, new BufferedOutputStream(fOut));
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
+		commitSaveStep(event, "writeTar", tempFiles.size());
 
 		// Step 1: Create or extend backup with current run number
 		try {
+			event = startSaveStep();
 			int currentRunNumber = LoggingSingleton.getCurrentTestRunNumber();
 			Path existingBackup = findBackupFile();
 			Path backupPath;
@@ -1094,108 +1247,236 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 							StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
 				} catch (AtomicMoveNotSupportedException e) {
 					// Windows cross-filesystem fallback
-					Files.copy(existingBackup, backupPath, StandardCopyOption.REPLACE_EXISTING);
+					countedCopy(existingBackup, backupPath);
 					Files.delete(existingBackup);
 				}
 			} else if (Files.exists(targetTar)) {
 				// First backup - copy existing tar
 				backupPath = filepathResolve().resolve(backupTarPrefix + currentRunNumber);
-				Files.copy(targetTar, backupPath, StandardCopyOption.REPLACE_EXISTING);
+				countedCopy(targetTar, backupPath);
 			} else {
 				backupPath = null;  // No existing tar to backup
 			}
+			commitSaveStep(event, "backup", backupPath == null ? 0 : 1);
 
 			// Step 2: Write new tar (with atomic fallback for Windows)
+			event = startSaveStep();
+			int loaded = workspace.loadDeferredOutside(tempFolderName, targetTar);
+			commitSaveStep(event, "loadDeferred", loaded);
+			event = startSaveStep();
 			try {
 				Files.move(tempTargetTar, targetTar,
 						StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
 			} catch (AtomicMoveNotSupportedException e) {
 				// Windows cross-filesystem fallback
-				Files.copy(tempTargetTar, targetTar, StandardCopyOption.REPLACE_EXISTING);
+				countedCopy(tempTargetTar, targetTar);
 				Files.delete(tempTargetTar);
 			}
+			commitSaveStep(event, "replace", 1);
+			event = startSaveStep();
+			workspace.relocate(tempFolderName, targetTar, index);
+			commitSaveStep(event, "relocate", index.getMembers().size());
 
 			// Step 3: Delete backup (save complete - all prior failures now succeeded)
 			if (backupPath != null) {
+				event = startSaveStep();
 				Files.deleteIfExists(backupPath);
+				commitSaveStep(event, "deleteBackup", 1);
 			}
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
 	}
 
+	private static void countedCopy(Path source, Path target) throws IOException {
+		long size = Files.size(source);
+		Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+		LoggingEvents.addBytesRead(size);
+		LoggingEvents.addBytesWritten(size);
+	}
+
+	private static LoggingEvents.SaveStep startSaveStep() {
+		LoggingEvents.SaveStep event = new LoggingEvents.SaveStep();
+		LoggingEvents.start(event);
+		return event;
+	}
+
+	private static void commitSaveStep(LoggingEvents.SaveStep event, String step, int fileCount) {
+		if (LoggingEvents.stop(event, LoggingEvents.currentRun())) {
+			event.step = step;
+			event.fileCount = fileCount;
+			event.commit();
+		}
+	}
+
 	//================================================================================
 	// Diff Update Helpers
 	//================================================================================
 
-	private long addDiffedFile(String fileName, String packageName, List<String> capturedLines,
-							   Path sourcePath, int testRunNumber, int seed, boolean redactDiffs) throws DiffException, IOException {
-		// Create this path if it didn't exist: testSupport/diffs/patches/filename
+	/**
+	 * Diffs one captured file against its baseline, or creates the baseline if there is none.
+	 * Files whose digest matches the previous run are skipped: no patch means unchanged.
+	 * Touches only this file's baseline/patch paths, so it is safe to run concurrently.
+	 * Returns the baseline's workspace path if it is (or was) too large to diff, otherwise null.
+	 */
+	private String writeDiff(Path file, DiffState state) throws IOException {
+		int testRunNumber = state.testRunNumber;
+		int seed = state.seed;
+		boolean redactDiffs = state.redactDiffs;
+		Path srcRoot = Paths.get(sourceFolderName);
+		CapturedSource captured = inMemoryBaselines.get(file);
+
+		String fileName = file.getFileName().toString();
+		String fileNameNoJava = fileName.substring(0, fileName.length() - ".java".length());
+
+		Path relative = srcRoot.relativize(file);
+		Path packagePath = (relative.getParent() == null) ? relative : relative.getParent();
+		String packageName = packagePath.toString().replace(File.separatorChar, '.');
+
+		String baselineFilePath = diffsPath(baselinesFolderName, packageName + "." + fileNameNoJava);
+
+		if (workspace.exists(baselineFilePath)) {
+			if (captured.getDigest().equals(state.previousDigests.get(file.toString()))) {
+				return null; // untouched since the last run; its latest patch still applies
+			}
+
+			// Diff against existing baseline
+			boolean tooLarge = fileIsOrWasLargerThan(baselineFilePath, MAX_DIFFED_FILE_SIZE, state.tooLargeFiles);
+			try {
+				addDiffedFile(fileNameNoJava, packageName, captured,
+						baselineFilePath, tooLarge, testRunNumber, seed, redactDiffs, state.diffAlgorithm, state.binaryPatches);
+			} catch (DiffException e) {
+				throw new UncheckedIOException("DiffException: " + e.getMessage(), null);
+			}
+			return tooLarge ? baselineFilePath : null;
+		}
+
+		// Create new baseline using captured bytes
+		String sourceContents = redactDiffs
+				? Redactor.forSeed(seed).redactedContents(captured) : captured.getContents();
+		writeContents(baselineFilePath, fileName, sourceContents);
+
+		// Write creation patch
+		String toWriteName = fileNameNoJava + "_" + testRunNumber;
+		String toWritePath = diffsPath(patchesFolderName, packageName + "." + toWriteName);
+		writeContents(toWritePath, toWriteName + ".java", "File created!");
+		return null;
+	}
+
+	/**
+	 * Runs writeDiff() over a bounded fork/join pool. Each worker pulls the next
+	 * file index until none remain, or the flush deadline passes, and records its
+	 * busy time under closeTiming. The first failure is rethrown once every worker
+	 * has finished. Returns whether every file was diffed.
+	 */
+	private boolean writeDiffsInParallel(List<Path> files, String[] tooLargeBaselines, DiffState state) throws IOException {
+		int workers = Math.min(Math.min(MAX_DIFF_WORKERS, Runtime.getRuntime().availableProcessors()), files.size());
+		AtomicInteger nextFile = new AtomicInteger();
+		long[] workerNanos = new long[workers];
+
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int w = 0; w < workers; w++) {
+			int worker = w;
+			tasks.add(() -> {
+				long workerStart = System.nanoTime();
+				try {
+					int i;
+					while (!state.deadline.passed() && (i = nextFile.getAndIncrement()) < files.size()) {
+						tooLargeBaselines[i] = writeDiff(files.get(i), state);
+					}
+				} finally {
+					workerNanos[worker] = System.nanoTime() - workerStart;
+				}
+				return null;
+			});
+		}
+
+		// Workers inherit the caller's priority, so background diffing stays low priority
+		int priority = Thread.currentThread().getPriority();
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, workers), p -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+			thread.setPriority(priority);
+			return thread;
+		}, null, false);
+		Throwable failure = null;
+		try {
+			for (Future<Void> result : pool.invokeAll(tasks)) {
+				try {
+					result.get();
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while diffing", e);
+		} finally {
+			pool.shutdown();
+		}
+
+		for (int w = 0; w < workers; w++) {
+			state.timings.put("writeDiffsWorker" + w, TimeUnit.NANOSECONDS.toMillis(workerNanos[w]));
+		}
+
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure != null) {
+			throw new IOException(failure);
+		}
+		return nextFile.get() >= files.size();
+	}
+
+	private long addDiffedFile(String fileName, String packageName, CapturedSource captured,
+							   String sourcePath, boolean tooLarge, int testRunNumber, int seed, boolean redactDiffs,
+							   DiffAlgorithm algorithm, boolean binaryPatch) throws DiffException, IOException {
+		// Workspace path: diffs/patches/filename
 		String toWriteName = fileName + "_" + testRunNumber;
-		Path toWritePath = filepathResolve(tempDirectory)
-				.resolve(diffsFolderName)
-				.resolve(patchesFolderName)
-				.resolve(packageName + "." + toWriteName);
+		String toWritePath = diffsPath(patchesFolderName, packageName + "." + toWriteName);
 		String diffString;
-		// Size check already performed during captureSourceFilesInMemory() for capturedLines
+		// Size check already performed during captureSourceFilesInMemory() for captured
 		// Only need to check sourcePath (the baseline file in temp directory)
-		if (fileIsOrWasLargerThan(sourcePath, MAX_DIFFED_FILE_SIZE)) {
+		if (tooLarge) {
 			diffString = "File too large!";
 		} else {
-			// Read in the baseline from disk
+			// Read in the baseline from the workspace
 			List<String> original = readContents(sourcePath);
 			// Use captured lines from memory instead of reading from disk
-			List<String> revised = capturedLines;
-
-			if (redactDiffs) {
-				revised = redactStrings(revised, seed); // original should already be redacted
-			}
+			// (the original should already be redacted)
+			List<String> revised = redactDiffs
+					? Redactor.forSeed(seed).redactedLines(captured) : captured.getLines();
 
 			// Compute the diff: original -> revised
-			Patch<String> patch = DiffUtils.diff(original, revised);
+			Patch<String> patch = DiffUtils.diff(original, revised, algorithm);
 
-			// Write diffs
+			// Write diffs; an empty "0;" patch still records that the file went back to its baseline,
+			// since a missing patch now means the file is unchanged since the previous run
 			List<AbstractDelta<String>> deltas = patch.getDeltas();
-			if (deltas == null || deltas.size() == 0) {
-				return 0;
+			if (deltas == null) {
+				deltas = new ArrayList<>();
 			}
 
-			Files.createDirectories(toWritePath.getParent());
-
+			if (binaryPatch) {
+				return writeBytes(toWritePath, PatchCodec.encode(deltas, original));
+			}
 			diffString = buildDiffOutputString(deltas);
 		}
 		return writeContents(toWritePath, toWriteName + ".java", diffString);
 	}
 
-	private void tarDiffs() {
-		Path diffsDir = filepathResolve(tempDirectory)
-				.resolve(diffsFolderName);
-		Path targetTar = tempFilepathResolve(tempDirectory)
-				.resolve(getDiffsTarFilename());
-
-		try (OutputStream fOut = Files.newOutputStream(targetTar,
-				StandardOpenOption.CREATE,
-				StandardOpenOption.TRUNCATE_EXISTING);
-			 BufferedOutputStream bOut = new BufferedOutputStream(fOut);
-			 TarArchiveOutputStream tOut = new TarArchiveOutputStream(bOut)) {
-
-			tOut.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+	private void tarDiffs(DiffState state) {
+		ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		writeDiffsTar(tar);
+		workspace.write(stagedPath(getDiffsTarFilename(state.baselineRunNumber)), tar.toByteArray());
+	}
 
-			try (var walkStream = Files.walk(diffsDir)) {
-				walkStream
-					.filter(Files::isRegularFile)
-					.forEach(p -> {
-						try {
-							Path rel = diffsDir.relativize(p);
-							TarArchiveEntry entry = new TarArchiveEntry(p.toFile(), rel.toString());
-							tOut.putArchiveEntry(entry);
-							Files.copy(p, tOut);
-							tOut.closeArchiveEntry();
-						} catch (IOException ex) {
-							throw new UncheckedIOException(ex);
-						}
-					});
-			}
+	// Tars the whole diffs folder into out, closing it when done
+	private void writeDiffsTar(OutputStream out) {
+		try {
+			workspace.writeTar(diffsFolderName, workspace.list(diffsFolderName), new BufferedOutputStream(out));
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
@@ -1262,6 +1543,12 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 	// Essentially makes a last-ditch effort to log the error
 	// Now with defensive error handling - fails silently (no stderr)
 	private void logError(Throwable throwable) {
+		synchronized (sessionLock) {
+			logErrorLocked(throwable);
+		}
+	}
+
+	private void logErrorLocked(Throwable throwable) {
 		try {
 			try {
 				LoggingSingleton.accumulateTime();
@@ -1275,44 +1562,27 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 			}
 			LoggingSingleton.setLoggedInitialError();
 
-			// Ensure tempDirectory exists before trying to use it
-			if (tempDirectory == null) {
-				initTempDirectory();
+			// Ensure the workspace exists before trying to use it
+			if (workspace == null) {
+				workspace = new Workspace();
 			}
 
-			Path errorFilepath = tempFilepathResolve(tempDirectory).resolve(errorLogFilename);
-			Path filesDir = tempFilepathResolve(tempDirectory);
 			Path tarPath = filepathResolve().resolve(finalTarFilename);
 
-			// Safely try to clean up source folder
-			try {
-				if (Files.exists(tempDirectory.resolve(sourceFolderName))) {
-					Files.walk(tempDirectory.resolve(sourceFolderName))
-							.sorted(Comparator.reverseOrder())
-							.map(Path::toFile)
-							.forEach(File::delete);
-				}
-			} catch (Throwable ignored) {
-				// Silently continue
-			}
-
-			Files.createDirectories(errorFilepath.getParent());
-			Files.createDirectories(filesDir);
+			// Drop the session's files; only the saved logs and this error are kept
+			workspace.clear();
 			Files.createDirectories(tarPath.getParent());
 
-			// Safely try to untar existing logs
+			// Safely try to load existing logs
 			try {
-				untarLogs(filesDir, tarPath);
+				if (Files.exists(tarPath)) {
+					workspace.untar(tarPath, tempFolderName, LoggingExtension::isDiffsArchiveFilename);
+				}
 			} catch (Throwable t) {
 				// Silently continue - we still want to save what we can
 			}
 
-			Files.write(
-					errorFilepath,
-					List.of(message),
-					StandardOpenOption.CREATE,
-					StandardOpenOption.APPEND
-			);
+			workspace.appendLines(stagedPath(errorLogFilename), List.of(message));
 
 			atomicallySaveTempFiles();
 		} catch (Throwable T) {
@@ -1323,38 +1593,36 @@ public class LoggingExtension implements TestWatcher, BeforeAllCallback, BeforeE
 	// Logs why the logger is shutting down/skipping, then saves to tar
 	// Only logs once to avoid duplicate messages
 	private void logShutdownReason(String reason) {
+		synchronized (sessionLock) {
+			logShutdownReasonLocked(reason);
+		}
+	}
+
+	private void logShutdownReasonLocked(String reason) {
 		if (loggedShutdownReason) {
 			return;
 		}
 		loggedShutdownReason = true;
 
 		try {
-			// Ensure tempDirectory exists
-			if (tempDirectory == null) {
-				initTempDirectory();
+			// Ensure the workspace exists
+			if (workspace == null) {
+				workspace = new Workspace();
 			}
 
-			Path errorFilepath = tempFilepathResolve(tempDirectory).resolve(errorLogFilename);
-			Path filesDir = tempFilepathResolve(tempDirectory);
 			Path tarPath = filepathResolve().resolve(finalTarFilename);
 
-			Files.createDirectories(errorFilepath.getParent());
-			Files.createDirectories(filesDir);
-
-			// Try to untar existing logs to preserve history
+			// Try to load existing logs to preserve history
 			try {
-				untarLogs(filesDir, tarPath);
+				if (Files.exists(tarPath)) {
+					workspace.untar(tarPath, tempFolderName, LoggingExtension::isDiffsArchiveFilename);
+				}
 			} catch (Throwable ignored) {
 				// Continue anyway
 			}
 
 			String message = "SHUTDOWN - " + LocalTime.now() + ": " + reason + "\n";
-			Files.write(
-					errorFilepath,
-					List.of(message),
-					StandardOpenOption.CREATE,
-					StandardOpenOption.APPEND
-			);
+			workspace.appendLines(stagedPath(errorLogFilename), List.of(message));
 
 			atomicallySaveTempFiles();
 		} catch (Throwable ignored) {
@@ -1,12 +1,20 @@
 package testSupport;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -21,22 +29,50 @@ class LoggingSingleton {
 	static private String startTimestamp;
 	static private ObjectMapper objectMapper;
 	static private JsonNode testRunInfo;
-	static private String testFileName; // Works off of the assumption of one test per logger
-	static private String testFilePackageName;
+	static private RunHistory history;       // typed counters, strikes and statuses; synced into testRunInfo on flush
+	static private OutcomeJournal journal;   // outcomes not yet folded into testRunInfo; null when outcomeJournal is off
+	static private OutcomeJournal pendingJournal; // this session's outcomes on disk until run.tar is saved
+	static private volatile String testFileName; // the test file that started last; only for error messages
+	static private volatile String testFilePackageName;
 	static private boolean loggedInitialError;
-	static private long fileSizes;
-	static private Long startTime;
-	static private long accumulatedTime = 0;
+	static private volatile boolean struckOut;   // tooManyStrikes(), kept current by setStrike()
+
+	// Callbacks on parallel test threads share nothing on the hot path: timing and
+	// overhead are per thread, outcomes go through a lock-free queue
+	static private final ThreadLocal<ThreadRecorder> recorders = ThreadLocal.withInitial(LoggingSingleton::newRecorder);
+	static private final Queue<ThreadRecorder> allRecorders = new ConcurrentLinkedQueue<>();
+	static private final Queue<PendingOutcome> pendingOutcomes = new ConcurrentLinkedQueue<>();
+	static private final ReentrantLock outcomesLock = new ReentrantLock();  // held while applying pendingOutcomes
 
-	static private final String prevRunNumber = "prevRunNumber";
 	static private final String randomSeed = "randomSeed";
 	static private final String redactDiffs = "redactDiffs";
-	static private final String rebaselining = "rebaselining";
 	static private final String toIgnore = "toIgnore";
-	static private final String skipLogging = "skipLogging";
-	static private final String strikes = "strikes";
-	static private final String prevBaselineRunNumber = "prevBaselineRunNumber";
 	static private final String runTimes = "runTimes";
+	static private final String appendOnlyDiffs = "appendOnlyDiffs";
+	static private final String parallelDiffs = "parallelDiffs";
+	static private final String digests = "digests";
+	static private final String backgroundDiffs = "backgroundDiffs";
+	static private final String streamDiffsArchive = "streamDiffsArchive";
+	static private final String diffsCodec = "diffsCodec";
+	static private final String diffAlgorithm = "diffAlgorithm";
+	static private final String binaryPatches = "binaryPatches";
+	static private final String rebaselinePolicy = "rebaselinePolicy";
+	static private final String rebaselineThresholds = "rebaselineThresholds";
+	static private final String digestsSinceRun = "digestsSinceRun";
+	static private final String binaryTestRunInfo = "binaryTestRunInfo";
+	static private final String outcomeJournal = "outcomeJournal";
+	static private final String journalCompactBytes = "journalCompactBytes";
+	static private final String deadlineFlush = "deadlineFlush";
+	static private final String flushEstimates = "flushEstimates";
+	static private final String deferredFlushStages = "deferredFlushStages";
+	static private final String overheadMicros = "overheadMicros";
+	static private final String calibrateBudgets = "calibrateBudgets";
+	static private final String calibration = "calibration";
+	static private final String timingBudgets = "timingBudgets";
+
+	static private final int DEFAULT_JOURNAL_COMPACT_BYTES = 64 * 1024;
+
+	static private final double[] OVERHEAD_PERCENTILES = {50, 90, 99};
 
 	static private final int TIME_CHECK_WINDOW_SIZE = 3;
 	static private final int MAX_STRIKES = 2;
@@ -44,17 +80,57 @@ class LoggingSingleton {
     // Static instance of the singleton class
     private static LoggingSingleton instance;
 
+    // One test thread's callback timing and overhead histograms; overhead is only touched under the recorder's monitor
+    private static final class ThreadRecorder {
+    	Long startTime;
+    	long accumulatedTime = 0;
+    	final Map<String, LatencyHistogram> overhead = new LinkedHashMap<>();  // per callback and flush stage, this session
+    }
+
+    private static final class PendingOutcome {
+    	final String testFileName;
+    	final String testName;
+    	final TestStatus status;
+    	final String cause;  // null for none
+
+    	PendingOutcome(String testFileName, String testName, TestStatus status, String cause) {
+    		this.testFileName = testFileName;
+    		this.testName = testName;
+    		this.status = status;
+    		this.cause = cause;
+    	}
+    }
+
+    // What foldOutcomes() leaves to be saved; journal is null if testRunInfo holds every outcome
+    static final class FoldedOutcomes {
+    	final JsonNode testRunInfo;
+    	final byte[] journal;
+
+    	FoldedOutcomes(JsonNode testRunInfo, byte[] journal) {
+    		this.testRunInfo = testRunInfo;
+    		this.journal = journal;
+    	}
+    }
+
     //================================================================================
     // Constructor
     //================================================================================
 
-    private LoggingSingleton(File testRunInfoFile)  {
+    private LoggingSingleton(byte[] testRunInfoBytes, byte[] journalBytes, Path pendingJournalFile)  {
     	LoggingSingleton.startTimestamp = new Timestamp(System.currentTimeMillis()).toString();
     	LoggingSingleton.objectMapper = new ObjectMapper();
     	LoggingSingleton.loggedInitialError = false;
     	try {
-			LoggingSingleton.testRunInfo = objectMapper.readTree(testRunInfoFile);
-    	} catch (IOException e) {
+			LoggingSingleton.testRunInfo = TestRunInfoCodec.decodeAny(testRunInfoBytes);
+			LoggingSingleton.history = RunHistory.load((ObjectNode) LoggingSingleton.testRunInfo);
+			// Replayed outcomes stay pending; with journaling off the next save folds them in
+			OutcomeJournal replayed = (journalBytes == null) ? OutcomeJournal.create()
+					: OutcomeJournal.replay(journalBytes, LoggingSingleton.history);
+			LoggingSingleton.journal = getOutcomeJournal() ? replayed : null;
+			if (LoggingSingleton.journal != null) {
+				openPendingJournal(pendingJournalFile);
+			}
+		} catch (IOException e) {
     		throw new UncheckedIOException(e);
 		} finally {
 	    	createSeedIfNotInitialized();
@@ -68,9 +144,10 @@ class LoggingSingleton {
     // Getters
     //================================================================================
 
-    static LoggingSingleton getInstance(File testRunInfoFile) throws IOException {
+    // testRunInfoBytes may be either the JSON or the binary form; journalBytes is null if run.tar has no journal
+    static synchronized LoggingSingleton getInstance(byte[] testRunInfoBytes, byte[] journalBytes, Path pendingJournalFile) throws IOException {
         if (instance == null) {
-            instance = new LoggingSingleton(testRunInfoFile);
+            instance = new LoggingSingleton(testRunInfoBytes, journalBytes, pendingJournalFile);
         }
         return instance;
     }
@@ -82,9 +159,30 @@ class LoggingSingleton {
     static JsonNode getTestRunInfo() {
     	return testRunInfo;
     }
+
+    /**
+     * Brings the tree up to date with the typed history; called when saving.
+     * Test outcomes are folded in only once the journal reaches journalCompactBytes,
+     * and the journal then starts over; until then they are saved in the journal,
+     * so the tree and the journal must be saved together.
+     */
+    static FoldedOutcomes foldOutcomes() {
+    	mergePendingOutcomes();
+    	boolean fold = journal == null || journal.size() >= getJournalCompactBytes();
+    	history.sync(fold);
+    	if (fold && journal != null) {
+    		journal.clear();
+    	}
+    	return new FoldedOutcomes(testRunInfo,
+    			(journal == null || journal.isEmpty()) ? null : journal.toByteArray());
+    }
+
+    static RunHistory getRunHistory() {
+    	return history;
+    }
     
     static int getCurrentTestRunNumber() {
-		return getJsonNode(prevRunNumber).asInt();
+		return history.runNumber;
     }
     
     static int getSeed() {
@@ -104,53 +202,152 @@ class LoggingSingleton {
     }
     
     static boolean isRebaselining() {
-		return getJsonNode(rebaselining).asBoolean();
+		return history.rebaselining;
     }
    
-    static long getFileSizes() {
-    	return LoggingSingleton.fileSizes;
+    // Snapshot of the paths marked TOO_LARGE, safe to share with diff worker threads
+    static Set<String> getTooLargeFiles() {
+    	Set<String> tooLarge = new HashSet<>();
+    	JsonNode toIgnoreNode = getJsonNode(toIgnore);
+    	if (toIgnoreNode == null) {
+    		return tooLarge;
+    	}
+    	Iterator<Map.Entry<String, JsonNode>> iter = toIgnoreNode.fields();
+    	while (iter.hasNext()) {
+    		Map.Entry<String, JsonNode> entry = iter.next();
+    		if (FileIgnoreReasons.valueOf(entry.getValue().asText()) == FileIgnoreReasons.TOO_LARGE) {
+    			tooLarge.add(entry.getKey());
+    		}
+    	}
+    	return tooLarge;
     }
 
-    static boolean fileWasTooLarge (Path toCheck) {
-    	ObjectNode added = (ObjectNode)LoggingSingleton.testRunInfo;
+    // Previous run's content digest per source file; empty before the first digested run
+    static Map<String, String> getFileDigests() {
+    	Map<String, String> toRet = new HashMap<>();
+    	JsonNode digestsNode = getJsonNode(digests);
+    	if (digestsNode == null) {
+    		return toRet;
+    	}
+    	Iterator<Map.Entry<String, JsonNode>> iter = digestsNode.fields();
+    	while (iter.hasNext()) {
+    		Map.Entry<String, JsonNode> entry = iter.next();
+    		toRet.put(entry.getKey(), entry.getValue().asText());
+    	}
+    	return toRet;
+    }
 
-        ObjectNode toIgnoreNode = getOrCreateObjectNode(added, toIgnore);
-        JsonNode node = toIgnoreNode.get(toCheck.toString());
-        if (node == null) {
-        	return false;
-        }
-        FileIgnoreReasons ignoreReason = FileIgnoreReasons.valueOf(node.asText());
+    // Defaults to true so logs created before the flag existed migrate to segments too
+    static boolean getAppendOnlyDiffs() {
+    	JsonNode node = getJsonNode(appendOnlyDiffs);
+    	return node == null || node.asBoolean();
+    }
 
-        return ignoreReason == FileIgnoreReasons.TOO_LARGE;
+    static boolean getParallelDiffs() {
+    	JsonNode node = getJsonNode(parallelDiffs);
+    	return node != null && node.asBoolean();
     }
 
-    static boolean getSkipLogging() {
-    	return getJsonNode(skipLogging).asBoolean();
+    static boolean getBackgroundDiffs() {
+    	JsonNode node = getJsonNode(backgroundDiffs);
+    	return node != null && node.asBoolean();
     }
 
-    static long getCurrentTotalElapsedTime() { // in milliseconds
-    	return TimeUnit.NANOSECONDS.toMillis(
-    					LoggingSingleton.accumulatedTime+(System.nanoTime()-LoggingSingleton.startTime));
+    // Defaults to true; false restores the tar-to-disk-then-zip path for comparison
+    static boolean getStreamDiffsArchive() {
+    	JsonNode node = getJsonNode(streamDiffsArchive);
+    	return node == null || node.asBoolean();
     }
 
-    static boolean tooManyStrikes() {
-    	int numStrikes = 0;
-    	ObjectNode added = (ObjectNode)LoggingSingleton.testRunInfo;
+    // Codec for newly written diffs archives and segments; existing ones keep theirs
+    static DiffsCodec getDiffsCodec() {
+    	JsonNode node = getJsonNode(diffsCodec);
+    	return DiffsCodec.fromName(node == null ? null : node.asText());
+    }
 
-        ObjectNode strikesNode = getOrCreateObjectNode(added, strikes);
-        
-        Iterator<String> iter = strikesNode.fieldNames();
-        while (iter.hasNext()) {
-        	int dex = Integer.parseInt(iter.next());
-        	if (0 <= dex && dex <= TIME_CHECK_WINDOW_SIZE) {
-                boolean didStrike = strikesNode.get(Integer.toString(dex)).asBoolean();
-                if (didStrike) {
-                	numStrikes++;
-                }
-        	}
-        }
+    // Defaults to Myers, as patches were always diffed
+    static DiffAlgorithm getDiffAlgorithm() {
+    	JsonNode node = getJsonNode(diffAlgorithm);
+    	return DiffAlgorithm.fromName(node == null ? null : node.asText());
+    }
+
+    // Defaults to true; false writes new patches in the text form
+    static boolean getBinaryPatches() {
+    	JsonNode node = getJsonNode(binaryPatches);
+    	return node == null || node.asBoolean();
+    }
+
+    // Defaults to the cost model; "fixed" is the old 10 KB patch threshold
+    static RebaselinePolicy getRebaselinePolicy() {
+    	JsonNode node = getJsonNode(rebaselinePolicy);
+    	return RebaselinePolicy.fromName(node == null ? null : node.asText());
+    }
+
+    // Defaults to true; false keeps run.tar's testRunInfo as pretty-printed JSON
+    static boolean getBinaryTestRunInfo() {
+    	JsonNode node = getJsonNode(binaryTestRunInfo);
+    	return node == null || node.asBoolean();
+    }
+
+    // Defaults to true; false folds every run's outcomes straight into testRunInfo
+    static boolean getOutcomeJournal() {
+    	JsonNode node = getJsonNode(outcomeJournal);
+    	return node == null || node.asBoolean();
+    }
+
+    static int getJournalCompactBytes() {
+    	JsonNode node = getJsonNode(journalCompactBytes);
+    	return node == null ? DEFAULT_JOURNAL_COMPACT_BYTES : node.asInt();
+    }
+
+    // Defaults to true; false runs every flush stage however long it takes
+    static boolean getDeadlineFlush() {
+    	JsonNode node = getJsonNode(deadlineFlush);
+    	return node == null || node.asBoolean();
+    }
 
-    	return numStrikes >= MAX_STRIKES;
+    // Each flush stage's estimated duration in ms, see FlushDeadline
+    static Map<String, Long> getFlushEstimates() {
+    	Map<String, Long> toRet = new LinkedHashMap<>();
+    	JsonNode estimatesNode = getJsonNode(flushEstimates);
+    	if (estimatesNode == null) {
+    		return toRet;
+    	}
+    	Iterator<Map.Entry<String, JsonNode>> iter = estimatesNode.fields();
+    	while (iter.hasNext()) {
+    		Map.Entry<String, JsonNode> entry = iter.next();
+    		toRet.put(entry.getKey(), entry.getValue().asLong());
+    	}
+    	return toRet;
+    }
+
+    // Defaults to true; false keeps the fixed timing budgets, see TimingBudgets
+    static boolean getCalibrateBudgets() {
+    	JsonNode node = getJsonNode(calibrateBudgets);
+    	return node == null || node.asBoolean();
+    }
+
+    // The last calibration of this machine, or null if there is none
+    static TimingBudgets.Calibration getCalibration() {
+    	JsonNode node = getJsonNode(calibration);
+    	if (node == null || !node.path("run").isNumber()) {
+    		return null;
+    	}
+    	return new TimingBudgets.Calibration(node.path("run").asInt(), node.path("diskMBps").asDouble(),
+    			node.path("hashMBps").asDouble(), node.path("jitter").asDouble());
+    }
+
+    static boolean getSkipLogging() {
+    	return history.skipLogging;
+    }
+
+    static long getCurrentTotalElapsedTime() { // in milliseconds, on this thread
+    	ThreadRecorder recorder = recorders.get();
+    	return TimeUnit.NANOSECONDS.toMillis(recorder.accumulatedTime + (System.nanoTime() - recorder.startTime));
+    }
+
+    static boolean tooManyStrikes() {
+    	return struckOut;
     }
     
     static boolean getLoggedInitialError() {
@@ -158,7 +355,7 @@ class LoggingSingleton {
     }
 
 	static int getPreviousBaselineRunNumber () {
-		return getJsonNode(prevBaselineRunNumber).asInt();
+		return history.prevBaselineRunNumber;
     }
 
     private static JsonNode getJsonNode(String name) {
@@ -186,78 +383,187 @@ class LoggingSingleton {
     //================================================================================
 
     static void setTestRunNumberAndStatus(String testFileName, String testName, TestStatus status) {
-    	ObjectNode added = (ObjectNode)LoggingSingleton.testRunInfo;
-        
-    	int currentRunNumber = added.get(prevRunNumber).asInt(); // it's already incremented, presumably
-        
-        ObjectNode testFileNameNode = getOrCreateObjectNode(added, testFileName);
-        ObjectNode testNameNode = getOrCreateObjectNode(testFileNameNode, testName);
-        testNameNode.put(Integer.toString(currentRunNumber),status.toString());
-               
-    	LoggingSingleton.testRunInfo = ((JsonNode)(added));
+    	recordOutcome(new PendingOutcome(testFileName, testName, status, null));
     }
 
     static void setTestRunNumberAndStatus(String testFileName, String testName, TestStatus status, String cause) {
-    	ObjectNode added = (ObjectNode)LoggingSingleton.testRunInfo;
-
-    	int currentRunNumber = added.get(prevRunNumber).asInt(); // it's already incremented, presumably
+    	recordOutcome(new PendingOutcome(testFileName, testName, status, cause));
+    }
+
+    /**
+     * Queues the outcome, then applies the queue if no other thread is: the thread
+     * holding outcomesLock drains until the queue is empty, so an outcome queued
+     * while it works is applied by it instead of waiting. A test's outcomes come
+     * from its own thread, so they are applied in the order they were recorded.
+     * Outcomes drained together reach outcomes.pending in one write, made by the
+     * journal's appender thread. Single-threaded, every outcome is applied before
+     * this returns.
+     */
+    private static void recordOutcome(PendingOutcome outcome) {
+    	pendingOutcomes.add(outcome);
+    	while (!pendingOutcomes.isEmpty() && outcomesLock.tryLock()) {
+    		try {
+    			applyPendingOutcomes();
+    		} finally {
+    			outcomesLock.unlock();
+    		}
+    	}
+    }
 
-        ObjectNode testFileNameNode = getOrCreateObjectNode(added, testFileName);
-        ObjectNode testNameNode = getOrCreateObjectNode(testFileNameNode, testName);
-        testNameNode.put(Integer.toString(currentRunNumber),status.toString()+": "+cause);
+    // Waits for any thread applying outcomes, then applies the rest; before history is read for saving
+    static void mergePendingOutcomes() {
+    	outcomesLock.lock();
+    	try {
+    		applyPendingOutcomes();
+    	} finally {
+    		outcomesLock.unlock();
+    	}
+    }
 
-    	LoggingSingleton.testRunInfo = ((JsonNode)(added));
+    private static void applyPendingOutcomes() {
+    	PendingOutcome outcome;
+    	while ((outcome = pendingOutcomes.poll()) != null) {
+    		int causeId = outcome.cause == null ? RunHistory.NO_CAUSE : history.causeId(outcome.cause);
+    		history.record(history.getOrAddTest(outcome.testFileName, outcome.testName), history.runNumber, outcome.status, causeId);
+    		journalOutcome(outcome.testFileName, outcome.testName, outcome.status, outcome.cause);
+    	}
+    	if (pendingJournal != null) {
+    		pendingJournal.flushLater();  // one write for everything drained, off this thread
+    	}
     }
 
-    static void setCurrentTestFilePath(String testFileName, String packageName) {
-        LoggingSingleton.testFileName = testFileName;
-        LoggingSingleton.testFilePackageName = packageName;
+    private static void journalOutcome(String testFileName, String testName, TestStatus status, String cause) {
+    	if (journal != null) {
+    		journal.append(testFileName, testName, history.runNumber, status, cause);
+    	}
+    	if (pendingJournal != null) {
+    		pendingJournal.append(testFileName, testName, history.runNumber, status, cause);
+    	}
     }
 
-    static void resetFileSizes() {
-    	LoggingSingleton.fileSizes = 0;
+    /**
+     * Starts writing outcomes to file as they arrive. If file is left over from a
+     * session that was killed before saving, its outcomes are recovered first and,
+     * like runs recovered from a backup, their run numbers are not reused.
+     */
+    private static void openPendingJournal(Path file) throws IOException {
+    	pendingJournal = OutcomeJournal.openFile(file, history, journal);
+    	history.runNumber = Math.max(history.runNumber, pendingJournal.getMaxReplayedRun());
     }
-    
-    static void increaseFileSizes(long size) {
-    	if (size > 0) {
-    		LoggingSingleton.fileSizes += size;
+
+    // deleteFile once run.tar holds this session's outcomes
+    static void closePendingJournal(Path file, boolean deleteFile) throws IOException {
+    	mergePendingOutcomes();
+    	if (pendingJournal != null) {
+    		pendingJournal.closeFile(file, deleteFile);
+    		pendingJournal = null;
     	}
     }
 
-    static void addTooLargeFile (Path toAdd) {
+    static void setCurrentTestFilePath(String testFileName, String packageName) {
+        LoggingSingleton.testFileName = testFileName;
+        LoggingSingleton.testFilePackageName = packageName;
+    }
+
+    static void addTooLargeFile (String toAdd) {
     	ObjectNode added = (ObjectNode)LoggingSingleton.testRunInfo;
 
         ObjectNode toIgnoreNode = getOrCreateObjectNode(added, toIgnore);
-        toIgnoreNode.put(toAdd.toString(),FileIgnoreReasons.TOO_LARGE.toString());
+        toIgnoreNode.put(toAdd,FileIgnoreReasons.TOO_LARGE.toString());
         LoggingSingleton.testRunInfo = ((JsonNode)(added));
     }
     
+    // Replaces the digests and, the first time, records the run from which a missing patch means "unchanged"
+    static void setFileDigests(Map<String, String> fileDigests, int runNumber) {
+    	ObjectNode added = (ObjectNode)LoggingSingleton.testRunInfo;
+    	ObjectNode digestsNode = objectMapper.createObjectNode();
+    	for (Map.Entry<String, String> entry : fileDigests.entrySet()) {
+    		digestsNode.put(entry.getKey(), entry.getValue());
+    	}
+    	added.set(digests, digestsNode);
+    	if (!added.has(digestsSinceRun)) {
+    		added.put(digestsSinceRun, runNumber);
+    	}
+    	LoggingSingleton.testRunInfo = ((JsonNode)(added));
+    }
+
     static void setRebaselining(boolean isRebaselining) {
-    	ObjectNode incremented = (ObjectNode)LoggingSingleton.testRunInfo;
-        incremented.put(rebaselining, isRebaselining);
-    	LoggingSingleton.testRunInfo = ((JsonNode)(incremented));
+    	history.rebaselining = isRebaselining;
+    }
+
+    // The latest rebaselining decision, with the inputs and threshold it used
+    static void setRebaselineThresholds(RebaselinePolicy.Decision decision, int runNumber) {
+    	ObjectNode node = (ObjectNode) LoggingSingleton.testRunInfo;
+    	ObjectNode thresholds = objectMapper.createObjectNode();
+    	thresholds.put("run", runNumber);
+    	thresholds.put("policy", decision.policy);
+    	thresholds.put("baselineBytes", decision.baselineBytes);
+    	thresholds.put("runPatchBytes", decision.runPatchBytes);
+    	thresholds.put("generationPatchBytes", decision.generationPatchBytes);
+    	thresholds.put("generationRuns", decision.generationRuns);
+    	thresholds.put("baselineRatio", Math.round(decision.baselineRatio * 1000) / 1000.0);
+    	thresholds.put("patchRatio", Math.round(decision.patchRatio * 1000) / 1000.0);
+    	thresholds.put("patchBytesThreshold", decision.patchBytesThreshold);
+    	thresholds.put("rebaseline", decision.rebaseline);
+    	node.set(rebaselineThresholds, thresholds);
+    	LoggingSingleton.testRunInfo = (JsonNode) node;
     }
     
+    static void setFlushEstimates(Map<String, Long> estimates) {
+    	ObjectNode node = (ObjectNode) LoggingSingleton.testRunInfo;
+    	ObjectNode estimatesNode = objectMapper.createObjectNode();
+    	for (Map.Entry<String, Long> entry : estimates.entrySet()) {
+    		estimatesNode.put(entry.getKey(), entry.getValue());
+    	}
+    	node.set(flushEstimates, estimatesNode);
+    	LoggingSingleton.testRunInfo = (JsonNode) node;
+    }
+
+    // Flush stages this run left to the next session, in the order they were deferred
+    static void addDeferredFlushStages(int runNumber, List<String> stages) {
+    	ObjectNode node = (ObjectNode) LoggingSingleton.testRunInfo;
+    	ObjectNode deferredNode = getOrCreateObjectNode(node, deferredFlushStages);
+    	deferredNode.put(Integer.toString(runNumber), String.join(", ", stages));
+    	LoggingSingleton.testRunInfo = (JsonNode) node;
+    }
+
+    static void setCalibration(TimingBudgets.Calibration measured) {
+    	ObjectNode node = (ObjectNode) LoggingSingleton.testRunInfo;
+    	ObjectNode calibrationNode = objectMapper.createObjectNode();
+    	calibrationNode.put("run", measured.run);
+    	calibrationNode.put("diskMBps", measured.diskMBps);
+    	calibrationNode.put("hashMBps", measured.hashMBps);
+    	calibrationNode.put("jitter", measured.jitter);
+    	node.set(calibration, calibrationNode);
+    	LoggingSingleton.testRunInfo = (JsonNode) node;
+    }
+
+    // The budgets this run was checked against, under this run
+    static void addTimingBudgets(TimingBudgets budgets) {
+    	ObjectNode node = (ObjectNode) LoggingSingleton.testRunInfo;
+    	ObjectNode budgetsNode = objectMapper.createObjectNode();
+    	budgetsNode.put("syncMs", budgets.syncMs);
+    	budgetsNode.put("beforeAllMs", budgets.beforeAllMs);
+    	budgetsNode.put("asyncMs", budgets.asyncMs);
+    	budgetsNode.put("wayTooLongFactor", budgets.wayTooLongFactor);
+    	getOrCreateObjectNode(node, timingBudgets).set(Integer.toString(history.runNumber), budgetsNode);
+    	LoggingSingleton.testRunInfo = (JsonNode) node;
+    }
+
     static void updatePreviousBaselineRunNumber() {
-    	ObjectNode incremented = (ObjectNode)LoggingSingleton.testRunInfo;
-    	
-        // Update
-        incremented.put(prevBaselineRunNumber, LoggingSingleton.getCurrentTestRunNumber());
-    	LoggingSingleton.testRunInfo = ((JsonNode)(incremented));
+    	history.prevBaselineRunNumber = history.runNumber;
     }
     
     static void setSkipLogging(boolean skipLoggingVal) {
-    	ObjectNode incremented = (ObjectNode)LoggingSingleton.testRunInfo;
-        incremented.put(skipLogging, skipLoggingVal);
-    	LoggingSingleton.testRunInfo = ((JsonNode)(incremented));
+    	history.skipLogging = skipLoggingVal;
     }
 
     static void restartTiming() {
-    	LoggingSingleton.startTime = System.nanoTime();
+    	recorders.get().startTime = System.nanoTime();
     }
 
     static void resetAccumulatedTime() {
-    	LoggingSingleton.accumulatedTime = 0;
+    	recorders.get().accumulatedTime = 0;
     }
 
     static void setCloseDurationMs(long ms) {
@@ -278,20 +584,70 @@ class LoggingSingleton {
     	LoggingSingleton.testRunInfo = (JsonNode) node;
     }
 
+    static void addInitTiming(String operation, long ms) {
+    	recordOverhead(operation, TimeUnit.MILLISECONDS.toNanos(ms));
+    	ObjectNode node = (ObjectNode) LoggingSingleton.testRunInfo;
+    	ObjectNode timingNode = getOrCreateObjectNode(node, "initTiming");
+    	timingNode.put(operation, ms);
+    	LoggingSingleton.testRunInfo = (JsonNode) node;
+    }
+
     static void addCloseTiming(String operation, long ms) {
+    	recordOverhead(operation, TimeUnit.MILLISECONDS.toNanos(ms));
     	ObjectNode node = (ObjectNode) LoggingSingleton.testRunInfo;
     	ObjectNode timingNode = getOrCreateObjectNode(node, "closeTiming");
     	timingNode.put(operation, ms);
     	LoggingSingleton.testRunInfo = (JsonNode) node;
     }
 
+    // One call of a callback or flush stage; allocation-free once name has been recorded on this thread.
+    // The monitor is uncontended except while the flush merges, and publishes the histograms to it.
+    static void recordOverhead(String name, long nanos) {
+    	ThreadRecorder recorder = recorders.get();
+    	synchronized (recorder) {
+    		LatencyHistogram histogram = recorder.overhead.get(name);
+    		if (histogram == null) {
+    			histogram = new LatencyHistogram();
+    			recorder.overhead.put(name, histogram);
+    		}
+    		histogram.record(nanos);
+    	}
+    }
+
+    // This session's call count, percentiles and maximum per callback and flush stage, over all threads, under this run
+    static void saveOverheadPercentiles() {
+    	Map<String, LatencyHistogram> overhead = new LinkedHashMap<>();
+    	for (ThreadRecorder recorder : allRecorders) {
+    		// A late callback still recording on its thread waits for this merge
+    		synchronized (recorder) {
+    			for (Map.Entry<String, LatencyHistogram> entry : recorder.overhead.entrySet()) {
+    				overhead.computeIfAbsent(entry.getKey(), name -> new LatencyHistogram()).add(entry.getValue());
+    			}
+    		}
+    	}
+    	ObjectNode node = (ObjectNode) LoggingSingleton.testRunInfo;
+    	ObjectNode runNode = objectMapper.createObjectNode();
+    	for (Map.Entry<String, LatencyHistogram> entry : overhead.entrySet()) {
+    		LatencyHistogram histogram = entry.getValue();
+    		ObjectNode stats = runNode.putObject(entry.getKey());
+    		stats.put("count", histogram.getCount());
+    		for (double percentile : OVERHEAD_PERCENTILES) {
+    			stats.put("p" + (int) percentile, TimeUnit.NANOSECONDS.toMicros(histogram.valueAtPercentile(percentile)));
+    		}
+    		stats.put("max", TimeUnit.NANOSECONDS.toMicros(histogram.getMax()));
+    	}
+    	getOrCreateObjectNode(node, overheadMicros).set(Integer.toString(history.runNumber), runNode);
+    	LoggingSingleton.testRunInfo = (JsonNode) node;
+    }
+
     static void accumulateTime() {
-    	if (LoggingSingleton.startTime == null) {
+    	ThreadRecorder recorder = recorders.get();
+    	if (recorder.startTime == null) {
     		throw new Error("Cannot accumulate time; never started timing");
     	}
     	long now = System.nanoTime();
-    	LoggingSingleton.accumulatedTime += now - LoggingSingleton.startTime;
-    	LoggingSingleton.startTime = now; // advance startTime so getCurrentTotalElapsedTime() doesn't re-add this interval
+    	recorder.accumulatedTime += now - recorder.startTime;
+    	recorder.startTime = now; // advance startTime so getCurrentTotalElapsedTime() doesn't re-add this interval
     }
 
     static void addStrike() {
@@ -300,13 +656,7 @@ class LoggingSingleton {
     
     static void addSecondStrike() {
     	// next index
-    	int currentEntryIndex = (LoggingSingleton.getCurrentTestRunNumber()+1) % TIME_CHECK_WINDOW_SIZE;
-    	ObjectNode added = (ObjectNode)LoggingSingleton.testRunInfo;
-
-        ObjectNode strikesNode = getOrCreateObjectNode(added, strikes);
-        strikesNode.put(Integer.toString(currentEntryIndex),true);
-
-    	LoggingSingleton.testRunInfo = ((JsonNode)(added));
+    	setStrike((history.runNumber + 1) % TIME_CHECK_WINDOW_SIZE, true);
     }
 
     static void setLoggedInitialError() {
@@ -314,12 +664,7 @@ class LoggingSingleton {
     }
 
 	private static void incrementRunNumber() {
-    	ObjectNode incremented = (ObjectNode)LoggingSingleton.testRunInfo;
-        int prevRunNumberVal = incremented.get(prevRunNumber).asInt();
-
-        // Increment
-        incremented.put(prevRunNumber, prevRunNumberVal + 1);
-    	LoggingSingleton.testRunInfo = ((JsonNode)(incremented));
+    	history.runNumber++;
     }
 
     private static void createSeedIfNotInitialized () {
@@ -347,13 +692,20 @@ class LoggingSingleton {
     }
     
     private static void updateCurrentStrikeIndex(boolean struck) {
-    	int currentEntryIndex = LoggingSingleton.getCurrentTestRunNumber() % TIME_CHECK_WINDOW_SIZE;
-    	ObjectNode added = (ObjectNode)LoggingSingleton.testRunInfo;
+    	setStrike(history.runNumber % TIME_CHECK_WINDOW_SIZE, struck);
+    }
 
-        ObjectNode strikesNode = getOrCreateObjectNode(added, strikes);
-        strikesNode.put(Integer.toString(currentEntryIndex),struck);
+    // Strikes are rare, so they lock; tooManyStrikes() only reads the volatile struckOut
+    private static synchronized void setStrike(int index, boolean struck) {
+    	history.strikeSlots.set(index);
+    	history.strikes.set(index, struck);
+    	struckOut = history.strikes.get(0, TIME_CHECK_WINDOW_SIZE + 1).cardinality() >= MAX_STRIKES;
+    }
 
-    	LoggingSingleton.testRunInfo = ((JsonNode)(added));
+    private static ThreadRecorder newRecorder() {
+    	ThreadRecorder recorder = new ThreadRecorder();
+    	allRecorders.add(recorder);
+    	return recorder;
     }
 
 }
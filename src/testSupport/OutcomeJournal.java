@@ -0,0 +1,342 @@
+package testSupport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Append-only log of test outcomes (outcomes.journal), so a run adds a few bytes
+ * per test instead of rewriting every test's history in testRunInfo.
+ *
+ * Layout: magic and version, then records. An outcome is fixed-size: tag, run,
+ * test id, status, cause id. Ids are local to the journal and defined by a
+ * test or cause record before their first use, so any prefix of a journal is
+ * self-contained. Replaying stops at a torn last record, which is all a killed
+ * JVM can leave behind.
+ */
+class OutcomeJournal {
+
+	//================================================================================
+	// Properties
+	//================================================================================
+
+	private static final int MAGIC = 0x4f4a4e4c; // "OJNL"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = Integer.BYTES + 1;
+
+	private static final byte TAG_TEST = 'T';     // id, file name, test name
+	private static final byte TAG_CAUSE = 'C';    // id, text
+	private static final byte TAG_OUTCOME = 'O';  // run, test id, status ordinal, cause id
+	static final int OUTCOME_RECORD_SIZE = 1 + Integer.BYTES + Integer.BYTES + 1 + Integer.BYTES;
+
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private final Map<String, Integer> testIds = new HashMap<>();  // file + '\0' + test
+	private final Map<String, Integer> causeIds = new HashMap<>();
+	private volatile FileChannel sink;  // also receives every append, on flush(); see openFile()
+	private final ByteArrayOutputStream unflushed = new ByteArrayOutputStream();  // appended, not yet in sink; its own lock
+	private final Object sinkLock = new Object();  // held while writing to sink, so batches stay in order
+	private Thread appender;                       // flushes off the appending threads; see flushLater()
+	private volatile boolean closing;
+	private volatile UncheckedIOException appendFailure;  // first failed background flush, rethrown by closeFile()
+	private int maxReplayedRun = -1;
+
+	//================================================================================
+	// Reading
+	//================================================================================
+
+	private OutcomeJournal() {
+		writeHeader(bytes);
+	}
+
+	static OutcomeJournal create() {
+		return new OutcomeJournal();
+	}
+
+	/**
+	 * Replays every complete outcome in journalBytes into history, and returns a
+	 * journal holding those outcomes that further appends extend.
+	 */
+	static OutcomeJournal replay(byte[] journalBytes, RunHistory history) throws IOException {
+		OutcomeJournal journal = new OutcomeJournal();
+		journal.replayInto(journalBytes, history, null);
+		return journal;
+	}
+
+	/**
+	 * A journal that is also appended to file as outcomes arrive, so they survive
+	 * a killed JVM. Appends reach the file on flush(), so a batch is one write;
+	 * flushLater() leaves that write to a background appender thread.
+	 * Outcomes already in file (from a session that never saved) are replayed into
+	 * history and appended to recovered (if not null), and kept; a torn last
+	 * record is cut off.
+	 */
+	static OutcomeJournal openFile(Path file, RunHistory history, OutcomeJournal recovered) throws IOException {
+		OutcomeJournal journal = new OutcomeJournal();
+		long validLength = HEADER_SIZE;
+		if (Files.exists(file)) {
+			validLength = journal.replayInto(Files.readAllBytes(file), history, recovered);
+		}
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		channel.truncate(validLength);
+		if (validLength == HEADER_SIZE) {
+			channel.write(ByteBuffer.wrap(journal.toByteArray(), 0, HEADER_SIZE), 0);
+		}
+		channel.position(validLength);
+		journal.sink = channel;
+		journal.startAppender();
+		return journal;
+	}
+
+	// Length of the valid prefix; anything after it is a torn record or not a journal at all
+	private long replayInto(byte[] journalBytes, RunHistory history, OutcomeJournal recovered) throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(journalBytes);
+		if (journalBytes.length < HEADER_SIZE || in.getInt() != MAGIC) {
+			return HEADER_SIZE;
+		}
+		int version = in.get() & 0xff;
+		if (version != VERSION) {
+			throw new IOException("Unsupported outcome journal version " + version);
+		}
+		Map<Integer, RunHistory.TestHistory> tests = new HashMap<>();
+		Map<Integer, String> causes = new HashMap<>();
+		int validEnd = in.position();
+		try {
+			while (in.hasRemaining()) {
+				byte tag = in.get();
+				if (tag == TAG_TEST) {
+					int id = in.getInt();
+					String file = readString(in);
+					String test = readString(in);
+					tests.put(id, history.getOrAddTest(file, test));
+					testIds.put(testKey(file, test), id);
+				} else if (tag == TAG_CAUSE) {
+					int id = in.getInt();
+					String cause = readString(in);
+					causes.put(id, cause);
+					causeIds.put(cause, id);
+				} else if (tag == TAG_OUTCOME) {
+					int run = in.getInt();
+					RunHistory.TestHistory test = tests.get(in.getInt());
+					int status = in.get() & 0xff;
+					int causeId = in.getInt();
+					if (test == null || status >= TestStatus.values().length
+							|| (causeId != RunHistory.NO_CAUSE && !causes.containsKey(causeId))) {
+						break;
+					}
+					String cause = causes.get(causeId);
+					maxReplayedRun = Math.max(maxReplayedRun, run);
+					history.record(test, run, TestStatus.values()[status],
+							cause == null ? RunHistory.NO_CAUSE : history.causeId(cause));
+					if (recovered != null) {
+						recovered.append(test.testFileName, test.testName, run, TestStatus.values()[status], cause);
+					}
+				} else {
+					break;
+				}
+				validEnd = in.position();
+			}
+		} catch (BufferUnderflowException e) {
+			// torn last record; everything before validEnd is intact
+		}
+		bytes.write(journalBytes, HEADER_SIZE, validEnd - HEADER_SIZE);
+		return validEnd;
+	}
+
+	//================================================================================
+	// Writing
+	//================================================================================
+
+	void append(String testFileName, String testName, int run, TestStatus status, String cause) {
+		ByteArrayOutputStream record = new ByteArrayOutputStream(OUTCOME_RECORD_SIZE);
+		DataOutputStream out = new DataOutputStream(record);
+		try {
+			String key = testKey(testFileName, testName);
+			Integer testId = testIds.get(key);
+			if (testId == null) {
+				testId = testIds.size();
+				testIds.put(key, testId);
+				out.writeByte(TAG_TEST);
+				out.writeInt(testId);
+				writeString(out, testFileName);
+				writeString(out, testName);
+			}
+			int causeId = RunHistory.NO_CAUSE;
+			if (cause != null) {
+				Integer id = causeIds.get(cause);
+				if (id == null) {
+					id = causeIds.size();
+					causeIds.put(cause, id);
+					out.writeByte(TAG_CAUSE);
+					out.writeInt(id);
+					writeString(out, cause);
+				}
+				causeId = id;
+			}
+			out.writeByte(TAG_OUTCOME);
+			out.writeInt(run);
+			out.writeInt(testId);
+			out.writeByte(status.ordinal());
+			out.writeInt(causeId);
+
+			record.writeTo(bytes);
+			if (sink != null) {
+				synchronized (unflushed) {
+					record.writeTo(unflushed);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// Writes the outcomes appended since the last flush to the file
+	void flush() {
+		synchronized (sinkLock) {
+			if (sink == null) {
+				return;
+			}
+			ByteBuffer buffer;
+			synchronized (unflushed) {
+				if (unflushed.size() == 0) {
+					return;
+				}
+				buffer = ByteBuffer.wrap(unflushed.toByteArray());
+				unflushed.reset();
+			}
+			try {
+				while (buffer.hasRemaining()) {
+					sink.write(buffer);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			LoggingEvents.addBytesWritten(buffer.capacity());
+		}
+	}
+
+	/**
+	 * Wakes the appender to flush, so the caller never waits on the disk. Appends
+	 * made while it is writing go out in its next batch. A killed JVM loses at most
+	 * the batch in flight.
+	 */
+	void flushLater() {
+		if (appender == null) {
+			flush();
+		} else {
+			LockSupport.unpark(appender);
+		}
+	}
+
+	private void startAppender() {
+		appender = new Thread(() -> {
+			while (!closing) {
+				LockSupport.park(this);
+				try {
+					flush();
+				} catch (UncheckedIOException e) {
+					if (appendFailure == null) {
+						appendFailure = e;
+					}
+				}
+			}
+		}, "testSupport-outcomes");
+		appender.setDaemon(true);
+		appender.start();
+	}
+
+	// Highest run among the replayed outcomes, or -1
+	int getMaxReplayedRun() {
+		return maxReplayedRun;
+	}
+
+	// Bytes of the journal, header included
+	int size() {
+		return bytes.size();
+	}
+
+	boolean isEmpty() {
+		return bytes.size() == HEADER_SIZE;
+	}
+
+	byte[] toByteArray() {
+		return bytes.toByteArray();
+	}
+
+	// Called once the outcomes have been folded into testRunInfo
+	void clear() {
+		bytes.reset();
+		writeHeader(bytes);
+		testIds.clear();
+		causeIds.clear();
+	}
+
+	// Closes the file side; deleteFile once its outcomes are safely in run.tar
+	void closeFile(Path file, boolean deleteFile) throws IOException {
+		if (appender != null) {
+			closing = true;
+			LockSupport.unpark(appender);
+			try {
+				appender.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			appender = null;
+		}
+		synchronized (sinkLock) {
+			if (sink != null) {
+				flush();
+				sink.close();
+				sink = null;
+			}
+		}
+		if (appendFailure != null) {
+			throw appendFailure.getCause();
+		}
+		if (deleteFile) {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	//================================================================================
+	// Helpers
+	//================================================================================
+
+	private static void writeHeader(ByteArrayOutputStream bytes) {
+		bytes.write(MAGIC >>> 24);
+		bytes.write(MAGIC >>> 16);
+		bytes.write(MAGIC >>> 8);
+		bytes.write(MAGIC);
+		bytes.write(VERSION);
+	}
+
+	private static String testKey(String testFileName, String testName) {
+		return testFileName + '\0' + testName;
+	}
+
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(utf8.length);
+		out.write(utf8);
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		if (length < 0 || length > in.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] utf8 = new byte[length];
+		in.get(utf8);
+		return new String(utf8, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,310 @@
+package testSupport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.difflib.patch.AbstractDelta;
+import com.github.difflib.patch.DeltaType;
+
+/**
+ * Binary form of a patch against its generation's baseline, written with
+ * "binaryPatches" on. The text form repeats every source line, which the baseline
+ * already holds; here a delta is its type, varint positions and sizes, and its
+ * target lines, each either a reference to an identical baseline line (moved or
+ * re-added code) or literal UTF-8. Decoding against the same baseline gives the
+ * text buildDiffOutputString() writes, byte for byte.
+ *
+ * Layout: magic, version, varint delta count, then per delta: type byte, source
+ * position, zigzag (target - source position), source size, target size, and per
+ * target line a varint: 0 then a literal, or baseline line + 1.
+ *
+ * Decode: java -cp &lt;classpath&gt; testSupport.PatchCodec &lt;baseline&gt; &lt;patch&gt;
+ */
+class PatchCodec {
+
+	//================================================================================
+	// Properties
+	//================================================================================
+
+	// A text patch starts with a digit or "File", never with a zero byte
+	private static final byte[] MAGIC = {0, 'B', 'P'};
+	private static final int VERSION = 1;
+
+	private static final int LITERAL = 0;
+
+	//================================================================================
+	// Decode Tool
+	//================================================================================
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: PatchCodec <baseline> <patch>");
+			return;
+		}
+		byte[] patch = Files.readAllBytes(Paths.get(args[1]));
+		if (isBinary(patch)) {
+			List<String> baseline = baselineLines(new String(Files.readAllBytes(Paths.get(args[0])), StandardCharsets.UTF_8));
+			System.out.print(decode(patch, baseline));
+		} else {
+			System.out.write(patch);
+		}
+		System.out.flush();
+	}
+
+	// Lines of a baseline exactly as the diff saw them
+	static List<String> baselineLines(String contents) {
+		return Arrays.asList(contents.split("\\r?\\n"));
+	}
+
+	static boolean isBinary(byte[] patch) {
+		if (patch.length < MAGIC.length + 1) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (patch[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//================================================================================
+	// Encoding
+	//================================================================================
+
+	// deltas must come from diffing baseline against the revised file
+	static byte[] encode(List<AbstractDelta<String>> deltas, List<String> baseline) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.write(MAGIC);
+			out.writeByte(VERSION);
+			writeVarint(out, deltas.size());
+
+			Map<String, Integer> baselineIndex = null;
+			for (AbstractDelta<String> delta : deltas) {
+				int srcPos = delta.getSource().getPosition();
+				int tgtPos = delta.getTarget().getPosition();
+				List<String> targetLines = delta.getTarget().getLines();
+				out.writeByte(delta.getType().ordinal());
+				writeVarint(out, srcPos);
+				writeVarint(out, zigzag((long) tgtPos - srcPos));
+				writeVarint(out, delta.getSource().getLines().size());
+				writeVarint(out, targetLines.size());
+
+				if (!targetLines.isEmpty() && baselineIndex == null) {
+					baselineIndex = indexLines(baseline);
+				}
+				for (String line : targetLines) {
+					Integer baselineLine = baselineIndex.get(line);
+					if (baselineLine != null) {
+						writeVarint(out, baselineLine + 1L);
+					} else {
+						byte[] utf8 = line.getBytes(StandardCharsets.UTF_8);
+						writeVarint(out, LITERAL);
+						writeVarint(out, utf8.length);
+						out.write(utf8);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // in-memory streams never throw
+		}
+		return bytes.toByteArray();
+	}
+
+	// First occurrence of each line; empty lines are cheaper literal than referenced
+	private static Map<String, Integer> indexLines(List<String> baseline) {
+		Map<String, Integer> index = new HashMap<>(Math.max(16, baseline.size() * 4 / 3));
+		for (int i = 0; i < baseline.size(); i++) {
+			String line = baseline.get(i);
+			if (!line.isEmpty()) {
+				index.putIfAbsent(line, i);
+			}
+		}
+		return index;
+	}
+
+	//================================================================================
+	// Decoding
+	//================================================================================
+
+	@FunctionalInterface
+	private interface DeltaVisitor {
+		void visit(DeltaType type, int srcPos, int tgtPos, int srcSize, List<String> targetLines) throws IOException;
+	}
+
+	// The text form of a binary patch; baseline is the one it was diffed against
+	static String decode(byte[] patch, List<String> baseline) throws IOException {
+		StringBuilder text = new StringBuilder();
+		int deltaCount = visitBinary(patch, baseline, (type, srcPos, tgtPos, srcSize, targetLines) -> {
+			text.append(type).append('\n');
+			text.append(srcPos).append(',').append(tgtPos).append('\n');
+			text.append(srcSize).append(",\n");
+			for (String line : baseline.subList(srcPos, srcPos + srcSize)) {
+				text.append(line).append('\n');
+			}
+			text.append(targetLines.size()).append(",\n");
+			for (String line : targetLines) {
+				text.append(line).append('\n');
+			}
+		});
+		return deltaCount + ";\n" + text;
+	}
+
+	/**
+	 * The revised file's lines: baseline with a patch of either form applied.
+	 * Only diff patches apply; "File created!" and "File too large!" are not.
+	 */
+	static List<String> apply(byte[] patch, List<String> baseline) throws IOException {
+		List<String> revised = new ArrayList<>(baseline.size());
+		int[] consumed = {0};  // baseline lines already copied or replaced
+		DeltaVisitor applier = (type, srcPos, tgtPos, srcSize, targetLines) -> {
+			if (srcPos < consumed[0] || srcPos + srcSize > baseline.size()) {
+				throw new IOException("Patch does not match its baseline");
+			}
+			revised.addAll(baseline.subList(consumed[0], srcPos));
+			revised.addAll(targetLines);
+			consumed[0] = srcPos + srcSize;
+		};
+		if (isBinary(patch)) {
+			visitBinary(patch, baseline, applier);
+		} else {
+			visitText(new String(patch, StandardCharsets.UTF_8), applier);
+		}
+		revised.addAll(baseline.subList(consumed[0], baseline.size()));
+		return revised;
+	}
+
+	// Visits every delta of a binary patch; returns the delta count
+	private static int visitBinary(byte[] patch, List<String> baseline, DeltaVisitor visitor) throws IOException {
+		if (!isBinary(patch)) {
+			throw new IOException("Not a binary patch");
+		}
+		InputStream in = new ByteArrayInputStream(patch, MAGIC.length, patch.length - MAGIC.length);
+		int version = in.read();
+		if (version != VERSION) {
+			throw new IOException("Unsupported binary patch version " + version);
+		}
+
+		int deltaCount = readInt(in);
+		for (int d = 0; d < deltaCount; d++) {
+			int type = in.read();
+			if (type < 0 || type >= DeltaType.values().length) {
+				throw new IOException("Malformed binary patch delta type " + type);
+			}
+			int srcPos = readInt(in);
+			int tgtPos = (int) (srcPos + unzigzag(readVarint(in)));
+			int srcSize = readInt(in);
+			int tgtSize = readInt(in);
+			if (srcPos + srcSize > baseline.size()) {
+				throw new IOException("Binary patch does not match its baseline");
+			}
+
+			List<String> targetLines = new ArrayList<>(tgtSize);
+			for (int i = 0; i < tgtSize; i++) {
+				long ref = readVarint(in);
+				if (ref == LITERAL) {
+					byte[] utf8 = new byte[readInt(in)];
+					if (in.read(utf8, 0, utf8.length) != utf8.length) {
+						throw new EOFException("Truncated binary patch");
+					}
+					targetLines.add(new String(utf8, StandardCharsets.UTF_8));
+				} else if (ref <= baseline.size()) {
+					targetLines.add(baseline.get((int) ref - 1));
+				} else {
+					throw new IOException("Binary patch does not match its baseline");
+				}
+			}
+			visitor.visit(DeltaType.values()[type], srcPos, tgtPos, srcSize, targetLines);
+		}
+		return deltaCount;
+	}
+
+	// Visits every delta of a text patch, as buildDiffOutputString() lays it out
+	private static void visitText(String patch, DeltaVisitor visitor) throws IOException {
+		String[] lines = patch.split("\n", -1);
+		try {
+			int deltaCount = Integer.parseInt(countField(lines[0], ';'));
+			int line = 1;
+			for (int d = 0; d < deltaCount; d++) {
+				DeltaType type = DeltaType.valueOf(lines[line++]);
+				String[] positions = lines[line++].split(",");
+				int srcPos = Integer.parseInt(positions[0]);
+				int tgtPos = Integer.parseInt(positions[1]);
+				int srcSize = Integer.parseInt(countField(lines[line++], ','));
+				line += srcSize;
+				int tgtSize = Integer.parseInt(countField(lines[line++], ','));
+				if (line + tgtSize > lines.length) {
+					throw new IOException("Truncated text patch");
+				}
+				visitor.visit(type, srcPos, tgtPos, srcSize, Arrays.asList(lines).subList(line, line + tgtSize));
+				line += tgtSize;
+			}
+		} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Malformed text patch", e);
+		}
+	}
+
+	private static String countField(String line, char terminator) throws IOException {
+		if (line.isEmpty() || line.charAt(line.length() - 1) != terminator) {
+			throw new IOException("Malformed text patch count: " + line);
+		}
+		return line.substring(0, line.length() - 1);
+	}
+
+	//================================================================================
+	// Helpers
+	//================================================================================
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void writeVarint(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static int readInt(InputStream in) throws IOException {
+		long value = readVarint(in);
+		if (value > Integer.MAX_VALUE) {
+			throw new IOException("Malformed binary patch varint");
+		}
+		return (int) value;
+	}
+
+	private static long readVarint(InputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException("Truncated binary patch");
+			}
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed binary patch varint");
+	}
+}
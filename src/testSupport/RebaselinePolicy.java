@@ -0,0 +1,104 @@
+package testSupport;
+
+/**
+ * Decides when a diffs generation should end, chosen by "rebaselinePolicy" in
+ * testRunInfo.json. "fixed" is the old rule: rebaseline once the generation's
+ * patches pass 10 KB. "cost" (the default) compares what keeping the generation
+ * costs from here on against what a new baseline set costs once.
+ *
+ * Every run of a generation writes patches against the same baselines, so a run
+ * that writes P patch bytes now will keep writing at least that much, while a
+ * new generation writes B baseline bytes once and then patches that start from
+ * zero. Drift after either choice grows alike, so over the next H runs the
+ * difference is
+ *
+ *   keep - rebaseline = H * (patchRatio + REPLAY + FLUSH) * P - (baselineRatio + FLUSH) * B
+ *
+ * where the ratios are the generation's measured compressed/uncompressed bytes
+ * (archive growth), REPLAY weighs decoding a patch when a run is rebuilt and
+ * FLUSH weighs tarring and compressing a byte. H is the number of runs the
+ * generation has lasted so far: the best guess of how long it would go on.
+ */
+final class RebaselinePolicy {
+
+	//================================================================================
+	// Properties
+	//================================================================================
+
+	static final long FIXED_PATCHES_SIZE = 10L * 1024;
+
+	static final double REPLAY_WEIGHT = 0.25;      // per uncompressed patch byte read back
+	static final double FLUSH_WEIGHT = 0.1;        // per uncompressed byte a flush compresses
+	static final double DEFAULT_PATCH_RATIO = 0.5;     // until the generation has a patches-only segment
+	static final double DEFAULT_BASELINE_RATIO = 0.3;  // until it has a segment with baselines
+
+	final boolean costModel;
+
+	private RebaselinePolicy(boolean costModel) {
+		this.costModel = costModel;
+	}
+
+	static RebaselinePolicy fromName(String name) {
+		return new RebaselinePolicy(!"fixed".equalsIgnoreCase(name));
+	}
+
+	String getName() {
+		return costModel ? "cost" : "fixed";
+	}
+
+	/**
+	 * The inputs and the outcome, as recorded in testRunInfo's rebaselineThresholds.
+	 * patchBytesThreshold is the smallest runPatchBytes that would have rebaselined
+	 * (for "fixed", the generation patch size it compares against).
+	 */
+	static final class Decision {
+		final String policy;
+		final long baselineBytes;
+		final long runPatchBytes;
+		final long generationPatchBytes;
+		final int generationRuns;
+		final double baselineRatio;
+		final double patchRatio;
+		final long patchBytesThreshold;
+		final boolean rebaseline;
+
+		private Decision(String policy, long baselineBytes, long runPatchBytes, long generationPatchBytes,
+				int generationRuns, double baselineRatio, double patchRatio, long patchBytesThreshold, boolean rebaseline) {
+			this.policy = policy;
+			this.baselineBytes = baselineBytes;
+			this.runPatchBytes = runPatchBytes;
+			this.generationPatchBytes = generationPatchBytes;
+			this.generationRuns = generationRuns;
+			this.baselineRatio = baselineRatio;
+			this.patchRatio = patchRatio;
+			this.patchBytesThreshold = patchBytesThreshold;
+			this.rebaseline = rebaseline;
+		}
+	}
+
+	//================================================================================
+	// Deciding
+	//================================================================================
+
+	/**
+	 * baselineBytes and the patch sizes are uncompressed; generationRuns counts
+	 * the runs since the generation started, this one included. A ratio that is
+	 * not known yet (NaN) falls back to the defaults above.
+	 */
+	Decision decide(long baselineBytes, long runPatchBytes, long generationPatchBytes, int generationRuns,
+			double baselineRatio, double patchRatio) {
+		double measuredBaselineRatio = Double.isNaN(baselineRatio) ? DEFAULT_BASELINE_RATIO : baselineRatio;
+		double measuredPatchRatio = Double.isNaN(patchRatio) ? DEFAULT_PATCH_RATIO : patchRatio;
+		if (!costModel) {
+			return new Decision(getName(), baselineBytes, runPatchBytes, generationPatchBytes, generationRuns,
+					measuredBaselineRatio, measuredPatchRatio, FIXED_PATCHES_SIZE, generationPatchBytes > FIXED_PATCHES_SIZE);
+		}
+
+		int horizon = Math.max(1, generationRuns);
+		double rebaselineCost = (measuredBaselineRatio + FLUSH_WEIGHT) * baselineBytes;
+		double keepCostPerByte = horizon * (measuredPatchRatio + REPLAY_WEIGHT + FLUSH_WEIGHT);
+		long threshold = (long) Math.ceil(rebaselineCost / keepCostPerByte);
+		return new Decision(getName(), baselineBytes, runPatchBytes, generationPatchBytes, generationRuns,
+				measuredBaselineRatio, measuredPatchRatio, threshold, runPatchBytes > 0 && runPatchBytes >= threshold);
+	}
+}
@@ -0,0 +1,218 @@
+package testSupport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Seeded redaction: every run of ASCII letters and digits becomes a run of the
+ * same length repeating one alphanumeric, chosen by hashing the run's first
+ * character with the seed; everything else is kept. The hash only ever sees 62
+ * distinct characters, so it is evaluated once per seed into a 128-entry table
+ * and redaction is a single table-lookup pass over a char[] (or over UTF-8 bytes,
+ * whose non-ASCII bytes are never alphanumeric either).
+ *
+ * Redacted captures are cached by content, so identical files are redacted once.
+ */
+final class Redactor {
+
+	//================================================================================
+	// Properties
+	//================================================================================
+
+	private static final int ALPHANUM_COUNT = 10 + 26 + 26;
+	private static final int CACHE_MAX_CHARS = 4 * 1024 * 1024; // least recently used entries go first
+
+	private static final Map<Integer, Redactor> bySeed = new ConcurrentHashMap<>();
+
+	private final char[] table = new char[128]; // redacted char for each alphanumeric, 0 for the rest
+	private final LinkedHashMap<String, CachedSource> cache = new LinkedHashMap<>(16, 0.75f, true);
+	private long cachedChars = 0;
+
+	private static final class CachedSource {
+		final CapturedSource source;
+		List<String> lines;
+		String contents;
+
+		CachedSource(CapturedSource source) {
+			this.source = source;
+		}
+
+		long chars() {
+			long total = contents == null ? 0 : contents.length();
+			if (lines != null) {
+				for (String line : lines) {
+					total += line.length();
+				}
+			}
+			return total;
+		}
+	}
+
+	private Redactor(int seed) {
+		for (char c = 0; c < table.length; c++) {
+			if (isAlphanum(c)) {
+				table[c] = hashToAlphanum(c, seed);
+			}
+		}
+	}
+
+	static Redactor forSeed(int seed) {
+		return bySeed.computeIfAbsent(seed, Redactor::new);
+	}
+
+	//================================================================================
+	// Bulk Redaction
+	//================================================================================
+
+	// Redacts chars[from, to) in place
+	void redact(char[] chars, int from, int to) {
+		char runChar = 0;
+		for (int i = from; i < to; i++) {
+			char c = chars[i];
+			char redacted = c < 128 ? table[c] : 0;
+			if (redacted == 0) {
+				runChar = 0;
+			} else {
+				if (runChar == 0) {
+					runChar = redacted;
+				}
+				chars[i] = runChar;
+			}
+		}
+	}
+
+	// Redacts UTF-8 bytes[from, to) in place; same result as redacting the decoded text
+	void redact(byte[] bytes, int from, int to) {
+		byte runByte = 0;
+		for (int i = from; i < to; i++) {
+			byte b = bytes[i];
+			byte redacted = b >= 0 ? (byte) table[b] : 0;
+			if (redacted == 0) {
+				runByte = 0;
+			} else {
+				if (runByte == 0) {
+					runByte = redacted;
+				}
+				bytes[i] = runByte;
+			}
+		}
+	}
+
+	String redact(String str) {
+		char[] chars = str.toCharArray();
+		redact(chars, 0, chars.length);
+		return new String(chars);
+	}
+
+	// Lines are independent runs, exactly as if each were redacted on its own
+	List<String> redactLines(List<String> lines) {
+		List<String> redacted = new ArrayList<>(lines.size());
+		char[] scratch = new char[0];
+		for (String line : lines) {
+			int length = line.length();
+			if (scratch.length < length) {
+				scratch = new char[Math.max(length, scratch.length * 2)];
+			}
+			line.getChars(0, length, scratch, 0);
+			redact(scratch, 0, length);
+			redacted.add(new String(scratch, 0, length));
+		}
+		return redacted;
+	}
+
+	//================================================================================
+	// Captured Sources
+	//================================================================================
+
+	// Redacted CapturedSource.getContents(), computed once per distinct content
+	String redactedContents(CapturedSource source) {
+		CachedSource cached = cached(source);
+		synchronized (cached) {
+			if (cached.contents == null) {
+				cached.contents = redact(source.getContents());
+				charsAdded(cached.contents.length());
+			}
+			return cached.contents;
+		}
+	}
+
+	// Redacted CapturedSource.getLines(), computed once per distinct content
+	List<String> redactedLines(CapturedSource source) throws IOException {
+		CachedSource cached = cached(source);
+		synchronized (cached) {
+			if (cached.lines == null) {
+				cached.lines = redactLines(source.getLines());
+				long chars = 0;
+				for (String line : cached.lines) {
+					chars += line.length();
+				}
+				charsAdded(chars);
+			}
+			return cached.lines;
+		}
+	}
+
+	// Keyed by digest, but a hit must also have the same bytes, so a CRC collision is only a miss
+	private CachedSource cached(CapturedSource source) {
+		synchronized (cache) {
+			CachedSource cached = cache.get(source.getDigest());
+			if (cached == null || !cached.source.hasSameContents(source)) {
+				if (cached != null) {
+					cachedChars -= cached.chars();
+				}
+				cached = new CachedSource(source);
+				cache.put(source.getDigest(), cached);
+			}
+			return cached;
+		}
+	}
+
+	private void charsAdded(long chars) {
+		synchronized (cache) {
+			cachedChars += chars;
+			Iterator<Map.Entry<String, CachedSource>> oldest = cache.entrySet().iterator();
+			while (cachedChars > CACHE_MAX_CHARS && cache.size() > 1 && oldest.hasNext()) {
+				cachedChars -= oldest.next().getValue().chars();
+				oldest.remove();
+			}
+		}
+	}
+
+	//================================================================================
+	// The Hash
+	//================================================================================
+
+	static boolean isAlphanum(char c) {
+		return ('0' <= c && c <= '9') || ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z');
+	}
+
+	// The original per-character mix; only used to fill the table
+	private static char hashToAlphanum(char c, int seed) {
+		int x = seed ^ c;          // combine seed and character
+		x *= 0x27D4_EB2D;           // mix 1
+		x ^= x >>> 15;              // mix 2
+		x *= 0x85EB_CA6B;           // mix 3
+		x ^= x >>> 13;              // mix 4
+		return idxToAlphanum(Math.floorMod(x, ALPHANUM_COUNT));
+	}
+
+	// Maps 0–61 → ['0'–'9', 'A'–'Z', 'a'–'z']
+	private static char idxToAlphanum(int idx) {
+		if (idx < 10) {
+			return (char) ('0' + idx);
+		}
+		idx -= 10;
+
+		if (idx < 26) {
+			return (char) ('A' + idx);
+		}
+		idx -= 26;
+
+		return (char) ('a' + idx);
+	}
+}
@@ -0,0 +1,510 @@
+package testSupport;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Reads a run.tar back: testRunInfo (journal folded in) and every student file
+ * at every run, rebuilt from its generation's baseline and patches.
+ *
+ * Opening indexes each package.Class by generation and patch run without
+ * decompressing any patch. A file at run K is its generation's baseline with
+ * the latest patch at or before K applied; patches are against the baseline,
+ * not chained, so that is at most one apply. Each rebuilt file is kept as a
+ * checkpoint for every later run sharing its patch, and a segment is
+ * decompressed once for all the patches in it, so sweeping every run of every
+ * class costs about one pass over the archive.
+ *
+ * Opened on a run.tar file with an index, only testRunInfo, the journal and
+ * the index are read up front; each segment is then read at its offset, CRC
+ * checked and decompressed when first needed.
+ *
+ * Usage: java -cp &lt;classpath&gt; testSupport.RunArchiveReader &lt;run.tar&gt; [package.Class run]
+ */
+final class RunArchiveReader {
+
+	//================================================================================
+	// Properties
+	//================================================================================
+
+	static final String fileCreatedPatch = "File created!";
+	static final String fileTooLargePatch = "File too large!";
+
+	private static final long CACHE_MAX_BYTES = 64L * 1024 * 1024; // entries and checkpoints, least recently used go first
+
+	private final JsonNode testRunInfo;
+	private final TreeMap<Integer, Generation> generations = new TreeMap<>();  // by baseline run number
+	private final Map<String, ClassIndex> classes = new TreeMap<>();
+	private final LinkedHashMap<String, Object> cache = new LinkedHashMap<>(16, 0.75f, true);  // see cachePut()
+	private final Map<String, Long> cacheSizes = new HashMap<>();
+	private long cachedBytes = 0;
+
+	// One diffs_N_ archive; entries are decompressed on demand
+	private static final class Generation {
+		final int baselineRun;
+		final String archiveName;
+		final byte[] archive;               // null when read through the index
+		final DiffSegmentArchive segments;  // null for a whole-generation archive
+		final Path runTar;                  // with the index: segments are read from here
+		final RunTarIndex.Member member;
+
+		Generation(int baselineRun, String archiveName, byte[] archive, DiffSegmentArchive segments) {
+			this(baselineRun, archiveName, archive, segments, null, null);
+		}
+
+		Generation(int baselineRun, String archiveName, byte[] archive, DiffSegmentArchive segments,
+				Path runTar, RunTarIndex.Member member) {
+			this.baselineRun = baselineRun;
+			this.archiveName = archiveName;
+			this.archive = archive;
+			this.segments = segments;
+			this.runTar = runTar;
+			this.member = member;
+		}
+	}
+
+	// Per generation, the runs with a patch for the class
+	private static final class ClassIndex {
+		final Map<Integer, TreeMap<Integer, String>> patchesByGeneration = new HashMap<>();
+	}
+
+	/**
+	 * The class at a run. lines is null when the file was too large to diff;
+	 * patchRun is the run whose patch it came from (later runs without a patch
+	 * left the file unchanged).
+	 */
+	static final class Snapshot {
+		final String className;
+		final int run;
+		final int baselineRun;
+		final int patchRun;
+		final List<String> lines;
+
+		private Snapshot(String className, int run, int baselineRun, int patchRun, List<String> lines) {
+			this.className = className;
+			this.run = run;
+			this.baselineRun = baselineRun;
+			this.patchRun = patchRun;
+			this.lines = lines;
+		}
+
+		boolean isTooLarge() {
+			return lines == null;
+		}
+
+		// Lines joined with '\n'; line endings and a trailing newline are not kept by the log
+		String getContents() {
+			return lines == null ? null : String.join("\n", lines);
+		}
+	}
+
+	@FunctionalInterface
+	interface SnapshotVisitor {
+		void visit(Snapshot snapshot) throws IOException;
+	}
+
+	//================================================================================
+	// Opening
+	//================================================================================
+
+	private RunArchiveReader(JsonNode testRunInfo) {
+		this.testRunInfo = testRunInfo;
+	}
+
+	static RunArchiveReader open(Path runTar) throws IOException {
+		try (FileChannel channel = FileChannel.open(runTar, StandardOpenOption.READ)) {
+			RunTarIndex index = RunTarIndex.read(channel);
+			if (index != null) {
+				return openIndexed(runTar, channel, index);
+			}
+		}
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(runTar))) {
+			return open(in);
+		}
+	}
+
+	// Reads only what the index points at; whole-generation archives are still read whole
+	private static RunArchiveReader openIndexed(Path runTar, FileChannel channel, RunTarIndex index) throws IOException {
+		byte[] testRunInfoBytes = null;
+		byte[] journal = null;
+		for (RunTarIndex.Member member : index.getMembers()) {
+			if (member.name.equals(LoggingExtension.testRunInfoBinaryFilename) || member.name.equals(LoggingExtension.testRunInfoFilename)) {
+				testRunInfoBytes = readMember(channel, member);
+			} else if (member.name.equals(LoggingExtension.outcomeJournalFilename)) {
+				journal = readMember(channel, member);
+			}
+		}
+		if (testRunInfoBytes == null) {
+			throw new IOException("No testRunInfo in run.tar");
+		}
+
+		RunArchiveReader reader = new RunArchiveReader(TestRunInfoCodec.fold(testRunInfoBytes, journal));
+		for (RunTarIndex.Member member : index.getMembers()) {
+			if (!LoggingExtension.isDiffsArchiveFilename(member.name)) {
+				continue;
+			}
+			if (member.name.endsWith(LoggingExtension.tarSegmentsSuffix) && !member.segments.isEmpty()) {
+				reader.addGeneration(member.name, null, DiffSegmentArchive.fromIndex(member), runTar, member);
+			} else {
+				reader.addGeneration(member.name, readMember(channel, member));
+			}
+		}
+		return reader;
+	}
+
+	private static byte[] readMember(FileChannel channel, RunTarIndex.Member member) throws IOException {
+		byte[] contents = RunTarIndex.readRegion(channel, member.offset, member.size);
+		if (RunTarIndex.crc(contents, 0, contents.length) != member.crc) {
+			throw new IOException(member.name + " does not match the run.tar index");
+		}
+		return contents;
+	}
+
+	static RunArchiveReader open(InputStream runTar) throws IOException {
+		byte[] testRunInfoBytes = null;
+		byte[] journal = null;
+		Map<String, byte[]> archives = new LinkedHashMap<>();
+		TarArchiveInputStream tIn = new TarArchiveInputStream(runTar);
+		TarArchiveEntry entry;
+		while ((entry = tIn.getNextTarEntry()) != null) {
+			String name = entry.getName();
+			if (name.equals(LoggingExtension.testRunInfoBinaryFilename) || name.equals(LoggingExtension.testRunInfoFilename)) {
+				testRunInfoBytes = IOUtils.toByteArray(tIn);
+			} else if (name.equals(LoggingExtension.outcomeJournalFilename)) {
+				journal = IOUtils.toByteArray(tIn);
+			} else if (LoggingExtension.isDiffsArchiveFilename(name)) {
+				archives.put(name, IOUtils.toByteArray(tIn));
+			}
+		}
+		if (testRunInfoBytes == null) {
+			throw new IOException("No testRunInfo in run.tar");
+		}
+
+		RunArchiveReader reader = new RunArchiveReader(TestRunInfoCodec.fold(testRunInfoBytes, journal));
+		for (Map.Entry<String, byte[]> archive : archives.entrySet()) {
+			reader.addGeneration(archive.getKey(), archive.getValue());
+		}
+		return reader;
+	}
+
+	private void addGeneration(String archiveName, byte[] archive) throws IOException {
+		DiffSegmentArchive segments = archiveName.endsWith(LoggingExtension.tarSegmentsSuffix)
+				? DiffSegmentArchive.read(new SeekableInMemoryByteChannel(archive)) : null;
+		addGeneration(archiveName, archive, segments, null, null);
+	}
+
+	private void addGeneration(String archiveName, byte[] archive, DiffSegmentArchive segments,
+			Path runTar, RunTarIndex.Member member) throws IOException {
+		int baselineRun = generationOf(archiveName);
+		if (baselineRun < 0 || generations.containsKey(baselineRun)) {
+			return; // not a generation name, or a leftover of one already read in another form
+		}
+		Generation generation;
+		Iterable<String> names;
+		if (segments != null) {
+			generation = new Generation(baselineRun, archiveName, archive, segments, runTar, member);
+			names = segments.getEntryNames();
+		} else {
+			generation = new Generation(baselineRun, archiveName, archive, null);
+			Map<String, byte[]> entries = loadWholeArchive(generation);
+			cacheEntries(generation, 0, entries); // read whole to list it; kept while the cache allows
+			names = entries.keySet();
+		}
+		generations.put(baselineRun, generation);
+
+		for (String name : names) {
+			if (!name.startsWith(DiffSegmentArchive.patchesPrefix)) {
+				continue;
+			}
+			String patchName = name.substring(DiffSegmentArchive.patchesPrefix.length());
+			int separator = patchName.lastIndexOf('_');
+			int run = separator < 0 ? -1 : RunHistory.runNumber(patchName.substring(separator + 1));
+			if (run < 0) {
+				continue;
+			}
+			classes.computeIfAbsent(patchName.substring(0, separator), k -> new ClassIndex())
+					.patchesByGeneration.computeIfAbsent(baselineRun, k -> new TreeMap<>())
+					.put(run, name);
+		}
+	}
+
+	// "diffs_N_..." as N, or -1
+	private static int generationOf(String archiveName) {
+		String prefix = LoggingExtension.diffsPrefix + "_";
+		int end = archiveName.indexOf('_', prefix.length());
+		return end < 0 ? -1 : RunHistory.runNumber(archiveName.substring(prefix.length(), end));
+	}
+
+	//================================================================================
+	// Queries
+	//================================================================================
+
+	JsonNode getTestRunInfo() {
+		return testRunInfo;
+	}
+
+	// The latest run the log has recorded
+	int getLastRun() {
+		int last = testRunInfo.path(RunHistory.prevRunNumberKey).asInt();
+		for (ClassIndex index : classes.values()) {
+			for (TreeMap<Integer, String> patches : index.patchesByGeneration.values()) {
+				last = Math.max(last, patches.lastKey());
+			}
+		}
+		return last;
+	}
+
+	// Every package.Class with at least one patch, sorted
+	List<String> getClassNames() {
+		return new ArrayList<>(classes.keySet());
+	}
+
+	// Runs with a patch for the class, ascending
+	List<Integer> getPatchRuns(String className) {
+		ClassIndex index = classes.get(className);
+		if (index == null) {
+			return Collections.emptyList();
+		}
+		List<Integer> runs = new ArrayList<>();
+		for (TreeMap<Integer, String> patches : index.patchesByGeneration.values()) {
+			runs.addAll(patches.keySet());
+		}
+		Collections.sort(runs);
+		return runs;
+	}
+
+	/**
+	 * The class as it was at run, or null if the log has no record of it by then
+	 * in that run's generation.
+	 */
+	Snapshot getSnapshot(String className, int run) throws IOException {
+		ClassIndex index = classes.get(className);
+		Map.Entry<Integer, Generation> generation = generations.floorEntry(run);
+		if (index == null || generation == null) {
+			return null;
+		}
+		TreeMap<Integer, String> patches = index.patchesByGeneration.get(generation.getKey());
+		Map.Entry<Integer, String> patch = patches == null ? null : patches.floorEntry(run);
+		if (patch == null) {
+			return null;
+		}
+		return new Snapshot(className, run, generation.getKey(), patch.getKey(),
+				materialize(generation.getValue(), className, patch.getValue()));
+	}
+
+	/**
+	 * Visits the class at every run from its first patch to getLastRun(), in
+	 * order. A run without a patch reuses the checkpoint of the one before.
+	 */
+	void forEachSnapshot(String className, SnapshotVisitor visitor) throws IOException {
+		List<Integer> patchRuns = getPatchRuns(className);
+		if (patchRuns.isEmpty()) {
+			return;
+		}
+		int lastRun = getLastRun();
+		for (int run = patchRuns.get(0); run <= lastRun; run++) {
+			Snapshot snapshot = getSnapshot(className, run);
+			if (snapshot != null) {
+				visitor.visit(snapshot);
+			}
+		}
+	}
+
+	//================================================================================
+	// Rebuilding
+	//================================================================================
+
+	// Baseline with the patch applied, kept as a checkpoint
+	@SuppressWarnings("unchecked")
+	private List<String> materialize(Generation generation, String className, String patchName) throws IOException {
+		String key = "checkpoint:" + generation.archiveName + ":" + patchName;
+		if (cache.containsKey(key)) {
+			return (List<String>) cache.get(key);
+		}
+
+		byte[] patch = entry(generation, patchName);
+		if (patch == null) {
+			throw new IOException("Missing " + patchName + " in " + generation.archiveName);
+		}
+		List<String> lines;
+		if (isMarker(patch, fileTooLargePatch)) {
+			lines = null;
+		} else {
+			List<String> baseline = baselineLines(generation, className);
+			lines = isMarker(patch, fileCreatedPatch) ? baseline : Collections.unmodifiableList(PatchCodec.apply(patch, baseline));
+		}
+		cachePut(key, lines, lines == null ? 0 : charsOf(lines) * 2);
+		return lines;
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<String> baselineLines(Generation generation, String className) throws IOException {
+		String key = "baseline:" + generation.archiveName + ":" + className;
+		if (cache.containsKey(key)) {
+			return (List<String>) cache.get(key);
+		}
+		byte[] baseline = entry(generation, DiffSegmentArchive.baselinesPrefix + className);
+		if (baseline == null) {
+			throw new IOException("Missing baseline of " + className + " in " + generation.archiveName);
+		}
+		List<String> lines = Collections.unmodifiableList(
+				PatchCodec.baselineLines(new String(baseline, StandardCharsets.UTF_8)));
+		cachePut(key, lines, charsOf(lines) * 2);
+		return lines;
+	}
+
+	// An entry's bytes; its whole segment (or archive) is decompressed into the cache at once
+	@SuppressWarnings("unchecked")
+	private byte[] entry(Generation generation, String name) throws IOException {
+		int segment = generation.segments == null ? 0 : generation.segments.getSegmentOf(name);
+		if (segment < 0) {
+			return null;
+		}
+		Map<String, byte[]> entries = (Map<String, byte[]>) cache.get(segmentKey(generation, segment));
+		if (entries == null) {
+			if (generation.segments == null) {
+				entries = loadWholeArchive(generation);
+			} else if (generation.member != null) {
+				entries = loadIndexedSegment(generation, segment);
+			} else {
+				Map<String, byte[]> loaded = new HashMap<>();
+				generation.segments.visitSegment(new SeekableInMemoryByteChannel(generation.archive), segment,
+						(tarEntry, contents) -> loaded.put(tarEntry.getName(), IOUtils.toByteArray(contents)));
+				entries = loaded;
+			}
+			cacheEntries(generation, segment, entries);
+		}
+		return entries.get(name);
+	}
+
+	private static String segmentKey(Generation generation, int segment) {
+		return "segment:" + generation.archiveName + ":" + segment;
+	}
+
+	private void cacheEntries(Generation generation, int segment, Map<String, byte[]> entries) {
+		long bytes = 0;
+		for (byte[] contents : entries.values()) {
+			bytes += contents.length;
+		}
+		cachePut(segmentKey(generation, segment), entries, bytes);
+	}
+
+	// One segment read straight from run.tar at its indexed offset
+	private static Map<String, byte[]> loadIndexedSegment(Generation generation, int segment) throws IOException {
+		RunTarIndex.Segment bounds = generation.member.segments.get(segment);
+		byte[] compressed;
+		try (FileChannel channel = FileChannel.open(generation.runTar, StandardOpenOption.READ)) {
+			compressed = RunTarIndex.readRegion(channel, generation.member.offset + bounds.offset, bounds.length);
+		}
+		if (RunTarIndex.crc(compressed, 0, compressed.length) != bounds.crc) {
+			throw new IOException("Segment " + segment + " of " + generation.archiveName + " does not match the run.tar index");
+		}
+		Map<String, byte[]> loaded = new HashMap<>();
+		DiffSegmentArchive.visitSegment(new ByteArrayInputStream(compressed), bounds.codec,
+				(tarEntry, contents) -> {
+					byte[] bytes = IOUtils.toByteArray(contents);
+					DiffSegmentArchive.Entry indexed = generation.member.entries.get(tarEntry.getName());
+					if (indexed != null && RunTarIndex.crc(bytes, 0, bytes.length) != indexed.crc) {
+						throw new IOException(tarEntry.getName() + " in " + generation.archiveName + " does not match the run.tar index");
+					}
+					loaded.put(tarEntry.getName(), bytes);
+				});
+		return loaded;
+	}
+
+	// Every entry of a whole-generation archive, whichever codec its suffix names
+	private static Map<String, byte[]> loadWholeArchive(Generation generation) throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		DiffsCodec codec = DiffsCodec.forFilename(generation.archiveName);
+		try (InputStream in = codec.decompress(new ByteArrayInputStream(generation.archive))) {
+			TarArchiveInputStream tis = new TarArchiveInputStream(new BufferedInputStream(in));
+			TarArchiveEntry entry;
+			while ((entry = tis.getNextTarEntry()) != null) {
+				if (!entry.isDirectory()) {
+					// Archives written on Windows used its separator
+					entries.put(entry.getName().replace('\\', '/'), IOUtils.toByteArray(tis));
+				}
+			}
+		}
+		return entries;
+	}
+
+	//================================================================================
+	// Cache
+	//================================================================================
+
+	private void cachePut(String key, Object value, long bytes) {
+		cache.put(key, value);
+		cacheSizes.put(key, bytes);
+		cachedBytes += bytes;
+		Iterator<Map.Entry<String, Object>> oldest = cache.entrySet().iterator();
+		while (cachedBytes > CACHE_MAX_BYTES && cache.size() > 1 && oldest.hasNext()) {
+			String evicted = oldest.next().getKey();
+			oldest.remove();
+			cachedBytes -= cacheSizes.remove(evicted);
+		}
+	}
+
+	private static boolean isMarker(byte[] patch, String marker) {
+		return patch.length == marker.length() && new String(patch, StandardCharsets.UTF_8).equals(marker);
+	}
+
+	private static long charsOf(List<String> lines) {
+		long chars = 0;
+		for (String line : lines) {
+			chars += line.length();
+		}
+		return chars;
+	}
+
+	//================================================================================
+	// Command Line
+	//================================================================================
+
+	// Lists classes and patch runs, or prints one class at one run
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage: RunArchiveReader <run.tar> [package.Class run]");
+			return;
+		}
+		RunArchiveReader reader = open(Paths.get(args[0]));
+		if (args.length < 3) {
+			System.out.println("last run: " + reader.getLastRun());
+			for (String className : reader.getClassNames()) {
+				System.out.println(className + " " + reader.getPatchRuns(className));
+			}
+			return;
+		}
+		Snapshot snapshot = reader.getSnapshot(args[1], Integer.parseInt(args[2]));
+		if (snapshot == null) {
+			System.out.println("No record of " + args[1] + " by run " + args[2]);
+		} else if (snapshot.isTooLarge()) {
+			System.out.println(args[1] + " was too large to diff at run " + args[2]);
+		} else {
+			System.out.println(snapshot.getContents());
+		}
+	}
+}
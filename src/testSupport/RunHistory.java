@@ -0,0 +1,347 @@
+package testSupport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Typed view of the parts of testRunInfo that per-test callbacks touch: the run
+ * counters, the strike window and every test's status history. Loaded from the
+ * tree once, mutated with plain field and array writes, and written back into the
+ * tree only by sync(), so a callback never looks up or parses JSON fields.
+ *
+ * Test histories are a status byte per run (0 for no entry, else ordinal + 1)
+ * plus, for failures with a cause, an index into a shared cause dictionary.
+ */
+class RunHistory {
+
+	//================================================================================
+	// Properties
+	//================================================================================
+
+	static final String prevRunNumberKey = "prevRunNumber";
+	static final String prevBaselineRunNumberKey = "prevBaselineRunNumber";
+	static final String rebaseliningKey = "rebaselining";
+	static final String skipLoggingKey = "skipLogging";
+	static final String strikesKey = "strikes";
+
+	static final int NO_CAUSE = -1;
+	private static final String causeSeparator = ": "; // as setTestRunNumberAndStatus has always written it
+
+	int runNumber;
+	int prevBaselineRunNumber;
+	boolean rebaselining;
+	volatile boolean skipLogging;  // read by every callback, on any test thread
+	final BitSet strikes = new BitSet();      // struck window slots
+	final BitSet strikeSlots = new BitSet();  // slots that have an entry at all
+
+	private final ObjectNode tree;
+	private final Map<String, Map<String, TestHistory>> tests = new LinkedHashMap<>();
+	private final List<TestHistory> testsById = new ArrayList<>();
+	private final Set<TestHistory> dirty = new LinkedHashSet<>();
+	private final List<String> causes = new ArrayList<>();
+	private final Map<String, Integer> causeIds = new HashMap<>();
+
+	static final class TestHistory {
+		final int id;
+		final String testFileName;
+		final String testName;
+		private ObjectNode node;              // its runs object in the tree
+		private byte[] statuses = new byte[0];
+		private int[] causes;                 // allocated on the first cause
+		private int dirtyFrom = Integer.MAX_VALUE;
+		private int dirtyTo = -1;
+
+		private TestHistory(int id, String testFileName, String testName, ObjectNode node) {
+			this.id = id;
+			this.testFileName = testFileName;
+			this.testName = testName;
+			this.node = node;
+		}
+
+		// Status at run, or null if the test has no entry for it
+		TestStatus getStatus(int run) {
+			if (run < 0 || run >= statuses.length || statuses[run] == 0) {
+				return null;
+			}
+			return TestStatus.values()[statuses[run] - 1];
+		}
+
+		int getCauseId(int run) {
+			return (causes == null || run < 0 || run >= causes.length) ? NO_CAUSE : causes[run];
+		}
+
+		// Highest run with an entry plus one
+		int getRunLimit() {
+			return statuses.length;
+		}
+
+		private void set(int run, TestStatus status, int causeId) {
+			if (run >= statuses.length) {
+				int length = Math.max(run + 1, statuses.length * 2);
+				statuses = Arrays.copyOf(statuses, length);
+				if (causes != null) {
+					causes = grownCauses(causes, length);
+				}
+			}
+			statuses[run] = (byte) (status.ordinal() + 1);
+			if (causeId != NO_CAUSE && causes == null) {
+				causes = grownCauses(new int[0], statuses.length);
+			}
+			if (causes != null) {
+				causes[run] = causeId;
+			}
+		}
+
+		private static int[] grownCauses(int[] causes, int length) {
+			int oldLength = causes.length;
+			int[] grown = Arrays.copyOf(causes, length);
+			Arrays.fill(grown, oldLength, length, NO_CAUSE);
+			return grown;
+		}
+	}
+
+	//================================================================================
+	// Loading
+	//================================================================================
+
+	private RunHistory(ObjectNode tree) {
+		this.tree = tree;
+	}
+
+	/**
+	 * Reads the typed fields out of tree, which stays the owner of everything else.
+	 * A top-level object counts as a test file when every child is an object of
+	 * run-number keys to status strings; anything else is left untouched.
+	 */
+	static RunHistory load(ObjectNode tree) {
+		RunHistory history = new RunHistory(tree);
+		history.runNumber = tree.path(prevRunNumberKey).asInt();
+		history.prevBaselineRunNumber = tree.path(prevBaselineRunNumberKey).asInt();
+		history.rebaselining = tree.path(rebaseliningKey).asBoolean();
+		history.skipLogging = tree.path(skipLoggingKey).asBoolean();
+
+		JsonNode strikesNode = tree.get(strikesKey);
+		if (strikesNode != null) {
+			Iterator<Map.Entry<String, JsonNode>> iter = strikesNode.fields();
+			while (iter.hasNext()) {
+				Map.Entry<String, JsonNode> entry = iter.next();
+				int slot = runNumber(entry.getKey());
+				if (slot >= 0) {
+					history.strikeSlots.set(slot);
+					history.strikes.set(slot, entry.getValue().asBoolean());
+				}
+			}
+		}
+
+		Iterator<Map.Entry<String, JsonNode>> files = tree.fields();
+		while (files.hasNext()) {
+			Map.Entry<String, JsonNode> file = files.next();
+			if (isTestFileNode(file.getValue())) {
+				Iterator<Map.Entry<String, JsonNode>> testIter = file.getValue().fields();
+				while (testIter.hasNext()) {
+					Map.Entry<String, JsonNode> test = testIter.next();
+					history.loadTest(file.getKey(), test.getKey(), (ObjectNode) test.getValue());
+				}
+			}
+		}
+		return history;
+	}
+
+	private void loadTest(String testFileName, String testName, ObjectNode runs) {
+		TestHistory test = addTest(testFileName, testName, runs);
+		Iterator<Map.Entry<String, JsonNode>> iter = runs.fields();
+		while (iter.hasNext()) {
+			Map.Entry<String, JsonNode> entry = iter.next();
+			String text = entry.getValue().textValue();
+			TestStatus status = parseStatus(text);
+			int causeId = NO_CAUSE;
+			if (text.length() > status.name().length()) {
+				causeId = causeId(text.substring(status.name().length() + causeSeparator.length()));
+			}
+			test.set(runNumber(entry.getKey()), status, causeId);
+		}
+	}
+
+	private static boolean isTestFileNode(JsonNode node) {
+		if (!node.isObject() || node.size() == 0) {
+			return false;
+		}
+		for (JsonNode test : node) {
+			if (!test.isObject()) {
+				return false;
+			}
+			Iterator<Map.Entry<String, JsonNode>> iter = test.fields();
+			while (iter.hasNext()) {
+				Map.Entry<String, JsonNode> entry = iter.next();
+				if (runNumber(entry.getKey()) < 0 || !entry.getValue().isTextual()
+						|| parseStatus(entry.getValue().textValue()) == null) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	//================================================================================
+	// Tests
+	//================================================================================
+
+	TestHistory getTest(String testFileName, String testName) {
+		Map<String, TestHistory> fileTests = tests.get(testFileName);
+		return fileTests == null ? null : fileTests.get(testName);
+	}
+
+	TestHistory getTest(int id) {
+		return testsById.get(id);
+	}
+
+	List<TestHistory> getTests() {
+		return testsById;
+	}
+
+	// The test's history, created (with its tree node) the first time it is seen
+	TestHistory getOrAddTest(String testFileName, String testName) {
+		TestHistory test = getTest(testFileName, testName);
+		if (test == null) {
+			test = addTest(testFileName, testName, null);
+			testNode(test); // now, so new tests land in the tree in the order they first ran
+		}
+		return test;
+	}
+
+	void record(TestHistory test, int run, TestStatus status, int causeId) {
+		test.set(run, status, causeId);
+		test.dirtyFrom = Math.min(test.dirtyFrom, run);
+		test.dirtyTo = Math.max(test.dirtyTo, run);
+		dirty.add(test);
+	}
+
+	int causeId(String cause) {
+		Integer id = causeIds.get(cause);
+		if (id == null) {
+			id = causes.size();
+			causeIds.put(cause, id);
+			causes.add(cause);
+		}
+		return id;
+	}
+
+	String getCause(int causeId) {
+		return causeId == NO_CAUSE ? null : causes.get(causeId);
+	}
+
+	// The text a status entry has in testRunInfo
+	String statusText(TestStatus status, int causeId) {
+		return causeId == NO_CAUSE ? status.toString() : status.toString() + causeSeparator + causes.get(causeId);
+	}
+
+	private TestHistory addTest(String testFileName, String testName, ObjectNode node) {
+		TestHistory test = new TestHistory(testsById.size(), testFileName, testName, node);
+		tests.computeIfAbsent(testFileName, k -> new LinkedHashMap<>()).put(testName, test);
+		testsById.add(test);
+		return test;
+	}
+
+	//================================================================================
+	// Writing back
+	//================================================================================
+
+	/**
+	 * Writes the typed fields back into the tree. Only runs recorded since the
+	 * last sync are written, so the cost is the number of tests in this run, not
+	 * the length of their histories. Existing keys keep their position. Without
+	 * includeTests the statuses stay pending, as they do while an OutcomeJournal
+	 * holds them.
+	 */
+	void sync(boolean includeTests) {
+		tree.put(prevRunNumberKey, runNumber);
+		// Fields a log never had stay absent until they differ from their default
+		if (tree.has(prevBaselineRunNumberKey) || prevBaselineRunNumber != 0) {
+			tree.put(prevBaselineRunNumberKey, prevBaselineRunNumber);
+		}
+		if (tree.has(rebaseliningKey) || rebaselining) {
+			tree.put(rebaseliningKey, rebaselining);
+		}
+		if (tree.has(skipLoggingKey) || skipLogging) {
+			tree.put(skipLoggingKey, skipLogging);
+		}
+
+		ObjectNode strikesNode = tree.has(strikesKey) ? (ObjectNode) tree.get(strikesKey) : tree.putObject(strikesKey);
+		for (int slot = strikeSlots.nextSetBit(0); slot >= 0; slot = strikeSlots.nextSetBit(slot + 1)) {
+			strikesNode.put(Integer.toString(slot), strikes.get(slot));
+		}
+
+		if (!includeTests) {
+			return;
+		}
+		for (TestHistory test : dirty) {
+			ObjectNode runs = testNode(test);
+			for (int run = test.dirtyFrom; run <= test.dirtyTo; run++) {
+				TestStatus status = test.getStatus(run);
+				if (status != null) {
+					runs.put(Integer.toString(run), statusText(status, test.getCauseId(run)));
+				}
+			}
+			test.dirtyFrom = Integer.MAX_VALUE;
+			test.dirtyTo = -1;
+		}
+		dirty.clear();
+	}
+
+	private ObjectNode testNode(TestHistory test) {
+		if (test.node == null) {
+			JsonNode fileNode = tree.get(test.testFileName);
+			ObjectNode file = (fileNode instanceof ObjectNode) ? (ObjectNode) fileNode : tree.putObject(test.testFileName);
+			JsonNode runs = file.get(test.testName);
+			test.node = (runs instanceof ObjectNode) ? (ObjectNode) runs : file.putObject(test.testName);
+		}
+		return test.node;
+	}
+
+	//================================================================================
+	// Helpers
+	//================================================================================
+
+	// "STATUS" or "STATUS: cause" as a status, or null if text is neither
+	static TestStatus parseStatus(String text) {
+		if (text == null) {
+			return null;
+		}
+		for (TestStatus status : TestStatus.values()) {
+			String name = status.name();
+			if (text.startsWith(name) && (text.length() == name.length()
+					|| text.startsWith(causeSeparator, name.length()))) {
+				return status;
+			}
+		}
+		return null;
+	}
+
+	// The key as a canonical non-negative int, or -1
+	static int runNumber(String key) {
+		int length = key.length();
+		if (length == 0 || length > 9 || (length > 1 && key.charAt(0) == '0')) {
+			return -1;
+		}
+		int value = 0;
+		for (int i = 0; i < length; i++) {
+			char c = key.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+}
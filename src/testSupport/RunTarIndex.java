@@ -0,0 +1,266 @@
+package testSupport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+
+/**
+ * Last member of run.tar (run.index): where every other member's bytes sit in
+ * the file, with their size and CRC32, and for each .tar.segs generation the
+ * same for each segment plus every entry's segment, size and CRC32. Each
+ * segment is compressed on its own, so a reader can seek to one, check it and
+ * decompress it without touching the rest of the archive, and a save can copy
+ * an unchanged generation across without loading it.
+ *
+ * run.tar is written with 512-byte tar blocks so every member's data offset is
+ * known as it is written. The index data ends with its length, its CRC32 and a
+ * magic number, so it is found by skipping the end-of-archive zeros backwards.
+ */
+final class RunTarIndex {
+
+	//================================================================================
+	// Properties
+	//================================================================================
+
+	static final String entryName = "run.index";
+	static final int TAR_BLOCK_SIZE = 512;  // one tar record: nothing is held back, so offsets are exact
+
+	private static final int MAGIC = 0x52544958;  // "RTIX"
+	private static final int VERSION = 1;
+	private static final int TRAILER_SIZE = Integer.BYTES * 3;  // length, CRC32, magic
+	private static final int MAX_TAIL_SCAN = 20 * 1024 + TRAILER_SIZE;  // end-of-archive zeros of any block size
+
+	private final Map<String, Member> members = new LinkedHashMap<>();
+
+	/**
+	 * One tar member. Segment offsets are relative to the member's data; a member
+	 * that is not a readable .tar.segs has no segments or entries.
+	 */
+	static final class Member {
+		final String name;
+		final long offset;
+		final long size;
+		final long crc;
+		final List<Segment> segments;
+		final Map<String, DiffSegmentArchive.Entry> entries;  // by name
+
+		private Member(String name, long offset, long size, long crc, List<Segment> segments,
+				Map<String, DiffSegmentArchive.Entry> entries) {
+			this.name = name;
+			this.offset = offset;
+			this.size = size;
+			this.crc = crc;
+			this.segments = segments;
+			this.entries = entries;
+		}
+
+		// The same bytes written again under name at offset
+		Member movedTo(String newName, long newOffset) {
+			return new Member(newName, newOffset, size, crc, segments, entries);
+		}
+	}
+
+	// A segment of a member's footer, plus the CRC32 of its compressed bytes
+	static final class Segment {
+		final long offset;
+		final long length;
+		final DiffsCodec codec;
+		final long crc;
+
+		Segment(long offset, long length, DiffsCodec codec, long crc) {
+			this.offset = offset;
+			this.length = length;
+			this.codec = codec;
+			this.crc = crc;
+		}
+	}
+
+	//================================================================================
+	// Building
+	//================================================================================
+
+	void add(Member member) {
+		members.put(member.name, member);
+	}
+
+	Member getMember(String name) {
+		return members.get(name);
+	}
+
+	Collection<Member> getMembers() {
+		return Collections.unmodifiableCollection(members.values());
+	}
+
+	// Describes a member about to be written at offset, reading a segments footer if it has one
+	static Member describe(String name, long offset, byte[] contents) {
+		List<Segment> segments = new ArrayList<>();
+		Map<String, DiffSegmentArchive.Entry> entries = new LinkedHashMap<>();
+		if (name.endsWith(LoggingExtension.tarSegmentsSuffix)) {
+			try {
+				DiffSegmentArchive archive = DiffSegmentArchive.read(new SeekableInMemoryByteChannel(contents));
+				for (DiffSegmentArchive.Segment segment : archive.getSegments()) {
+					segments.add(new Segment(segment.offset, segment.length, segment.codec,
+							crc(contents, (int) segment.offset, (int) segment.length)));
+				}
+				entries.putAll(archive.getEntries());
+			} catch (IOException e) {
+				return opaque(name, offset, contents.length, crc(contents, 0, contents.length));  // unreadable footer
+			}
+		}
+		return new Member(name, offset, contents.length, crc(contents, 0, contents.length), segments, entries);
+	}
+
+	// A member whose contents are not described further; readers read it whole
+	static Member opaque(String name, long offset, long size, long crc) {
+		return new Member(name, offset, size, crc, new ArrayList<>(), new LinkedHashMap<>());
+	}
+
+	static long crc(byte[] bytes, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, offset, length);
+		return crc.getValue();
+	}
+
+	//================================================================================
+	// Encoding
+	//================================================================================
+
+	byte[] encode() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(VERSION);
+			out.writeInt(members.size());
+			for (Member member : members.values()) {
+				out.writeUTF(member.name);
+				out.writeLong(member.offset);
+				out.writeLong(member.size);
+				out.writeLong(member.crc);
+				out.writeInt(member.segments.size());
+				for (Segment segment : member.segments) {
+					out.writeLong(segment.offset);
+					out.writeLong(segment.length);
+					out.writeByte(segment.codec.ordinal());
+					out.writeLong(segment.crc);
+				}
+				out.writeInt(member.entries.size());
+				for (Map.Entry<String, DiffSegmentArchive.Entry> entry : member.entries.entrySet()) {
+					out.writeUTF(entry.getKey());
+					out.writeInt(entry.getValue().segment);
+					out.writeLong(entry.getValue().size);
+					out.writeLong(entry.getValue().crc);
+				}
+			}
+			int length = out.size();
+			out.writeInt(length);
+			out.writeInt((int) crc(bytes.toByteArray(), 0, length));
+			out.writeInt(MAGIC);
+			out.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // in-memory streams never throw
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * The index at the end of the tar in channel, or null if it has none (written
+	 * before the index existed) or it does not check out.
+	 */
+	static RunTarIndex read(FileChannel channel) throws IOException {
+		long fileSize = channel.size();
+		int tailSize = (int) Math.min(fileSize, MAX_TAIL_SCAN);
+		ByteBuffer tail = ByteBuffer.allocate(tailSize);
+		readFully(channel, tail, fileSize - tailSize);
+		byte[] tailBytes = tail.array();
+
+		// The magic's last byte is not zero, so the index ends at the last non-zero byte
+		int end = tailSize;
+		while (end > 0 && tailBytes[end - 1] == 0) {
+			end--;
+		}
+		if (end < TRAILER_SIZE) {
+			return null;
+		}
+		ByteBuffer trailer = ByteBuffer.wrap(tailBytes, end - TRAILER_SIZE, TRAILER_SIZE);
+		int length = trailer.getInt();
+		int expectedCrc = trailer.getInt();
+		long indexStart = fileSize - tailSize + end - TRAILER_SIZE - length;
+		if (trailer.getInt() != MAGIC || length < 0 || indexStart < 0 || indexStart % TAR_BLOCK_SIZE != 0) {
+			return null;
+		}
+
+		ByteBuffer body = ByteBuffer.allocate(length);
+		readFully(channel, body, indexStart);
+		if ((int) crc(body.array(), 0, length) != expectedCrc) {
+			return null;
+		}
+		return decode(body.array());
+	}
+
+	private static RunTarIndex decode(byte[] body) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+		int version = in.readInt();
+		if (version != VERSION) {
+			return null;  // a newer index; the tar itself is still readable without it
+		}
+		RunTarIndex index = new RunTarIndex();
+		int memberCount = in.readInt();
+		for (int m = 0; m < memberCount; m++) {
+			String name = in.readUTF();
+			long offset = in.readLong();
+			long size = in.readLong();
+			long crc = in.readLong();
+			int segmentCount = in.readInt();
+			List<Segment> segments = new ArrayList<>(segmentCount);
+			for (int s = 0; s < segmentCount; s++) {
+				long segmentOffset = in.readLong();
+				long length = in.readLong();
+				int codec = in.readUnsignedByte();
+				if (codec >= DiffsCodec.values().length) {
+					throw new IOException("Unknown diff segment codec " + codec + " in " + entryName);
+				}
+				segments.add(new Segment(segmentOffset, length, DiffsCodec.values()[codec], in.readLong()));
+			}
+			int entryCount = in.readInt();
+			Map<String, DiffSegmentArchive.Entry> entries = new LinkedHashMap<>();
+			for (int e = 0; e < entryCount; e++) {
+				String entryName = in.readUTF();
+				entries.put(entryName, new DiffSegmentArchive.Entry(in.readInt(), in.readLong(), in.readLong()));
+			}
+			index.add(new Member(name, offset, size, crc, segments, entries));
+		}
+		return index;
+	}
+
+	//================================================================================
+	// Helpers
+	//================================================================================
+
+	// Reads length bytes at position; IOException if the file is shorter
+	static byte[] readRegion(FileChannel channel, long position, long length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(length));
+		readFully(channel, buffer, position);
+		return buffer.array();
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of " + LoggingExtension.finalTarFilename);
+			}
+		}
+	}
+}
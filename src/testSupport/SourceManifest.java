@@ -0,0 +1,204 @@
+package testSupport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Size, mtime and digest of every captured source file as of the last session,
+ * kept in run.tar as sources.manifest. A file whose size and mtime still match
+ * is captured from its recorded digest without being read, so a launch reads
+ * only the files that changed since the last one.
+ *
+ * As with git's index, a file modified within RACY_WINDOW_MS before the scan
+ * that recorded it is not trusted: a later edit in the same timestamp tick
+ * would leave size and mtime unchanged.
+ */
+final class SourceManifest {
+
+	//================================================================================
+	// Properties
+	//================================================================================
+
+	private static final int MAGIC = 0x534D4E46;  // "SMNF"
+	private static final int VERSION = 1;
+	static final long RACY_WINDOW_MS = 2000;      // coarsest common mtime resolution (FAT)
+
+	private final long scannedAt;
+	private final Map<String, Entry> entries = new HashMap<>();
+
+	private static final class Entry {
+		final long size;
+		final long mtime;
+		final String digest;
+
+		Entry(long size, long mtime, String digest) {
+			this.size = size;
+			this.mtime = mtime;
+			this.digest = digest;
+		}
+	}
+
+	// One file found by scan(); mtime in milliseconds
+	static final class FileStat {
+		final Path path;
+		final long size;
+		final long mtime;
+
+		FileStat(Path path, long size, long mtime) {
+			this.path = path;
+			this.size = size;
+			this.mtime = mtime;
+		}
+	}
+
+	// scannedAt is when the scan its entries come from started
+	SourceManifest(long scannedAt) {
+		this.scannedAt = scannedAt;
+	}
+
+	//================================================================================
+	// Entries
+	//================================================================================
+
+	void put(FileStat stat, String digest) {
+		entries.put(stat.path.toString(), new Entry(stat.size, stat.mtime, digest));
+	}
+
+	// The recorded digest if the file is provably unchanged since, otherwise null
+	String unchangedDigest(FileStat stat) {
+		Entry entry = entries.get(stat.path.toString());
+		if (entry == null || entry.size != stat.size || entry.mtime != stat.mtime
+				|| entry.mtime >= scannedAt - RACY_WINDOW_MS) {
+			return null;
+		}
+		return entry.digest;
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	//================================================================================
+	// Encoding
+	//================================================================================
+
+	byte[] encode() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(scannedAt);
+			out.writeInt(entries.size());
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue().size);
+				out.writeLong(entry.getValue().mtime);
+				out.writeUTF(entry.getValue().digest);
+			}
+			out.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // in-memory streams never throw
+		}
+		return bytes.toByteArray();
+	}
+
+	// An empty manifest for null, corrupt or unknown-version bytes, so every file is read
+	static SourceManifest decode(byte[] bytes) {
+		if (bytes == null) {
+			return new SourceManifest(0);
+		}
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return new SourceManifest(0);
+			}
+			SourceManifest manifest = new SourceManifest(in.readLong());
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String path = in.readUTF();
+				manifest.entries.put(path, new Entry(in.readLong(), in.readLong(), in.readUTF()));
+			}
+			return manifest;
+		} catch (IOException e) {
+			return new SourceManifest(0);
+		}
+	}
+
+	//================================================================================
+	// Scanning
+	//================================================================================
+
+	/**
+	 * Every file under root, skipping directories named skippedDirName, as
+	 * walkFileTree without FOLLOW_LINKS would visit them (a link to a file counts
+	 * with its target's attributes). Each directory is listed by its own fork/join
+	 * task, so a large tree is stat'ed on every core.
+	 */
+	static List<FileStat> scan(Path root, String skippedDirName) throws IOException {
+		try {
+			return ForkJoinPool.commonPool().invoke(new ScanTask(root, skippedDirName));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static final class ScanTask extends RecursiveTask<List<FileStat>> {
+		private static final long serialVersionUID = 1L;
+
+		private final Path dir;
+		private final String skippedDirName;
+
+		ScanTask(Path dir, String skippedDirName) {
+			this.dir = dir;
+			this.skippedDirName = skippedDirName;
+		}
+
+		@Override
+		protected List<FileStat> compute() {
+			List<FileStat> files = new ArrayList<>();
+			List<ScanTask> subdirectories = new ArrayList<>();
+			try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+				for (Path child : children) {
+					BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					if (attrs.isDirectory()) {
+						if (!child.getFileName().toString().equals(skippedDirName)) {
+							ScanTask task = new ScanTask(child, skippedDirName);
+							task.fork();
+							subdirectories.add(task);
+						}
+						continue;
+					}
+					if (attrs.isSymbolicLink()) {
+						attrs = Files.readAttributes(child, BasicFileAttributes.class);
+						if (attrs.isDirectory()) {
+							continue;
+						}
+					}
+					files.add(new FileStat(child, attrs.size(), attrs.lastModifiedTime().toMillis()));
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			for (ScanTask task : subdirectories) {
+				files.addAll(task.join());
+			}
+			return files;
+		}
+	}
+}
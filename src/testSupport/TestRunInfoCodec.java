@@ -0,0 +1,460 @@
+package testSupport;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Compact binary form of testRunInfo (testRunInfo.bin), lossless against the JSON tree.
+ *
+ * Layout: magic, version, a dictionary of every field name and text value in
+ * first-seen order, then the root value. Values are a one-byte tag plus payload;
+ * a bare test status is just its tag and "STATUS: cause" is the tag plus the
+ * cause's dictionary index. Run-number keys ("1", "2", ...) are stored as varint
+ * deltas from the previous run-number key of the same object, so a test's history
+ * costs about two bytes per run. Field order is kept, so exporting to JSON gives
+ * the bytes saveTestRunInfo() used to write.
+ *
+ * Export: java -cp &lt;classpath&gt; testSupport.TestRunInfoCodec &lt;run.tar|testRunInfo.bin&gt; [out.json]
+ */
+class TestRunInfoCodec {
+
+	//================================================================================
+	// Properties
+	//================================================================================
+
+	private static final int MAGIC = 0x54524942; // "TRIB"
+	private static final int VERSION = 1;
+
+	private static final int TAG_NULL = 0;
+	private static final int TAG_TRUE = 1;
+	private static final int TAG_FALSE = 2;
+	private static final int TAG_INT = 3;       // zigzag varint
+	private static final int TAG_LONG = 4;      // zigzag varint
+	private static final int TAG_DOUBLE = 5;
+	private static final int TAG_FLOAT = 6;
+	private static final int TAG_BIG_INTEGER = 7; // decimal text, dictionary index
+	private static final int TAG_DECIMAL = 8;     // decimal text, dictionary index
+	private static final int TAG_TEXT = 9;        // dictionary index
+	private static final int TAG_OBJECT = 10;
+	private static final int TAG_ARRAY = 11;
+	private static final int TAG_STATUS = 16;                                       // + ordinal
+	private static final int TAG_STATUS_CAUSE = TAG_STATUS + TestStatus.values().length; // + ordinal, then cause
+
+	private static final String causeSeparator = ": "; // as written by setTestRunNumberAndStatus
+
+	//================================================================================
+	// Export
+	//================================================================================
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage: TestRunInfoCodec <run.tar|testRunInfo.bin> [out.json]");
+			return;
+		}
+		byte[] json = toJson(readFrom(Paths.get(args[0])));
+		if (args.length > 1) {
+			Files.write(Paths.get(args[1]), json);
+		} else {
+			System.out.write(json);
+			System.out.println();
+			System.out.flush();
+		}
+	}
+
+	// Same pretty-printed layout testRunInfo.json has always had
+	static byte[] toJson(JsonNode testRunInfo) throws IOException {
+		return new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsBytes(testRunInfo);
+	}
+
+	/**
+	 * Reads testRunInfo from a bare .bin/.json file or from a run.tar. From a
+	 * run.tar, outcomes still in its journal are folded in, so the export is the
+	 * complete history.
+	 */
+	static JsonNode readFrom(Path path) throws IOException {
+		String name = path.getFileName().toString();
+		if (!name.endsWith(LoggingExtension.tarSuffix)) {
+			return decodeAny(Files.readAllBytes(path));
+		}
+		byte[] testRunInfo = null;
+		byte[] journal = null;
+		try (TarArchiveInputStream tIn = new TarArchiveInputStream(
+				new BufferedInputStream(Files.newInputStream(path)))) {
+			TarArchiveEntry entry;
+			while ((entry = tIn.getNextTarEntry()) != null) {
+				if (entry.getName().equals(LoggingExtension.testRunInfoBinaryFilename)
+						|| entry.getName().equals(LoggingExtension.testRunInfoFilename)) {
+					testRunInfo = tIn.readAllBytes();
+				} else if (entry.getName().equals(LoggingExtension.outcomeJournalFilename)) {
+					journal = tIn.readAllBytes();
+				}
+			}
+		}
+		if (testRunInfo == null) {
+			throw new IOException("No testRunInfo in " + path);
+		}
+		return fold(testRunInfo, journal);
+	}
+
+	// testRunInfo (either form) with the outcomes of journal, if any, folded in
+	static JsonNode fold(byte[] testRunInfo, byte[] journal) throws IOException {
+		JsonNode tree = decodeAny(testRunInfo);
+		if (journal != null) {
+			RunHistory history = RunHistory.load((ObjectNode) tree);
+			OutcomeJournal.replay(journal, history);
+			history.sync(true);
+		}
+		return tree;
+	}
+
+	// Either form, told apart by the binary magic
+	static JsonNode decodeAny(byte[] bytes) throws IOException {
+		return isBinary(bytes) ? decode(bytes) : new ObjectMapper().readTree(bytes);
+	}
+
+	//================================================================================
+	// Encoding
+	//================================================================================
+
+	static byte[] encode(JsonNode testRunInfo) throws IOException {
+		Encoder encoder = new Encoder();
+		encoder.writeValue(testRunInfo);
+		encoder.body.flush();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(encoder.bodyBytes.size() + 1024);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		writeVarint(out, encoder.strings.size());
+		for (String string : encoder.strings) {
+			byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+			writeVarint(out, utf8.length);
+			out.write(utf8);
+		}
+		encoder.bodyBytes.writeTo(out);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	// One pass over the tree; strings get dictionary indexes in first-seen order
+	private static final class Encoder {
+		final ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+		final DataOutputStream body = new DataOutputStream(bodyBytes);
+		final Map<String, Integer> dictionary = new HashMap<>();
+		final List<String> strings = new ArrayList<>();
+		final Map<String, Long> textCodes = new HashMap<>(); // text value -> tag << 32 | dictionary index
+
+		void writeValue(JsonNode node) throws IOException {
+			if (node.isObject()) {
+				body.writeByte(TAG_OBJECT);
+				writeVarint(body, node.size());
+				long prevRun = 0;
+				Iterator<Map.Entry<String, JsonNode>> iter = node.fields();
+				while (iter.hasNext()) {
+					Map.Entry<String, JsonNode> field = iter.next();
+					long run = runNumberKey(field.getKey());
+					if (run >= 0) {
+						// low bit set: run number, as a zigzag delta from the previous one
+						writeVarint(body, (zigzag(run - prevRun) << 1) | 1);
+						prevRun = run;
+					} else {
+						writeVarint(body, (long) intern(field.getKey()) << 1);
+					}
+					writeValue(field.getValue());
+				}
+			} else if (node.isArray()) {
+				body.writeByte(TAG_ARRAY);
+				writeVarint(body, node.size());
+				for (JsonNode element : node) {
+					writeValue(element);
+				}
+			} else if (node.isTextual()) {
+				long code = textCode(node.textValue());
+				int tag = (int) (code >>> 32);
+				body.writeByte(tag);
+				if (tag < TAG_STATUS || tag >= TAG_STATUS_CAUSE) { // a bare status is just its tag
+					writeVarint(body, (int) code);
+				}
+			} else if (node.isBoolean()) {
+				body.writeByte(node.booleanValue() ? TAG_TRUE : TAG_FALSE);
+			} else if (node.isInt() || node.isShort()) {
+				body.writeByte(TAG_INT);
+				writeVarint(body, zigzag(node.intValue()));
+			} else if (node.isLong()) {
+				body.writeByte(TAG_LONG);
+				writeVarint(body, zigzag(node.longValue()));
+			} else if (node.isDouble()) {
+				body.writeByte(TAG_DOUBLE);
+				body.writeDouble(node.doubleValue());
+			} else if (node.isFloat()) {
+				body.writeByte(TAG_FLOAT);
+				body.writeFloat(node.floatValue());
+			} else if (node.isBigInteger()) {
+				body.writeByte(TAG_BIG_INTEGER);
+				writeVarint(body, intern(node.asText()));
+			} else if (node.isBigDecimal()) {
+				body.writeByte(TAG_DECIMAL);
+				writeVarint(body, intern(node.asText()));
+			} else if (node.isNull()) {
+				body.writeByte(TAG_NULL);
+			} else {
+				throw new IOException("Unsupported testRunInfo node: " + node.getNodeType());
+			}
+		}
+
+		// Statuses repeat on every run, so each distinct text is classified once
+		private long textCode(String text) {
+			Long code = textCodes.get(text);
+			if (code == null) {
+				int status = statusOrdinal(text);
+				if (status < 0) {
+					code = (long) TAG_TEXT << 32 | intern(text);
+				} else if (text.length() == TestStatus.values()[status].name().length()) {
+					code = (long) (TAG_STATUS + status) << 32;
+				} else {
+					code = (long) (TAG_STATUS_CAUSE + status) << 32 | intern(causeOf(text, status));
+				}
+				textCodes.put(text, code);
+			}
+			return code;
+		}
+
+		private int intern(String string) {
+			Integer index = dictionary.get(string);
+			if (index == null) {
+				index = strings.size();
+				dictionary.put(string, index);
+				strings.add(string);
+			}
+			return index;
+		}
+	}
+
+	//================================================================================
+	// Decoding
+	//================================================================================
+
+	static JsonNode decode(byte[] bytes) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		if (bytes.length < Integer.BYTES + 1 || in.readInt() != MAGIC) {
+			throw new IOException("Not a binary testRunInfo");
+		}
+		int version = in.readUnsignedByte();
+		if (version != VERSION) {
+			throw new IOException("Unsupported testRunInfo version " + version);
+		}
+		int stringCount = Math.toIntExact(readVarint(in));
+		String[] strings = new String[stringCount];
+		for (int i = 0; i < stringCount; i++) {
+			byte[] utf8 = new byte[Math.toIntExact(readVarint(in))];
+			in.readFully(utf8);
+			strings[i] = new String(utf8, StandardCharsets.UTF_8);
+		}
+		return new Decoder(in, strings).readValue();
+	}
+
+	// Whether bytes are a binary testRunInfo rather than JSON text
+	static boolean isBinary(byte[] bytes) {
+		return bytes.length >= Integer.BYTES
+				&& ((bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff)) == MAGIC;
+	}
+
+	// Text nodes are immutable, so each distinct status or string is built once and shared
+	private static final class Decoder {
+		final DataInputStream in;
+		final String[] strings;
+		final JsonNodeFactory factory = JsonNodeFactory.instance;
+		final JsonNode[] textNodes;
+		final JsonNode[][] causeNodes = new JsonNode[TestStatus.values().length][];
+		final JsonNode[] statusNodes = new JsonNode[TestStatus.values().length];
+
+		Decoder(DataInputStream in, String[] strings) {
+			this.in = in;
+			this.strings = strings;
+			this.textNodes = new JsonNode[strings.length];
+			for (TestStatus status : TestStatus.values()) {
+				statusNodes[status.ordinal()] = factory.textNode(status.name());
+			}
+		}
+
+		JsonNode readValue() throws IOException {
+			int tag = in.readUnsignedByte();
+			switch (tag) {
+				case TAG_NULL:
+					return factory.nullNode();
+				case TAG_TRUE:
+					return factory.booleanNode(true);
+				case TAG_FALSE:
+					return factory.booleanNode(false);
+				case TAG_INT:
+					return factory.numberNode((int) unzigzag(readVarint(in)));
+				case TAG_LONG:
+					return factory.numberNode(unzigzag(readVarint(in)));
+				case TAG_DOUBLE:
+					return factory.numberNode(in.readDouble());
+				case TAG_FLOAT:
+					return factory.numberNode(in.readFloat());
+				case TAG_BIG_INTEGER:
+					return factory.numberNode(new BigInteger(strings[index()]));
+				case TAG_DECIMAL:
+					return factory.numberNode(new BigDecimal(strings[index()]));
+				case TAG_TEXT: {
+					int index = index();
+					if (textNodes[index] == null) {
+						textNodes[index] = factory.textNode(strings[index]);
+					}
+					return textNodes[index];
+				}
+				case TAG_OBJECT: {
+					ObjectNode object = factory.objectNode();
+					long fieldCount = readVarint(in);
+					long prevRun = 0;
+					for (long i = 0; i < fieldCount; i++) {
+						long key = readVarint(in);
+						String name;
+						if ((key & 1) != 0) {
+							prevRun += unzigzag(key >>> 1);
+							name = Long.toString(prevRun);
+						} else {
+							name = strings[checkIndex(key >>> 1)];
+						}
+						object.set(name, readValue());
+					}
+					return object;
+				}
+				case TAG_ARRAY: {
+					ArrayNode array = factory.arrayNode();
+					long size = readVarint(in);
+					for (long i = 0; i < size; i++) {
+						array.add(readValue());
+					}
+					return array;
+				}
+				default:
+					if (tag >= TAG_STATUS && tag < TAG_STATUS_CAUSE) {
+						return statusNodes[tag - TAG_STATUS];
+					}
+					if (tag >= TAG_STATUS_CAUSE && tag < TAG_STATUS_CAUSE + TestStatus.values().length) {
+						return causeNode(tag - TAG_STATUS_CAUSE, index());
+					}
+					throw new IOException("Unknown testRunInfo tag " + tag);
+			}
+		}
+
+		private JsonNode causeNode(int status, int index) {
+			if (causeNodes[status] == null) {
+				causeNodes[status] = new JsonNode[strings.length];
+			}
+			if (causeNodes[status][index] == null) {
+				causeNodes[status][index] = factory.textNode(
+						TestStatus.values()[status].name() + causeSeparator + strings[index]);
+			}
+			return causeNodes[status][index];
+		}
+
+		private int index() throws IOException {
+			return checkIndex(readVarint(in));
+		}
+
+		private int checkIndex(long index) throws IOException {
+			if (index < 0 || index >= strings.length) {
+				throw new IOException("testRunInfo dictionary index out of range: " + index);
+			}
+			return (int) index;
+		}
+	}
+
+	//================================================================================
+	// Helpers
+	//================================================================================
+
+	// The key's run number if it is a canonical non-negative integer, so it prints back identically; else -1
+	private static long runNumberKey(String key) {
+		int length = key.length();
+		if (length == 0 || length > 18 || (length > 1 && key.charAt(0) == '0')) {
+			return -1;
+		}
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			char c = key.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	// Ordinal of the status text starts with when it is "STATUS" or "STATUS: cause"; else -1
+	private static int statusOrdinal(String text) {
+		for (TestStatus status : TestStatus.values()) {
+			String name = status.name();
+			if (text.startsWith(name) && (text.length() == name.length()
+					|| text.startsWith(causeSeparator, name.length()))) {
+				return status.ordinal();
+			}
+		}
+		return -1;
+	}
+
+	private static String causeOf(String text, int status) {
+		return text.substring(TestStatus.values()[status].name().length() + causeSeparator.length());
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void writeVarint(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarint(InputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException("Truncated testRunInfo");
+			}
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed testRunInfo varint");
+	}
+}
@@ -0,0 +1,170 @@
+package testSupport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Timing budgets for the logger's callbacks, scaled to the machine. The fixed
+ * budgets were tuned on a typical laptop; a slower disk or CPU gets up to
+ * MAX_SCALE times as long, so a slow Chromebook does not collect strikes for
+ * work it cannot do faster. Budgets are never below the fixed ones.
+ *
+ * The scale comes from a calibration: a few 128 KB writes, each fsync'd, next
+ * to run.tar, and CRC32C (the source digest) over 1 MB. It takes a few tens of
+ * milliseconds and is kept in testRunInfo, so it only runs again every
+ * RECALIBRATE_RUNS runs. Per-test callbacks do in-memory bookkeeping, so the
+ * sync budget follows the CPU; beforeAll and the flush read and write run.tar,
+ * so theirs follow the slower of the two. A machine whose fsyncs vary widely
+ * also gets a larger way-too-long factor before a single run counts twice.
+ */
+final class TimingBudgets {
+
+	//================================================================================
+	// Properties
+	//================================================================================
+
+	static final long SYNC_MAX_TIME = 500;        // in ms — per-test callback overhead
+	static final long BEFORE_ALL_MAX_TIME = 2000; // in ms — filesystem I/O in beforeAll()
+	static final long ASYNC_MAX_TIME = 3000;      // in ms — afterAll() I/O operations
+	static final double WAY_TOO_LONG_FACTOR = 3;
+
+	static final double REFERENCE_DISK_MBPS = 40;    // write + fsync on the machine the budgets were tuned on
+	static final double REFERENCE_HASH_MBPS = 8000;  // CRC32C on that machine; without CPU support it is ~1000
+	static final double MAX_SCALE = 4;
+	static final double MAX_WAY_TOO_LONG_FACTOR = 6;
+	static final int RECALIBRATE_RUNS = 25;
+
+	private static final int DISK_BLOCK = 128 * 1024;
+	private static final int HASH_BLOCK = 1024 * 1024;
+	private static final int REPETITIONS = 3;
+	private static final long JITTER_FLOOR_NANOS = 2_000_000;  // spread below this is noise, not a slow disk
+	private static final String CALIBRATION_FILENAME = "calibration.tmp";
+
+	final long syncMs;
+	final long beforeAllMs;
+	final long asyncMs;
+	final double wayTooLongFactor;
+
+	private TimingBudgets(long syncMs, long beforeAllMs, long asyncMs, double wayTooLongFactor) {
+		this.syncMs = syncMs;
+		this.beforeAllMs = beforeAllMs;
+		this.asyncMs = asyncMs;
+		this.wayTooLongFactor = wayTooLongFactor;
+	}
+
+	/**
+	 * One calibration, as kept in testRunInfo's calibration. Throughputs are the
+	 * best of REPETITIONS; jitter is the slowest fsync'd write over the fastest,
+	 * or over JITTER_FLOOR_NANOS if the fastest took less.
+	 */
+	static final class Calibration {
+		final int run;
+		final double diskMBps;
+		final double hashMBps;
+		final double jitter;
+
+		Calibration(int run, double diskMBps, double hashMBps, double jitter) {
+			this.run = run;
+			this.diskMBps = diskMBps;
+			this.hashMBps = hashMBps;
+			this.jitter = jitter;
+		}
+
+		boolean isStale(int currentRun) {
+			return currentRun - run >= RECALIBRATE_RUNS || currentRun < run;
+		}
+	}
+
+	//================================================================================
+	// Budgets
+	//================================================================================
+
+	static TimingBudgets fixed() {
+		return new TimingBudgets(SYNC_MAX_TIME, BEFORE_ALL_MAX_TIME, ASYNC_MAX_TIME, WAY_TOO_LONG_FACTOR);
+	}
+
+	static TimingBudgets scaled(Calibration calibration) {
+		double cpuScale = scale(REFERENCE_HASH_MBPS, calibration.hashMBps);
+		double ioScale = Math.max(cpuScale, scale(REFERENCE_DISK_MBPS, calibration.diskMBps));
+		double factor = Math.max(WAY_TOO_LONG_FACTOR,
+				Math.min(MAX_WAY_TOO_LONG_FACTOR, WAY_TOO_LONG_FACTOR * calibration.jitter));
+		return new TimingBudgets(Math.round(SYNC_MAX_TIME * cpuScale), Math.round(BEFORE_ALL_MAX_TIME * ioScale),
+				Math.round(ASYNC_MAX_TIME * ioScale), Math.round(factor * 100) / 100.0);
+	}
+
+	// How many times slower than the reference, within [1, MAX_SCALE]; unmeasurable counts as the reference
+	private static double scale(double reference, double measured) {
+		if (!(measured > 0)) {
+			return 1;
+		}
+		return Math.max(1, Math.min(MAX_SCALE, reference / measured));
+	}
+
+	// Over budget by enough that a single run counts as two strikes
+	boolean wayTooLong(long elapsedMs, long budgetMs) {
+		return elapsedMs > wayTooLongFactor * budgetMs;
+	}
+
+	//================================================================================
+	// Calibrating
+	//================================================================================
+
+	// Measures this machine in dir (the folder run.tar lives in); the scratch file is always removed
+	static Calibration measure(Path dir, int run) throws IOException {
+		byte[] block = new byte[Math.max(DISK_BLOCK, HASH_BLOCK)];
+		for (int i = 0; i < block.length; i++) {
+			block[i] = (byte) (i * 31 + (i >>> 8));
+		}
+
+		long bestDisk = Long.MAX_VALUE;
+		long worstDisk = 0;
+		Path scratch = dir.resolve(CALIBRATION_FILENAME);
+		try (FileChannel channel = FileChannel.open(scratch, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			// The first write also creates the file, so it is not counted
+			for (int i = 0; i <= REPETITIONS; i++) {
+				long start = System.nanoTime();
+				ByteBuffer buffer = ByteBuffer.wrap(block, 0, DISK_BLOCK);
+				long position = (long) i * DISK_BLOCK;
+				while (buffer.hasRemaining()) {
+					position += channel.write(buffer, position);
+				}
+				channel.force(false);
+				long elapsed = System.nanoTime() - start;
+				if (i > 0) {
+					bestDisk = Math.min(bestDisk, elapsed);
+					worstDisk = Math.max(worstDisk, elapsed);
+				}
+			}
+		} finally {
+			Files.deleteIfExists(scratch);
+		}
+
+		// One pass first, so the best time is not the interpreter's
+		CRC32C crc = new CRC32C();
+		crc.update(block, 0, HASH_BLOCK);
+		long bestHash = Long.MAX_VALUE;
+		for (int i = 0; i < REPETITIONS; i++) {
+			long start = System.nanoTime();
+			crc.reset();
+			crc.update(block, 0, HASH_BLOCK);
+			bestHash = Math.min(bestHash, System.nanoTime() - start);
+		}
+
+		return new Calibration(run, round(megabytesPerSecond(DISK_BLOCK, bestDisk)),
+				round(megabytesPerSecond(HASH_BLOCK, bestHash)), round(Math.max(1, (double) worstDisk / Math.max(JITTER_FLOOR_NANOS, bestDisk))));
+	}
+
+	private static double megabytesPerSecond(long bytes, long nanos) {
+		return (bytes / (1024.0 * 1024.0)) / (Math.max(1, nanos) / 1e9);
+	}
+
+	private static double round(double value) {
+		return Math.round(value * 100) / 100.0;
+	}
+}
@@ -0,0 +1,397 @@
+package testSupport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarFile;
+import org.apache.commons.compress.utils.CountingOutputStream;
+
+/**
+ * The session's working files, held in memory instead of a temp directory.
+ * A tree of byte buffers keyed by '/'-separated path relative to the workspace
+ * root, each with the mtime it would have had on disk so archives built from it
+ * match ones built from real files. Safe for concurrent diff workers as long as
+ * each one writes its own paths.
+ *
+ * A file untarred as deferred stays in run.tar until first read: it is only a
+ * pointer to its bytes there, from run.tar's index. Saving copies an unread one
+ * straight across, so old diffs generations are never loaded at all.
+ */
+class Workspace {
+
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	private static final class Entry {
+		private byte[] contents;            // null until a deferred file is read
+		final long mtime;
+		final long size;
+		final Path sourceTar;               // where a deferred file's bytes are; null for written files
+		final RunTarIndex.Member source;
+
+		Entry(byte[] contents, long mtime) {
+			this.contents = contents;
+			this.mtime = mtime;
+			this.size = contents.length;
+			this.sourceTar = null;
+			this.source = null;
+		}
+
+		Entry(Path sourceTar, RunTarIndex.Member source, long mtime) {
+			this.mtime = mtime;
+			this.size = source.size;
+			this.sourceTar = sourceTar;
+			this.source = source;
+		}
+
+		// Bytes that no longer match the index are still returned, as an eager untar would have
+		synchronized byte[] contents() {
+			if (contents == null) {
+				try (FileChannel channel = FileChannel.open(sourceTar, StandardOpenOption.READ)) {
+					contents = RunTarIndex.readRegion(channel, source.offset, source.size);
+					LoggingEvents.addBytesRead(source.size);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			return contents;
+		}
+
+		synchronized boolean isDeferred() {
+			return contents == null;
+		}
+	}
+
+	private final ConcurrentSkipListMap<String, Entry> files = new ConcurrentSkipListMap<>();
+
+	//================================================================================
+	// Files
+	//================================================================================
+
+	boolean exists(String path) {
+		return files.containsKey(path);
+	}
+
+	int fileCount() {
+		return files.size();
+	}
+
+	// Contents of path, or null if there is no such file
+	byte[] read(String path) {
+		Entry entry = files.get(path);
+		return entry == null ? null : entry.contents();
+	}
+
+	String readString(String path) {
+		byte[] contents = read(path);
+		return contents == null ? null : new String(contents, StandardCharsets.UTF_8);
+	}
+
+	long size(String path) {
+		Entry entry = files.get(path);
+		return entry == null ? 0 : entry.size;
+	}
+
+	long getModifiedTime(String path) {
+		Entry entry = files.get(path);
+		return entry == null ? 0 : entry.mtime;
+	}
+
+	// Replaces path; the caller must not modify contents afterwards
+	void write(String path, byte[] contents) {
+		write(path, contents, System.currentTimeMillis());
+	}
+
+	void write(String path, byte[] contents, long mtime) {
+		files.put(path, new Entry(contents, mtime));
+	}
+
+	void writeString(String path, String contents) {
+		write(path, contents.getBytes(StandardCharsets.UTF_8));
+	}
+
+	// Same bytes Files.write(path, lines, CREATE, APPEND) would add
+	void appendLines(String path, List<String> lines) {
+		StringBuilder appended = new StringBuilder();
+		String existing = readString(path);
+		if (existing != null) {
+			appended.append(existing);
+		}
+		for (String line : lines) {
+			appended.append(line).append(System.lineSeparator());
+		}
+		writeString(path, appended.toString());
+	}
+
+	// Keeps the mtime, like a move on disk
+	boolean move(String from, String to) {
+		Entry entry = files.remove(from);
+		if (entry == null) {
+			return false;
+		}
+		files.put(to, entry);
+		return true;
+	}
+
+	boolean copy(String from, String to) {
+		Entry entry = files.get(from);
+		if (entry == null) {
+			return false;
+		}
+		files.put(to, new Entry(entry.contents(), System.currentTimeMillis()));
+		return true;
+	}
+
+	void delete(String path) {
+		files.remove(path);
+	}
+
+	void clear() {
+		files.clear();
+	}
+
+	//================================================================================
+	// Directories
+	//================================================================================
+
+	// Paths of every file under dir, relative to dir, in sorted order; "" lists the whole tree
+	List<String> list(String dir) {
+		String prefix = dir.isEmpty() ? "" : dir + "/";
+		List<String> relative = new ArrayList<>();
+		for (String path : files.tailMap(prefix).keySet()) {
+			if (!path.startsWith(prefix)) {
+				break;
+			}
+			relative.add(path.substring(prefix.length()));
+		}
+		return relative;
+	}
+
+	// Files directly in dir, not in its subdirectories
+	List<String> listChildren(String dir) {
+		List<String> children = new ArrayList<>();
+		for (String name : list(dir)) {
+			if (name.indexOf('/') < 0) {
+				children.add(name);
+			}
+		}
+		return children;
+	}
+
+	long sizeUnder(String dir) {
+		String prefix = dir.isEmpty() ? "" : dir + "/";
+		long total = 0;
+		for (Map.Entry<String, Entry> entry : files.tailMap(prefix).entrySet()) {
+			if (!entry.getKey().startsWith(prefix)) {
+				break;
+			}
+			total += entry.getValue().size;
+		}
+		return total;
+	}
+
+	static String resolve(String dir, String name) {
+		return dir.isEmpty() ? name : dir + "/" + name;
+	}
+
+	// Rejects absolute names and any . or .. segment, which could escape dir
+	static boolean isPlainRelative(String name) {
+		if (name.isEmpty() || name.startsWith("/")) {
+			return false;
+		}
+		for (String segment : name.split("/")) {
+			if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//================================================================================
+	// Tar
+	//================================================================================
+
+	void untar(Path tarPath, String dir) throws IOException {
+		untar(tarPath, dir, name -> false);
+	}
+
+	/**
+	 * Loads every file in the tar at tarPath into dir. Each member is read from
+	 * the tar's channel straight into its own buffer, with no stream copy. If the
+	 * tar has an index, members named by deferred are left in it until read.
+	 * The index itself is not loaded; every save writes a new one.
+	 */
+	void untar(Path tarPath, String dir, Predicate<String> deferred) throws IOException {
+		try (FileChannel source = FileChannel.open(tarPath, StandardOpenOption.READ);
+			 TarFile tarFile = new TarFile(source)) {
+
+			RunTarIndex index = RunTarIndex.read(source);
+			for (TarArchiveEntry entry : tarFile.getEntries()) {
+				if (entry.isDirectory() || entry.getName().equals(RunTarIndex.entryName)) {
+					continue;
+				}
+				if (!isPlainRelative(entry.getName())) {
+					throw new IOException("Illegal TAR entry: " + entry.getName());
+				}
+				String path = resolve(dir, entry.getName());
+				RunTarIndex.Member member = index == null ? null : index.getMember(entry.getName());
+				if (member != null && deferred.test(entry.getName()) && !entry.isSparse()
+						&& member.offset == entry.getDataOffset() && member.size == entry.getSize()) {
+					files.put(path, new Entry(tarPath, member, entry.getModTime().getTime()));
+					continue;
+				}
+				byte[] contents;
+				if (entry.isSparse()) {
+					try (var in = tarFile.getInputStream(entry)) {
+						contents = in.readAllBytes();
+					}
+				} else {
+					contents = new byte[Math.toIntExact(entry.getSize())];
+					ByteBuffer buffer = ByteBuffer.wrap(contents);
+					long position = entry.getDataOffset();
+					while (buffer.hasRemaining()) {
+						int read = source.read(buffer, position + buffer.position());
+						if (read < 0) {
+							throw new IOException("Truncated TAR entry: " + entry.getName());
+						}
+					}
+				}
+				LoggingEvents.addBytesRead(contents.length);
+				write(path, contents, entry.getModTime().getTime());
+			}
+		}
+	}
+
+	// Writes the given files (paths relative to dir) as tar entries named by their relative path
+	void tar(String dir, List<String> names, TarArchiveOutputStream tOut) throws IOException {
+		for (String name : names) {
+			String path = resolve(dir, name);
+			Entry file = files.get(path);
+			if (file == null) {
+				throw new IOException("No such workspace file: " + path);
+			}
+			TarArchiveEntry entry = new TarArchiveEntry(name);
+			entry.setSize(file.size);
+			entry.setModTime(file.mtime);
+			tOut.putArchiveEntry(entry);
+			tOut.write(file.contents());
+			tOut.closeArchiveEntry();
+		}
+	}
+
+	// Same as tar() but closes out when done
+	void writeTar(String dir, List<String> names, OutputStream out) throws IOException {
+		try (TarArchiveOutputStream tOut = new TarArchiveOutputStream(out)) {
+			tOut.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+			tar(dir, names, tOut);
+		}
+	}
+
+	/**
+	 * writeTar() followed by a RunTarIndex member describing everything before it,
+	 * which is also returned. Deferred files are copied from their tar unread and
+	 * keep their index entry, unless their CRC shows the bytes have changed since.
+	 */
+	RunTarIndex writeIndexedTar(String dir, List<String> names, OutputStream out) throws IOException {
+		RunTarIndex index = new RunTarIndex();
+		CountingOutputStream counted = new CountingOutputStream(out);
+		try (TarArchiveOutputStream tOut = new TarArchiveOutputStream(counted, RunTarIndex.TAR_BLOCK_SIZE)) {
+			tOut.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+			for (String name : names) {
+				String path = resolve(dir, name);
+				Entry file = files.get(path);
+				if (file == null) {
+					throw new IOException("No such workspace file: " + path);
+				}
+				TarArchiveEntry entry = new TarArchiveEntry(name);
+				entry.setSize(file.size);
+				entry.setModTime(file.mtime);
+				tOut.putArchiveEntry(entry);
+				long offset = counted.getBytesWritten();
+				if (file.isDeferred()) {
+					long crc = copyDeferred(file, tOut);
+					index.add(crc == file.source.crc ? file.source.movedTo(name, offset)
+							: RunTarIndex.opaque(name, offset, file.size, crc));
+				} else {
+					byte[] contents = file.contents();
+					tOut.write(contents);
+					index.add(RunTarIndex.describe(name, offset, contents));
+				}
+				tOut.closeArchiveEntry();
+			}
+
+			byte[] indexBytes = index.encode();
+			TarArchiveEntry entry = new TarArchiveEntry(RunTarIndex.entryName);
+			entry.setSize(indexBytes.length);
+			entry.setModTime(System.currentTimeMillis());
+			tOut.putArchiveEntry(entry);
+			tOut.write(indexBytes);
+			tOut.closeArchiveEntry();
+		}
+		LoggingEvents.addBytesWritten(counted.getBytesWritten());
+		return index;
+	}
+
+	// Copies the bytes as they are and returns their CRC32
+	private static long copyDeferred(Entry file, OutputStream out) throws IOException {
+		CRC32 crc = new CRC32();
+		ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+		try (FileChannel channel = FileChannel.open(file.sourceTar, StandardOpenOption.READ)) {
+			long position = file.source.offset;
+			long end = position + file.source.size;
+			while (position < end) {
+				buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+				int read = channel.read(buffer, position);
+				if (read < 0) {
+					throw new IOException("Truncated TAR entry: " + file.source.name);
+				}
+				crc.update(buffer.array(), 0, read);
+				LoggingEvents.addBytesRead(read);
+				out.write(buffer.array(), 0, read);
+				position += read;
+			}
+		}
+		return crc.getValue();
+	}
+
+	// Reads in the deferred files from tarPath outside dir, before a tar without them replaces it; returns how many
+	int loadDeferredOutside(String dir, Path tarPath) {
+		String prefix = dir.isEmpty() ? "" : dir + "/";
+		int loaded = 0;
+		for (Map.Entry<String, Entry> entry : files.entrySet()) {
+			Entry file = entry.getValue();
+			if (!entry.getKey().startsWith(prefix) && file.isDeferred() && file.sourceTar.equals(tarPath)) {
+				file.contents();
+				loaded++;
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * After the tar written with index has replaced tarPath, points the unread
+	 * deferred files under dir at their new place in it.
+	 */
+	void relocate(String dir, Path tarPath, RunTarIndex index) {
+		for (RunTarIndex.Member member : index.getMembers()) {
+			String path = resolve(dir, member.name);
+			Entry file = files.get(path);
+			if (file != null && file.isDeferred()) {
+				files.replace(path, file, new Entry(tarPath, member, file.mtime));
+			}
+		}
+	}
+}